@@ -0,0 +1,57 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOAction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of long bind chains: an AsyncAction loop of the given depth, and a left-nested IOAction chain of
+ * the same depth built up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindChainBenchmark extends ExecutorState {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int depth;
+
+    private IOAction<Integer> ioChain;
+
+    @Setup
+    public void buildChain() {
+        IOAction<Integer> chain = IOAction.unit(0);
+        for (int i = 0; i < depth; i++) {
+            chain = chain.bind(x -> IOAction.unit(x + 1));
+        }
+        ioChain = chain;
+    }
+
+    private static AsyncAction<Integer> countDown(int n) {
+        if (n == 0) {
+            return AsyncAction.unit(0);
+        }
+        return AsyncAction.unit(n - 1).bind(BindChainBenchmark::countDown);
+    }
+
+    @Benchmark
+    public Integer asyncActionChain() throws Exception {
+        return perform(countDown(depth));
+    }
+
+    @Benchmark
+    public Integer ioActionChain() throws Exception {
+        return ioChain.perform();
+    }
+}
@@ -0,0 +1,107 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.BroadcastChannel;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending one message to SUBSCRIBERS receivers, through a broadcast channel or by sending it on one
+ * buffered channel per receiver. publish* only measures the sender; *AndReadAll also has every receiver
+ * take the message, which the fan-out needs anyway to keep its buffers from filling up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1", "16", "256"})
+    public int subscribers;
+
+    private final Integer message = 42;
+    private ScheduledExecutorService executorService;
+    private IOActionExecutor executor;
+    private ChannelHandle.SendPort<Integer> broadcast;
+    private ChannelHandle.ReceivePort<Integer>[] subscriptions;
+    private ChannelHandle.SendPort<Integer>[] fanOutIn;
+    private ChannelHandle.ReceivePort<Integer>[] fanOutOut;
+
+    private <T> T await(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(result -> AsyncAction.wrap(() -> {
+            future.complete(result);
+            return null;
+        })).getIOAction(executor).perform();
+        return future.get();
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void createChannels() throws Exception {
+        executorService = Executors.newScheduledThreadPool(1);
+        executor = new IOActionExecutor(executorService);
+        BroadcastChannel<Integer> channel = await(CSP.newBroadcastChannel(1024,
+                BroadcastChannel.SlowSubscriberPolicy.DROP_OLDEST));
+        broadcast = channel.getSendPort();
+        subscriptions = new ChannelHandle.ReceivePort[subscribers];
+        fanOutIn = new ChannelHandle.SendPort[subscribers];
+        fanOutOut = new ChannelHandle.ReceivePort[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions[i] = await(channel.subscribe());
+            ChannelHandle<Integer> ch = await(CSP.newChannel(1024));
+            fanOutIn[i] = ch.getSendPort();
+            fanOutOut[i] = ch.getReceivePort();
+        }
+    }
+
+    @TearDown
+    public void stopExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public Object publishBroadcast() throws Exception {
+        return broadcast.trySend(message).getIOAction(executor).perform();
+    }
+
+    @Benchmark
+    public Object publishAndReadAllBroadcast() throws Exception {
+        Object last = broadcast.trySend(message).getIOAction(executor).perform();
+        for (ChannelHandle.ReceivePort<Integer> port : subscriptions) {
+            last = port.tryReceive().getIOAction(executor).perform();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public Object publishAndReadAllFanOut() throws Exception {
+        Object last = null;
+        for (ChannelHandle.SendPort<Integer> port : fanOutIn) {
+            last = port.trySend(message).getIOAction(executor).perform();
+        }
+        for (ChannelHandle.ReceivePort<Integer> port : fanOutOut) {
+            last = port.tryReceive().getIOAction(executor).perform();
+        }
+        return last;
+    }
+}
@@ -0,0 +1,81 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.io.AsyncAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer to consumer throughput through a buffered channel, one message at a time and in batches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferedChannelBenchmark extends ExecutorState {
+    private static final int MESSAGES = 10000;
+
+    @Param({"1", "16", "256"})
+    public int capacity;
+
+    private List<Integer> messages;
+
+    @Setup
+    public void prepareMessages() {
+        messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(i);
+        }
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(remaining).bind(x -> produce(port, remaining - 1));
+    }
+
+    private static AsyncAction<Void> consume(ChannelHandle.ReceivePort<Integer> port, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.receive().bind(x -> consume(port, remaining - 1));
+    }
+
+    private static AsyncAction<Void> consumeBatches(ChannelHandle.ReceivePort<Integer> port, int max, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.receiveUpTo(max).bind(batch -> consumeBatches(port, max, remaining - batch.size()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void singleMessages() throws Exception {
+        perform(CSP.<Integer>newChannel(capacity).bind(ch ->
+                AsyncAction.fork(produce(ch.getSendPort(), MESSAGES))
+                        .then(consume(ch.getReceivePort(), MESSAGES))));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void batches() throws Exception {
+        perform(CSP.<Integer>newChannel(capacity).bind(ch ->
+                AsyncAction.fork(ch.getSendPort().sendAll(messages))
+                        .then(consumeBatches(ch.getReceivePort(), capacity, MESSAGES))));
+    }
+}
@@ -0,0 +1,169 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.HandoffScheduler;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.VirtualThreads;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The PingPong and StatelessService workloads on a fixed platform pool, a ForkJoinPool, virtual threads and
+ * the HandoffScheduler.
+ * In the service workload every request handler blocks its thread for blockMicros, as a JDBC call would;
+ * platform pools then serve at most as many requests at a time as they have threads. The virtual variant
+ * needs the multi-release jar running on Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorComparisonBenchmark {
+    private static final int ROUND_TRIPS = 1000;
+    private static final int REQUESTS = 1000;
+
+    @Param({"platform", "forkjoin", "virtual", "handoff"})
+    public String executorKind;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"0", "100"})
+    public int blockMicros;
+
+    private ScheduledExecutorService timer;
+    private ExecutorService executorService;
+    private IOActionExecutor executor;
+
+    @Setup
+    public void startExecutor() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        switch (executorKind) {
+            case "platform":
+                executorService = Executors.newFixedThreadPool(threads);
+                break;
+            case "forkjoin":
+                executorService = new ForkJoinPool(threads);
+                break;
+            case "virtual":
+                executorService = VirtualThreads.newExecutorService();
+                break;
+            case "handoff":
+                executorService = new HandoffScheduler(threads);
+                break;
+            default:
+                throw new IllegalArgumentException(executorKind);
+        }
+        executor = "handoff".equals(executorKind)
+                ? ((HandoffScheduler) executorService).newIOActionExecutor(timer)
+                : new IOActionExecutor(executorService, timer);
+    }
+
+    @TearDown
+    public void stopExecutor() {
+        executorService.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(result -> AsyncAction.wrap(() -> {
+            future.complete(result);
+            return null;
+        })).getIOAction(executor).perform();
+        return future.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public void pingPong() throws Exception {
+        perform(CSP.<Integer>newChannel().bind(ping ->
+                CSP.<Integer>newChannel().bind(pong ->
+                        CSP.<Integer>newChannel().bind(idle ->
+                                AsyncAction.fork(PingPongBenchmark.pongBody(ping, pong, idle, false, ROUND_TRIPS))
+                                        .then(PingPongBenchmark.pingBody(ping, pong, idle, false, ROUND_TRIPS))))));
+    }
+
+    private static class Request {
+        final int payload;
+        final ChannelHandle.SendPort<Integer> reply;
+
+        Request(int payload, ChannelHandle.SendPort<Integer> reply) {
+            this.payload = payload;
+            this.reply = reply;
+        }
+    }
+
+    private AsyncAction<Integer> handle(int payload) {
+        return AsyncAction.wrap(() -> {
+            if (blockMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+            }
+            return payload + 1;
+        });
+    }
+
+    private AsyncAction<Void> serviceBody(ChannelHandle.ReceivePort<Request> requests, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return requests.receive().bind(req ->
+                AsyncAction.fork(handle(req.payload).bind(req.reply::send))
+                        .then(serviceBody(requests, remaining - 1)));
+    }
+
+    private static AsyncAction<Integer> call(ChannelHandle.SendPort<Request> service, int payload) {
+        return CSP.<Integer>newChannel().bind(reply ->
+                service.send(new Request(payload, reply.getSendPort()))
+                        .then(reply.getReceivePort().receive()));
+    }
+
+    private static AsyncAction<Void> clients(ChannelHandle.SendPort<Request> service,
+                                             ChannelHandle<Integer> done, int count) {
+        if (count == 0) {
+            return AsyncAction.unit(null);
+        }
+        return AsyncAction.fork(call(service, count).bind(done.getSendPort()::send))
+                .then(clients(service, done, count - 1));
+    }
+
+    private static AsyncAction<Void> awaitAll(ChannelHandle<Integer> done, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return done.getReceivePort().receive().bind(x -> awaitAll(done, remaining - 1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void statelessService() throws Exception {
+        perform(CSP.<Request>newChannel().bind(service ->
+                CSP.<Integer>newChannel(REQUESTS).bind(done ->
+                        AsyncAction.fork(serviceBody(service.getReceivePort(), REQUESTS))
+                                .then(clients(service.getSendPort(), done, REQUESTS))
+                                .then(awaitAll(done, REQUESTS)))));
+    }
+}
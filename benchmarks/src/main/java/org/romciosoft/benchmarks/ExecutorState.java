@@ -0,0 +1,54 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Base state for benchmarks that run processes: a thread pool of the size given by the threads parameter,
+ * where "all" stands for the number of available cores.
+ */
+@State(Scope.Benchmark)
+public class ExecutorState {
+    @Param({"1", "2", "4", "all"})
+    public String threads;
+
+    protected ScheduledExecutorService executorService;
+    protected IOActionExecutor executor;
+
+    protected int threadCount() {
+        return "all".equals(threads) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+    }
+
+    protected IOActionExecutor createExecutor(ScheduledExecutorService executorService) {
+        return new IOActionExecutor(executorService);
+    }
+
+    @Setup
+    public void startExecutor() {
+        executorService = Executors.newScheduledThreadPool(threadCount());
+        executor = createExecutor(executorService);
+    }
+
+    @TearDown
+    public void stopExecutor() {
+        executorService.shutdownNow();
+    }
+
+    protected <T> T perform(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(result -> AsyncAction.wrap(() -> {
+            future.complete(result);
+            return null;
+        })).getIOAction(executor).perform();
+        return future.get();
+    }
+}
@@ -0,0 +1,76 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.metrics.JmxMetricsRegistry;
+import org.romciosoft.metrics.MetricsRegistry;
+
+import javax.management.MBeanServerFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation hooks: "none" runs with the default no-op registry, which is the overhead
+ * every user pays, "jmx" with counters, gauges and histograms collected for every channel and select.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark extends ExecutorState {
+    private static final int MESSAGES = 10000;
+
+    @Param({"none", "jmx"})
+    public String metrics;
+
+    @Override
+    protected IOActionExecutor createExecutor(ScheduledExecutorService executorService) {
+        MetricsRegistry registry = "jmx".equals(metrics)
+                ? new JmxMetricsRegistry(MBeanServerFactory.newMBeanServer(), "bench")
+                : MetricsRegistry.NOOP;
+        return new IOActionExecutor(executorService, registry);
+    }
+
+    private static AsyncAction<Void> sendTimes(ChannelHandle<Integer> ch, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return ch.getSendPort().send(remaining).bind(x -> sendTimes(ch, remaining - 1));
+    }
+
+    private static AsyncAction<Void> receiveTimes(ChannelHandle<Integer> ch, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return ch.getReceivePort().receive().bind(x -> receiveTimes(ch, remaining - 1));
+    }
+
+    private void transfer(int bufferSize) throws Exception {
+        perform(CSP.<Integer>newChannel(bufferSize, "bench").bind(ch ->
+                AsyncAction.fork(sendTimes(ch, MESSAGES)).then(receiveTimes(ch, MESSAGES))));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void unbuffered() throws Exception {
+        transfer(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void buffered() throws Exception {
+        transfer(16);
+    }
+}
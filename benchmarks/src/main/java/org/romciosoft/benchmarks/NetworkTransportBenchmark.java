@@ -0,0 +1,90 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.NetworkTransport;
+import org.romciosoft.csp.Serializer;
+import org.romciosoft.io.AsyncAction;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of short string messages through ports imported over a loopback connection, for different
+ * credit windows: remote sends into an exported channel, and remote receives from one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkTransportBenchmark extends ExecutorState {
+    private static final int MESSAGES = 10000;
+
+    @Param({"16", "256"})
+    public int window;
+
+    private NetworkTransport server;
+    private NetworkTransport client;
+    private List<String> messages;
+    private ChannelHandle<String> inbox;
+    private ChannelHandle<String> outbox;
+    private ChannelHandle.SendPort<String> remoteInbox;
+    private ChannelHandle.ReceivePort<String> remoteOutbox;
+
+    @Setup
+    public void connect() throws Exception {
+        messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add("message " + i);
+        }
+        server = new NetworkTransport(executor, window);
+        client = new NetworkTransport(executor, window);
+        InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        inbox = perform(CSP.newChannel(256));
+        outbox = perform(CSP.newChannel(256));
+        server.export("inbox", inbox, Serializer.utf8());
+        server.export("outbox", outbox, Serializer.utf8());
+        remoteInbox = perform(client.importSendPort(address, "inbox", Serializer.utf8()));
+        remoteOutbox = perform(client.importReceivePort(address, "outbox", Serializer.utf8()));
+    }
+
+    @TearDown
+    public void disconnect() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    private static AsyncAction<Void> consume(ChannelHandle.ReceivePort<String> port, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.receiveUpTo(256).bind(batch -> consume(port, remaining - batch.size()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void remoteSend() throws Exception {
+        perform(AsyncAction.fork(remoteInbox.sendAll(messages)).then(consume(inbox.getReceivePort(), MESSAGES)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void remoteReceive() throws Exception {
+        perform(AsyncAction.fork(outbox.getSendPort().sendAll(messages)).then(consume(remoteOutbox, MESSAGES)));
+    }
+}
@@ -0,0 +1,130 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.data.PersistentHashMap;
+import org.romciosoft.data.PersistentVector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of carrying a vector or map of SIZE entries forward as immutable process state: one changed
+ * version per message, either from the persistent structures or by copying a JDK collection and changing
+ * the copy. Also building a whole map, with persistent puts and with a builder, and reading from one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentCollectionsBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private PersistentVector<Integer> vector;
+    private ArrayList<Integer> list;
+    private PersistentHashMap<Integer, Integer> map;
+    private HashMap<Integer, Integer> hashMap;
+    private Integer[] keys;
+    private int next;
+
+    @Setup
+    public void fill() {
+        keys = new Integer[size];
+        PersistentVector.Builder<Integer> vectorBuilder = PersistentVector.builder();
+        PersistentHashMap.Builder<Integer, Integer> mapBuilder = PersistentHashMap.builder();
+        list = new ArrayList<>();
+        hashMap = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = i * 31;
+            vectorBuilder.append(i);
+            mapBuilder.put(keys[i], i);
+            list.add(i);
+            hashMap.put(keys[i], i);
+        }
+        vector = vectorBuilder.build();
+        map = mapBuilder.build();
+    }
+
+    private int nextIndex() {
+        next = next + 1 == size ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Object vectorSet() {
+        return vector.set(nextIndex(), next);
+    }
+
+    @Benchmark
+    public Object copyOnWriteListSet() {
+        ArrayList<Integer> copy = new ArrayList<>(list);
+        copy.set(nextIndex(), next);
+        return copy;
+    }
+
+    @Benchmark
+    public Object vectorAppend() {
+        return vector.append(next);
+    }
+
+    @Benchmark
+    public Object copyOnWriteListAppend() {
+        ArrayList<Integer> copy = new ArrayList<>(size + 1);
+        copy.addAll(list);
+        copy.add(next);
+        return copy;
+    }
+
+    @Benchmark
+    public Object mapPut() {
+        return map.put(keys[nextIndex()], next);
+    }
+
+    @Benchmark
+    public Object copyOnWriteMapPut() {
+        HashMap<Integer, Integer> copy = new HashMap<>(hashMap);
+        copy.put(keys[nextIndex()], next);
+        return copy;
+    }
+
+    @Benchmark
+    public Object mapGet() {
+        return map.get(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public Object hashMapGet() {
+        return hashMap.get(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public Object mapBuildWithPuts() {
+        PersistentHashMap<Integer, Integer> result = PersistentHashMap.empty();
+        for (Integer key : keys) {
+            result = result.put(key, key);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Object mapBuildWithBuilder() {
+        PersistentHashMap.Builder<Integer, Integer> builder = PersistentHashMap.builder();
+        for (Integer key : keys) {
+            builder.put(key, key);
+        }
+        return builder.build();
+    }
+}
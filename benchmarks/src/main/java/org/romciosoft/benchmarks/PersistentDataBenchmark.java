@@ -0,0 +1,68 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.romciosoft.data.IPersistentQueue;
+import org.romciosoft.data.IPersistentStack;
+import org.romciosoft.data.PersistentQueue;
+import org.romciosoft.data.PersistentStack;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling and draining the persistent queue and stack. These run on the calling thread only, so unlike
+ * the process benchmarks they have no thread pool parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentDataBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    @Benchmark
+    public void queueOfferThenPoll(Blackhole bh) {
+        IPersistentQueue<Integer> queue = PersistentQueue.empty();
+        for (int i = 0; i < size; i++) {
+            queue = queue.offer(i);
+        }
+        while (!queue.isEmpty()) {
+            bh.consume(queue.peek());
+            queue = queue.poll();
+        }
+    }
+
+    @Benchmark
+    public void queueInterleaved(Blackhole bh) {
+        IPersistentQueue<Integer> queue = PersistentQueue.empty();
+        for (int i = 0; i < size; i++) {
+            queue = queue.offer(i).offer(i);
+            bh.consume(queue.peek());
+            queue = queue.poll();
+        }
+    }
+
+    @Benchmark
+    public void stackPushThenPop(Blackhole bh) {
+        IPersistentStack<Integer> stack = PersistentStack.empty();
+        for (int i = 0; i < size; i++) {
+            stack = stack.push(i);
+        }
+        while (!stack.isEmpty()) {
+            bh.consume(stack.peek());
+            stack = stack.pop();
+        }
+    }
+}
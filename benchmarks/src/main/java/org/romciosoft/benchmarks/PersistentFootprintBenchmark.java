@@ -0,0 +1,109 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.data.ChunkedQueue;
+import org.romciosoft.data.ChunkedStack;
+import org.romciosoft.data.IPersistentQueue;
+import org.romciosoft.data.IPersistentStack;
+import org.romciosoft.data.PersistentQueue;
+import org.romciosoft.data.PersistentStack;
+import org.romciosoft.data.RealTimeQueue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a stack or queue of SIZE elements, reported per element. Run with -prof gc to get the bytes
+ * allocated per element, which includes the versions thrown away along the way; the bytes the finished
+ * structure retains per element are measured once per trial from the heap after a GC and printed on
+ * teardown. The elements themselves are preallocated and counted in neither.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentFootprintBenchmark {
+    private static final int SIZE = 65536;
+
+    @Param({"persistentStack", "chunkedStack", "persistentQueue", "realTimeQueue", "chunkedQueue"})
+    public String structure;
+
+    private Integer[] elements;
+
+    @Setup
+    public void prepare() {
+        elements = new Integer[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            elements[i] = i;
+        }
+    }
+
+    private IPersistentStack<Integer> fillStack(IPersistentStack<Integer> stack) {
+        for (Integer element : elements) {
+            stack = stack.push(element);
+        }
+        return stack;
+    }
+
+    private IPersistentQueue<Integer> fillQueue(IPersistentQueue<Integer> queue) {
+        for (Integer element : elements) {
+            queue = queue.offer(element);
+        }
+        return queue;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public Object fill() {
+        switch (structure) {
+            case "persistentStack":
+                return fillStack(PersistentStack.empty());
+            case "chunkedStack":
+                return fillStack(ChunkedStack.empty());
+            case "persistentQueue":
+                return fillQueue(PersistentQueue.empty());
+            case "realTimeQueue":
+                return fillQueue(RealTimeQueue.empty());
+            default:
+                return fillQueue(ChunkedQueue.empty());
+        }
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @TearDown
+    public void reportRetained() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        // several copies, so the difference stands out from the heap accounting noise
+        Object[] copies = new Object[16];
+        long before = usedAfterGc(memory);
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = fill();
+        }
+        long after = usedAfterGc(memory);
+        // naming the class of a copy keeps them all reachable until after the measurement
+        String name = copies[copies.length - 1].getClass().getSimpleName();
+        System.out.printf("%n%s retains %.1f bytes per element%n", name,
+                (double) (after - before) / ((long) SIZE * copies.length));
+    }
+}
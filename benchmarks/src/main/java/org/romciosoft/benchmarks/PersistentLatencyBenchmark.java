@@ -0,0 +1,67 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.data.ChunkedQueue;
+import org.romciosoft.data.IPersistentQueue;
+import org.romciosoft.data.PersistentQueue;
+import org.romciosoft.data.RealTimeQueue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operation latency of a persistent queue kept at a steady size: each invocation offers one element
+ * and polls one. The sampled percentiles show where the reversal in PersistentQueue lands compared to the
+ * queues that spread their work out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentLatencyBenchmark {
+    @Param({"persistent", "realTime", "chunked"})
+    public String queue;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private IPersistentQueue<Integer> current;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        switch (queue) {
+            case "realTime":
+                current = RealTimeQueue.empty();
+                break;
+            case "chunked":
+                current = ChunkedQueue.empty();
+                break;
+            default:
+                current = PersistentQueue.empty();
+        }
+        for (next = 0; next < size; next++) {
+            current = current.offer(next);
+        }
+    }
+
+    @Benchmark
+    public Integer offerThenPoll() {
+        current = current.offer(next++);
+        Integer head = current.peek();
+        current = current.poll();
+        return head;
+    }
+}
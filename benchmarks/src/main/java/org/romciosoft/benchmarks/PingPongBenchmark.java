@@ -0,0 +1,75 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.io.AsyncAction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of two processes bouncing a message over a pair of unbuffered channels, modelled on
+ * the PingPong example. The "select" path receives through a two-option select with an idle channel,
+ * which forces the locked matching path instead of the single-option exchange slot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingPongBenchmark extends ExecutorState {
+    private static final int ROUND_TRIPS = 1000;
+
+    @Param({"exclusive", "select"})
+    public String path;
+
+    private static AsyncAction<Integer> receive(ChannelHandle<Integer> ch, ChannelHandle<Integer> idle, boolean select) {
+        if (!select) {
+            return ch.getReceivePort().receive();
+        }
+        return CSP.<Integer>select()
+                .receive(ch.getReceivePort())
+                .receive(idle.getReceivePort())
+                .build()
+                .bind(result -> AsyncAction.unit(result.getReceivedValue()));
+    }
+
+    static AsyncAction<Void> pingBody(ChannelHandle<Integer> ping, ChannelHandle<Integer> pong,
+                                              ChannelHandle<Integer> idle, boolean select, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return ping.getSendPort().send(remaining)
+                .then(receive(pong, idle, select))
+                .bind(x -> pingBody(ping, pong, idle, select, remaining - 1));
+    }
+
+    static AsyncAction<Void> pongBody(ChannelHandle<Integer> ping, ChannelHandle<Integer> pong,
+                                              ChannelHandle<Integer> idle, boolean select, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return receive(ping, idle, select)
+                .bind(x -> pong.getSendPort().send(x))
+                .bind(x -> pongBody(ping, pong, idle, select, remaining - 1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public void roundTrip() throws Exception {
+        boolean select = "select".equals(path);
+        perform(CSP.<Integer>newChannel().bind(ping ->
+                CSP.<Integer>newChannel().bind(pong ->
+                        CSP.<Integer>newChannel().bind(idle ->
+                                AsyncAction.fork(pongBody(ping, pong, idle, select, ROUND_TRIPS))
+                                        .then(pingBody(ping, pong, idle, select, ROUND_TRIPS))))));
+    }
+}
@@ -0,0 +1,72 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.LongChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state cost per message of moving longs through a LongChannel and through an ordinary channel of
+ * Longs, in batches that fit the buffer. Run with -prof gc: gc.alloc.rate.norm is the number of bytes
+ * allocated per message, which for the primitive channel is only the fixed per-batch overhead divided by
+ * the batch size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveChannelBenchmark extends ExecutorState {
+    private static final int BATCH = 1024;
+
+    private LongChannel primitive;
+    private ChannelHandle<Long> boxed;
+    private long[] values;
+    private long[] received;
+    private List<Long> boxedValues;
+
+    @Setup
+    public void createChannels() throws Exception {
+        primitive = perform(CSP.newLongChannel(BATCH));
+        boxed = perform(CSP.<Long>newChannel(BATCH));
+        values = new long[BATCH];
+        received = new long[BATCH];
+        boxedValues = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            // outside the Long cache, so the boxed channel pays for every value it carries
+            values[i] = 1000L + i * 1000003L;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long primitiveBatch() throws Exception {
+        perform(primitive.sendAll(values, 0, BATCH).then(primitive.receiveUpTo(received, 0, BATCH)));
+        return received[BATCH - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long boxedBatch() throws Exception {
+        boxedValues.clear();
+        for (long value : values) {
+            boxedValues.add(value);
+        }
+        List<Long> batch = perform(boxed.getSendPort().sendAll(boxedValues)
+                .then(boxed.getReceivePort().receiveUpTo(BATCH)));
+        return batch.get(BATCH - 1);
+    }
+}
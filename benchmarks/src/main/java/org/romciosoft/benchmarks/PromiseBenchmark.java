@@ -0,0 +1,86 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.io.IOAction;
+import org.romciosoft.io.Promise;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Promise callback fan-out, adding callbacks to delivered promises, and tryDeliver racing addCallback.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseBenchmark extends ExecutorState {
+    private static final Function<Integer, IOAction<Void>> NOOP = x -> IOAction.unit(null);
+
+    @Param({"1", "16", "256"})
+    public int callbacks;
+
+    @State(Scope.Group)
+    public static class Race {
+        volatile Promise<Integer> promise;
+
+        @Setup
+        public void newPromise(PromiseBenchmark benchmark) throws Exception {
+            promise = Promise.<Integer>newPromise(benchmark.executor).perform();
+        }
+    }
+
+    @Benchmark
+    public void fanOut() throws Exception {
+        CountDownLatch latch = new CountDownLatch(callbacks);
+        Promise<Integer> promise = Promise.<Integer>newPromise(executor).perform();
+        for (int i = 0; i < callbacks; i++) {
+            promise.addCallback(x -> () -> {
+                latch.countDown();
+                return null;
+            }).perform();
+        }
+        promise.deliver(42).perform();
+        latch.await();
+    }
+
+    @Benchmark
+    public Promise<Integer> addCallbackToDelivered() throws Exception {
+        Promise<Integer> promise = Promise.newPromise(executor, 42).perform();
+        promise.addCallback(NOOP).perform();
+        return promise;
+    }
+
+    @Benchmark
+    @Group("race")
+    @GroupThreads(2)
+    public boolean raceTryDeliver(Race race) throws Exception {
+        Promise<Integer> promise = race.promise;
+        boolean delivered = promise.tryDeliver(42).perform();
+        if (delivered) {
+            race.promise = Promise.<Integer>newPromise(executor).perform();
+        }
+        return delivered;
+    }
+
+    @Benchmark
+    @Group("race")
+    @GroupThreads(2)
+    public void raceAddCallback(Race race) throws Exception {
+        race.promise.addCallback(NOOP).perform();
+    }
+}
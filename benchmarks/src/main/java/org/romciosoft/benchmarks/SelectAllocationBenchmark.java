@@ -0,0 +1,112 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.SelectResult;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a send and a receive cost, performed straight from the benchmark thread rather than from a process,
+ * so that nothing but the operations themselves is measured. Every invocation leaves the channels as it
+ * found them. Run with -prof gc for the bytes allocated per invocation (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectAllocationBenchmark {
+    private final Integer message = 42;
+    private ScheduledExecutorService executorService;
+    private IOActionExecutor executor;
+    private ChannelHandle.SendPort<Integer> bufferedIn;
+    private ChannelHandle.ReceivePort<Integer> bufferedOut;
+    private ChannelHandle.SendPort<Integer> unbufferedIn;
+    private ChannelHandle.ReceivePort<Integer> unbufferedOut;
+    // select descriptors built once and performed on every invocation
+    private AsyncAction<SelectResult<Integer>> receiveEither;
+    private AsyncAction<SelectResult<Integer>> fairReceiveEither;
+
+    private <T> T await(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(result -> AsyncAction.wrap(() -> {
+            future.complete(result);
+            return null;
+        })).getIOAction(executor).perform();
+        return future.get();
+    }
+
+    private <T> Promise<T> start(AsyncAction<T> action) throws Exception {
+        return action.getIOAction(executor).perform();
+    }
+
+    @Setup
+    public void createChannels() throws Exception {
+        executorService = Executors.newScheduledThreadPool(1);
+        executor = new IOActionExecutor(executorService);
+        ChannelHandle<Integer> buffered = await(CSP.newChannel(16));
+        ChannelHandle<Integer> idle = await(CSP.newChannel(16));
+        ChannelHandle<Integer> unbuffered = await(CSP.newChannel());
+        bufferedIn = buffered.getSendPort();
+        bufferedOut = buffered.getReceivePort();
+        unbufferedIn = unbuffered.getSendPort();
+        unbufferedOut = unbuffered.getReceivePort();
+        receiveEither = CSP.<Integer>select().receive(idle.getReceivePort()).receive(bufferedOut).build();
+        fairReceiveEither = CSP.<Integer>select().receive(idle.getReceivePort()).receive(bufferedOut).fair().build();
+    }
+
+    @TearDown
+    public void stopExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public Object bufferedSendThenReceive() throws Exception {
+        start(bufferedIn.send(message));
+        return start(bufferedOut.receive());
+    }
+
+    @Benchmark
+    public Object trySendThenTryReceive() throws Exception {
+        start(bufferedIn.trySend(message));
+        return start(bufferedOut.tryReceive());
+    }
+
+    @Benchmark
+    public Object unbufferedRendezvous() throws Exception {
+        Promise<Integer> received = start(unbufferedOut.receive());
+        start(unbufferedIn.send(message));
+        return received;
+    }
+
+    @Benchmark
+    public Object prebuiltSelect() throws Exception {
+        start(bufferedIn.send(message));
+        return start(receiveEither);
+    }
+
+    @Benchmark
+    public Object prebuiltFairSelect() throws Exception {
+        start(bufferedIn.send(message));
+        return start(fairReceiveEither);
+    }
+}
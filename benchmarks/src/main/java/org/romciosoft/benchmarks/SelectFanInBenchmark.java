@@ -0,0 +1,107 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.SelectBuilder;
+import org.romciosoft.csp.SelectResult;
+import org.romciosoft.io.AsyncAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One consumer selecting over many channels, each fed by a producer that never runs out of messages.
+ * Besides throughput, the auxiliary counters report how often the first and the last channel of the
+ * select were served, which shows whether the later channels starve.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectFanInBenchmark extends ExecutorState {
+    private static final int SELECTS = 10000;
+
+    @Param({"2", "10", "100", "1000"})
+    public int channels;
+
+    @Param({"false", "true"})
+    public boolean fair;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Shares {
+        public long firstChannel;
+        public long lastChannel;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            firstChannel = 0;
+            lastChannel = 0;
+        }
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int id, AtomicBoolean stop) {
+        return port.send(id).bind(x -> stop.get() ? AsyncAction.<Void>unit(null) : produce(port, id, stop));
+    }
+
+    private AsyncAction<Void> consume(AsyncAction<SelectResult<Integer>> select, int remaining, Shares shares) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return select.bind(result -> {
+            int id = result.getReceivedValue();
+            if (id == 0) {
+                shares.firstChannel++;
+            } else if (id == channels - 1) {
+                shares.lastChannel++;
+            }
+            return consume(select, remaining - 1, shares);
+        });
+    }
+
+    private AsyncAction<Void> fanIn(List<ChannelHandle<Integer>> chs, Shares shares) {
+        if (chs.size() < channels) {
+            return CSP.<Integer>newChannel().bind(ch -> {
+                chs.add(ch);
+                return fanIn(chs, shares);
+            });
+        }
+        AtomicBoolean stop = new AtomicBoolean(false);
+        SelectBuilder<Integer> select = CSP.select();
+        if (fair) {
+            select.fair();
+        }
+        AsyncAction<Void> start = AsyncAction.unit(null);
+        for (int i = 0; i < channels; i++) {
+            select.receive(chs.get(i).getReceivePort());
+            start = start.then(AsyncAction.fork(produce(chs.get(i).getSendPort(), i, stop)));
+        }
+        return start.then(consume(select.build(), SELECTS, shares)).then(AsyncAction.wrap(() -> {
+            stop.set(true);
+            return null;
+        }));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SELECTS)
+    public void select(Shares shares) throws Exception {
+        perform(fanIn(new ArrayList<>(), shares));
+    }
+}
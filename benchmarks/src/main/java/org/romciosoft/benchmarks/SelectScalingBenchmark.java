@@ -0,0 +1,74 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.SelectResult;
+import org.romciosoft.io.AsyncAction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many independent pairs of processes, each pair exchanging messages through a select over its own two
+ * channels, so selects on different cores share no channel. Multi-option selects complete through the
+ * select tokens' claim protocol rather than the single-option fast paths, and with nothing shared between
+ * pairs, throughput should grow with the threads parameter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectScalingBenchmark extends ExecutorState {
+    private static final int PAIRS = 64;
+    private static final int ROUNDS = 500;
+
+    private static AsyncAction<Void> repeat(AsyncAction<SelectResult<Integer>> select, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return select.bind(result -> repeat(select, remaining - 1));
+    }
+
+    private static AsyncAction<Void> pair(ChannelHandle<Integer> one, ChannelHandle<Integer> two,
+                                          ChannelHandle.SendPort<Integer> finished) {
+        AsyncAction<SelectResult<Integer>> send = CSP.<Integer>select()
+                .send(one.getSendPort(), 1)
+                .send(two.getSendPort(), 2)
+                .build();
+        AsyncAction<SelectResult<Integer>> receive = CSP.<Integer>select()
+                .receive(one.getReceivePort())
+                .receive(two.getReceivePort())
+                .build();
+        return AsyncAction.fork(repeat(send, ROUNDS)).then(repeat(receive, ROUNDS)).then(finished.send(0));
+    }
+
+    private static AsyncAction<Void> startPairs(int remaining, ChannelHandle.SendPort<Integer> finished) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return CSP.<Integer>newChannel().bind(one -> CSP.<Integer>newChannel().bind(two ->
+                AsyncAction.fork(pair(one, two, finished)).then(startPairs(remaining - 1, finished))));
+    }
+
+    private static AsyncAction<Void> awaitPairs(int remaining, ChannelHandle.ReceivePort<Integer> finished) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return finished.receive().then(awaitPairs(remaining - 1, finished));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS * ROUNDS)
+    public void independentPairs() throws Exception {
+        perform(CSP.<Integer>newChannel(PAIRS).bind(finished ->
+                startPairs(PAIRS, finished.getSendPort()).then(awaitPairs(PAIRS, finished.getReceivePort()))));
+    }
+}
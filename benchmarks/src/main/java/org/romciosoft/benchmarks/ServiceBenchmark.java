@@ -0,0 +1,123 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.Service;
+import org.romciosoft.io.AsyncAction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * CALLERS processes each making CALLS calls in a row to a trivial service: the request/reply pattern of
+ * the StatelessService example as it used to be written (one server loop, a fresh reply channel per call
+ * and a forked process per reply) against CSP.service with a worker per thread, with and without batching.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark extends ExecutorState {
+    private static final int CALLERS = 64;
+    private static final int CALLS = 100;
+
+    private static class Request {
+        final int payload;
+        final ChannelHandle.SendPort<Integer> reply;
+
+        Request(int payload, ChannelHandle.SendPort<Integer> reply) {
+            this.payload = payload;
+            this.reply = reply;
+        }
+    }
+
+    private ChannelHandle.SendPort<Request> handRolled;
+    private Service<Integer, Integer> pool;
+    private Service<Integer, Integer> batchedPool;
+
+    private static AsyncAction<Void> serve(ChannelHandle.ReceivePort<Request> requests) {
+        return requests.receive().bind(request ->
+                AsyncAction.fork(request.reply.send(request.payload + 1)).then(serve(requests)));
+    }
+
+    private AsyncAction<Integer> callHandRolled(int payload) {
+        return CSP.<Integer>newChannel().bind(ch ->
+                handRolled.send(new Request(payload, ch.getSendPort())).then(ch.getReceivePort().receive()));
+    }
+
+    @Setup
+    public void startServices() throws Exception {
+        ChannelHandle<Request> requests = perform(CSP.newChannel());
+        perform(AsyncAction.fork(serve(requests.getReceivePort())));
+        handRolled = requests.getSendPort();
+        pool = perform(CSP.<Integer, Integer>service(x -> x + 1).workers(threadCount()).build());
+        batchedPool = perform(CSP.<Integer, Integer>batchService(32, xs -> xs).workers(threadCount()).build());
+    }
+
+    @Override
+    public void stopExecutor() {
+        try {
+            perform(pool.shutdown());
+            perform(batchedPool.shutdown());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        super.stopExecutor();
+    }
+
+    private static AsyncAction<Void> caller(Function<Integer, AsyncAction<Integer>> call, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return call.apply(remaining).bind(reply -> caller(call, remaining - 1));
+    }
+
+    private static AsyncAction<Void> callers(Function<Integer, AsyncAction<Integer>> call, int remaining,
+                                             ChannelHandle.SendPort<Integer> finished) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return AsyncAction.fork(caller(call, CALLS).then(finished.send(0)))
+                .then(callers(call, remaining - 1, finished));
+    }
+
+    private static AsyncAction<Void> await(int remaining, ChannelHandle.ReceivePort<Integer> finished) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return finished.receive().then(await(remaining - 1, finished));
+    }
+
+    private void run(Function<Integer, AsyncAction<Integer>> call) throws Exception {
+        perform(CSP.<Integer>newChannel(CALLERS).bind(finished ->
+                callers(call, CALLERS, finished.getSendPort()).then(await(CALLERS, finished.getReceivePort()))));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLERS * CALLS)
+    public void handRolledServer() throws Exception {
+        run(this::callHandRolled);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLERS * CALLS)
+    public void workerPool() throws Exception {
+        run(pool::call);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLERS * CALLS)
+    public void batchedWorkerPool() throws Exception {
+        run(batchedPool::call);
+    }
+}
@@ -0,0 +1,138 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.Serializer;
+import org.romciosoft.io.AsyncAction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-way throughput of 64-byte messages through a memory-mapped shared-memory channel and, for comparison,
+ * through a loopback TCP connection with length-prefixed framing. Both ends live in the benchmark JVM, but
+ * neither path shares anything else between them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedMemoryBenchmark extends ExecutorState {
+    private static final int MESSAGES = 10000;
+    private static final int MESSAGE_SIZE = 64;
+    private static final int RING_CAPACITY = 1 << 16;
+
+    private static final Serializer<byte[]> RAW = new Serializer<byte[]>() {
+        @Override
+        public byte[] serialize(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] deserialize(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    private List<byte[]> messages;
+    private Path ringFile;
+    private ChannelHandle.SendPort<byte[]> sharedOut;
+    private ChannelHandle.ReceivePort<byte[]> sharedIn;
+
+    private ServerSocket server;
+    private Socket client;
+    private Socket accepted;
+    private DataOutputStream tcpOut;
+    private Thread tcpReader;
+    private final AtomicLong tcpReceived = new AtomicLong();
+
+    @Setup
+    public void open() throws Exception {
+        messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(new byte[MESSAGE_SIZE]);
+        }
+        ringFile = Files.createTempFile("csp-ring", ".bin");
+        sharedOut = perform(CSP.openSharedSender(ringFile, RING_CAPACITY, RAW));
+        sharedIn = perform(CSP.openSharedReceiver(ringFile, RING_CAPACITY, RAW));
+
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        client.setTcpNoDelay(true);
+        accepted = server.accept();
+        tcpOut = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+        DataInputStream tcpIn = new DataInputStream(new BufferedInputStream(accepted.getInputStream()));
+        tcpReader = new Thread(() -> {
+            byte[] message = new byte[MESSAGE_SIZE];
+            try {
+                while (true) {
+                    tcpIn.readFully(message, 0, tcpIn.readInt());
+                    tcpReceived.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // closed on tear down
+            }
+        });
+        tcpReader.setDaemon(true);
+        tcpReader.start();
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        client.close();
+        accepted.close();
+        server.close();
+        tcpReader.join();
+        Files.deleteIfExists(ringFile);
+    }
+
+    private AsyncAction<Void> consume(int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return sharedIn.receiveUpTo(256).bind(batch -> consume(remaining - batch.size()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void sharedMemory() throws Exception {
+        perform(AsyncAction.fork(sharedOut.sendAll(messages)).then(consume(MESSAGES)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void loopbackTcp() throws Exception {
+        long expected = tcpReceived.get() + MESSAGES;
+        for (byte[] message : messages) {
+            tcpOut.writeInt(message.length);
+            tcpOut.write(message);
+        }
+        tcpOut.flush();
+        while (tcpReceived.get() < expected) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.romciosoft.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.romciosoft.io.Timeout;
+import org.romciosoft.io.TimingWheel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A million concurrent timers on a ScheduledThreadPoolExecutor and on the timing wheel. "timeouts" arms
+ * them all and cancels them again, as for select timeouts that are almost never hit; "expiry" lets them all
+ * fire within 100 ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimerBenchmark {
+    private static final int TIMERS = 1_000_000;
+
+    @Param({"scheduledExecutor", "timingWheel"})
+    public String timer;
+
+    private ScheduledThreadPoolExecutor executor;
+    private TimingWheel wheel;
+
+    @Setup(Level.Iteration)
+    public void start() {
+        if ("timingWheel".equals(timer)) {
+            wheel = new TimingWheel(1, TimeUnit.MILLISECONDS);
+        } else {
+            executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        if (wheel != null) {
+            wheel.stop();
+            wheel = null;
+        } else {
+            executor.shutdownNow();
+        }
+    }
+
+    private Timeout schedule(Runnable action, long delayMillis) {
+        if (wheel != null) {
+            return wheel.schedule(action, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        ScheduledFuture<?> future = executor.schedule(action, delayMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Benchmark
+    public int timeouts() {
+        Timeout[] timeouts = new Timeout[TIMERS];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TIMERS; i++) {
+            timeouts[i] = schedule(() -> {
+            }, 10_000 + random.nextInt(50_000));
+        }
+        int cancelled = 0;
+        for (Timeout timeout : timeouts) {
+            if (timeout.cancel()) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    @Benchmark
+    public void expiry() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(TIMERS);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TIMERS; i++) {
+            schedule(fired::countDown, random.nextInt(100));
+        }
+        fired.await();
+    }
+}
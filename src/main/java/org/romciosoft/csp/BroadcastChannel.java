@@ -0,0 +1,449 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A channel whose every message goes to every subscriber. A send writes the message once into a ring of
+ * the given capacity, and each subscriber's receive port reads the ring at a cursor of its own, so the
+ * sender only does work for subscribers that are waiting for the message. A subscriber sees the messages
+ * sent after it subscribed; messages sent while there are no subscribers are lost. What happens when a
+ * subscriber falls a whole ring behind depends on the SlowSubscriberPolicy. Both the send port and the
+ * subscribers' receive ports can be used with SelectBuilder.
+ */
+public final class BroadcastChannel<T> {
+    public enum SlowSubscriberPolicy {
+        /**
+         * Senders wait until the slowest subscriber has read the oldest message in the ring.
+         */
+        BLOCK,
+        /**
+         * Senders never wait; a subscriber that falls behind skips the messages that were overwritten.
+         */
+        DROP_OLDEST,
+        /**
+         * Senders never wait; a subscriber that falls behind is unsubscribed, and receiving on its port fails
+         * with an IllegalStateException.
+         */
+        DISCONNECT
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Object[] ring;
+    private final SlowSubscriberPolicy policy;
+    private final Publisher publisher = new Publisher();
+    private final ChannelHandle.SendPort<T> sendPort = new ChannelHandle.SendPort<>(publisher);
+    private final WaitQueue<T> sndQueue = new WaitQueue<>(lock);
+    private final ChannelMetrics metrics;
+    // guarded by lock
+    private long published = 0;
+    // for BLOCK, a lower bound of the slowest cursor, only brought up to date when the ring looks full
+    private long slowest = 0;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    // subscriptions that have receivers waiting for the next message
+    private final ArrayDeque<Subscription> waiting = new ArrayDeque<>();
+
+    BroadcastChannel(int capacity, SlowSubscriberPolicy policy, MetricsRegistry registry, String name) {
+        ring = new Object[capacity];
+        this.policy = policy;
+        metrics = registry.channel(name, "broadcast", publisher);
+    }
+
+    public ChannelHandle.SendPort<T> getSendPort() {
+        return sendPort;
+    }
+
+    /**
+     * Yields the receive port of a new subscriber, which gets every message sent from now on. Any number of
+     * processes may receive on the same port; each message then goes to one of them.
+     */
+    public AsyncAction<ChannelHandle.ReceivePort<T>> subscribe() {
+        return exe -> () -> {
+            Subscription subscription = new Subscription();
+            try {
+                lock.lock();
+                subscription.next = published;
+                subscriptions.add(subscription);
+            } finally {
+                lock.unlock();
+            }
+            return Promise.newPromise(exe, subscription.port).perform();
+        };
+    }
+
+    /**
+     * Removes a subscriber, so that it no longer holds up senders under BLOCK. Processes still waiting on its
+     * port fail with an IllegalStateException, as later receives on it do.
+     */
+    public AsyncAction<Void> unsubscribe(ChannelHandle.ReceivePort<T> port) {
+        return exe -> () -> {
+            List<SelectToken<T>> completed = null;
+            try {
+                lock.lock();
+                Subscription subscription = subscriptionOf(port);
+                if (subscriptions.remove(subscription)) {
+                    subscription.subscribed = false;
+                    waiting.remove(subscription);
+                    subscription.inWaiting = false;
+                    completed = subscription.failWaiting(releaseSenders(null));
+                }
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+            return exe.<Void>constantPromise(null);
+        };
+    }
+
+    public int subscribers() {
+        try {
+            lock.lock();
+            return subscriptions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Subscription subscriptionOf(ChannelHandle.ReceivePort<T> port) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.port == port) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(long sequence) {
+        return (T) ring[(int) (sequence % ring.length)];
+    }
+
+    private boolean full() {
+        if (policy != SlowSubscriberPolicy.BLOCK || published - slowest < ring.length) {
+            return false;
+        }
+        long min = published;
+        for (Subscription subscription : subscriptions) {
+            min = Math.min(min, subscription.next);
+        }
+        slowest = min;
+        return published - slowest >= ring.length;
+    }
+
+    private List<SelectToken<T>> served(SelectToken<T> waiter, List<SelectToken<T>> completed) {
+        if (waiter.isTimed()) {
+            metrics.waited(waiter.waitedNanos());
+        }
+        if (waiter.isExclusive()) {
+            return completed;
+        }
+        List<SelectToken<T>> result = completed == null ? new ArrayList<>() : completed;
+        result.add(waiter);
+        return result;
+    }
+
+    private void unregisterAll(List<SelectToken<T>> completed) {
+        if (completed != null) {
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
+        }
+    }
+
+    /**
+     * Writes the message into the ring and hands it to the subscriptions with waiting receivers, which are
+     * all caught up, so it is the message they are waiting for.
+     */
+    private List<SelectToken<T>> publish(T value, List<SelectToken<T>> completed) throws Exception {
+        ring[(int) (published % ring.length)] = value;
+        published++;
+        metrics.sent();
+        for (int i = waiting.size(); i > 0; i--) {
+            completed = waiting.poll().serveWaiting(completed);
+        }
+        return completed;
+    }
+
+    private List<SelectToken<T>> releaseSenders(List<SelectToken<T>> completed) throws Exception {
+        while (!sndQueue.isEmpty() && !full()) {
+            WaitQueue.Node<T> sender = sndQueue.poll();
+            if (sender.token.tryCompleteSent(sendPort)) {
+                completed = publish(sender.value, served(sender.token, completed));
+            }
+        }
+        return completed;
+    }
+
+    private class Publisher implements Channel<T>, ChannelGauges {
+        private boolean blocked() {
+            return !sndQueue.isEmpty() || full();
+        }
+
+        @Override
+        public boolean send(SelectToken<T> token, T value) throws Exception {
+            List<SelectToken<T>> completed = null;
+            try {
+                lock.lock();
+                if (blocked()) {
+                    sndQueue.offer(token, value);
+                    return false;
+                }
+                if (!token.tryCompleteSent(sendPort)) {
+                    return false;
+                }
+                completed = publish(value, null);
+                return true;
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public int offer(List<? extends T> values, int from) throws Exception {
+            List<SelectToken<T>> completed = null;
+            int count = 0;
+            try {
+                lock.lock();
+                while (from + count < values.size() && !blocked()) {
+                    completed = publish(values.get(from + count), completed);
+                    count++;
+                }
+                return count;
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public boolean trySend(T value) throws Exception {
+            List<SelectToken<T>> completed = null;
+            try {
+                lock.lock();
+                if (blocked()) {
+                    return false;
+                }
+                completed = publish(value, null);
+                return true;
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public boolean receive(SelectToken<T> token) {
+            throw new UnsupportedOperationException("cannot receive from a broadcast send port, subscribe instead");
+        }
+
+        @Override
+        public int poll(List<? super T> into, int max) {
+            throw new UnsupportedOperationException("cannot receive from a broadcast send port, subscribe instead");
+        }
+
+        @Override
+        public Maybe<T> tryReceive() {
+            throw new UnsupportedOperationException("cannot receive from a broadcast send port, subscribe instead");
+        }
+
+        @Override
+        public ChannelHandle<T> getHandle() {
+            return new ChannelHandle<>(sendPort, null);
+        }
+
+        @Override
+        public int waitingSenders() {
+            try {
+                lock.lock();
+                return sndQueue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int waitingReceivers() {
+            try {
+                lock.lock();
+                int count = 0;
+                for (Subscription subscription : waiting) {
+                    count += subscription.rcvQueue.size();
+                }
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the backlog of the slowest subscriber
+        @Override
+        public int bufferedMessages() {
+            try {
+                lock.lock();
+                long backlog = 0;
+                for (Subscription subscription : subscriptions) {
+                    backlog = Math.max(backlog, published - subscription.next);
+                }
+                return (int) Math.min(backlog, ring.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class Subscription implements Channel<T> {
+        final ChannelHandle.ReceivePort<T> port = new ChannelHandle.ReceivePort<>(this);
+        final WaitQueue<T> rcvQueue = new WaitQueue<>(lock);
+        private final ChannelHandle<T> handle = new ChannelHandle<>(sendPort, port);
+        // guarded by lock
+        long next;
+        boolean subscribed = true;
+        boolean disconnected = false;
+        boolean inWaiting = false;
+
+        /**
+         * Checks that the subscriber can still receive and moves a cursor that fell behind the ring according
+         * to the policy.
+         */
+        private void catchUp() {
+            if (next < published - ring.length) {
+                if (policy == SlowSubscriberPolicy.DISCONNECT) {
+                    subscriptions.remove(this);
+                    subscribed = false;
+                    disconnected = true;
+                } else {
+                    next = published - ring.length;
+                }
+            }
+            if (!subscribed) {
+                throw new IllegalStateException(disconnected
+                        ? "subscriber fell more than " + ring.length + " messages behind and was disconnected"
+                        : "receiving on a port that was unsubscribed");
+            }
+        }
+
+        List<SelectToken<T>> failWaiting(List<SelectToken<T>> completed) throws Exception {
+            while (!rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryFail(new IllegalStateException("receiving on a port that was unsubscribed"))) {
+                    completed = served(receiver, completed);
+                }
+            }
+            return completed;
+        }
+
+        List<SelectToken<T>> serveWaiting(List<SelectToken<T>> completed) throws Exception {
+            inWaiting = false;
+            while (next < published && !rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(port, read(next))) {
+                    next++;
+                    metrics.received();
+                    completed = served(receiver, completed);
+                }
+            }
+            if (!rcvQueue.isEmpty()) {
+                waiting.add(this);
+                inWaiting = true;
+            }
+            return completed;
+        }
+
+        @Override
+        public boolean receive(SelectToken<T> token) throws Exception {
+            List<SelectToken<T>> completed = null;
+            try {
+                lock.lock();
+                catchUp();
+                if (rcvQueue.isEmpty() && next < published) {
+                    if (!token.tryCompleteReceived(port, read(next))) {
+                        return false;
+                    }
+                    next++;
+                    metrics.received();
+                    completed = releaseSenders(null);
+                    return true;
+                }
+                if (rcvQueue.offer(token, null) && !inWaiting) {
+                    waiting.add(this);
+                    inWaiting = true;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public int poll(List<? super T> into, int max) throws Exception {
+            List<SelectToken<T>> completed = null;
+            int count = 0;
+            try {
+                lock.lock();
+                catchUp();
+                while (count < max && rcvQueue.isEmpty() && next < published) {
+                    into.add(read(next++));
+                    metrics.received();
+                    count++;
+                }
+                if (count > 0) {
+                    completed = releaseSenders(null);
+                }
+                return count;
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public Maybe<T> tryReceive() throws Exception {
+            List<SelectToken<T>> completed = null;
+            try {
+                lock.lock();
+                catchUp();
+                if (!rcvQueue.isEmpty() || next == published) {
+                    return Maybe.nothing();
+                }
+                T value = read(next++);
+                metrics.received();
+                completed = releaseSenders(null);
+                return Maybe.just(value);
+            } finally {
+                lock.unlock();
+                unregisterAll(completed);
+            }
+        }
+
+        @Override
+        public boolean send(SelectToken<T> token, T value) {
+            throw new UnsupportedOperationException("cannot send to a broadcast receive port");
+        }
+
+        @Override
+        public int offer(List<? extends T> values, int from) {
+            throw new UnsupportedOperationException("cannot send to a broadcast receive port");
+        }
+
+        @Override
+        public boolean trySend(T value) {
+            throw new UnsupportedOperationException("cannot send to a broadcast receive port");
+        }
+
+        @Override
+        public ChannelHandle<T> getHandle() {
+            return handle;
+        }
+    }
+}
@@ -1,99 +1,486 @@
 package org.romciosoft.csp;
 
-import org.romciosoft.data.IPersistentQueue;
-import org.romciosoft.data.PersistentQueue;
 import org.romciosoft.io.AsyncAction;
 import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Maybe;
 
-class BufferedChannel {
-    private static class BufferProcessContext<T> {
-        private int bufferSize, bufferLimit;
-        private IPersistentQueue<T> buffer;
-        private ChannelHandle.ReceivePort<T> from;
-        private ChannelHandle.SendPort<T> to;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntToLongFunction;
 
-        BufferProcessContext(ChannelHandle.ReceivePort<T> from, ChannelHandle.SendPort<T> to, int bufferLimit) {
-            this.from = from;
-            this.to = to;
-            this.bufferLimit = bufferLimit;
-            bufferSize = 0;
-            buffer = PersistentQueue.empty();
+class BufferedChannel<T> implements Channel<T>, ChannelGauges {
+    private ChannelHandle<T> handle = new ChannelHandle<>(this, this);
+    private ReentrantLock lock = new ReentrantLock();
+    private final ChannelBuffer<T> buffer;
+    // senders only wait while the buffer is full, receivers only while it is empty
+    private WaitQueue<T> sndQueue = new WaitQueue<>(lock);
+    private WaitQueue<T> rcvQueue = new WaitQueue<>(lock);
+    private final ChannelMetrics metrics;
+    // guarded by lock; only ever set for a closeable buffer, so the primitive paths never check it
+    private boolean closed = false;
+
+    BufferedChannel(int bufferSize) {
+        this(bufferSize, MetricsRegistry.NOOP, null);
+    }
+
+    BufferedChannel(int bufferSize, MetricsRegistry registry, String name) {
+        this(new ChannelBuffer.Objects<>(bufferSize), registry, name, "buffered");
+    }
+
+    BufferedChannel(ChannelBuffer<T> buffer, MetricsRegistry registry, String name, String kind) {
+        this.buffer = buffer;
+        metrics = registry.channel(name, kind, this);
+    }
+
+    static <T> AsyncAction<ChannelHandle<T>> bufferedChannel(int bufferSize, String name) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least one");
         }
+        return exe -> Promise.newPromise(exe,
+                new BufferedChannel<T>(bufferSize, exe.getMetricsRegistry(), name).getHandle());
+    }
 
-        private BufferProcessContext(BufferProcessContext<T> ctx) {
-            bufferSize = ctx.bufferSize;
-            bufferLimit = ctx.bufferLimit;
-            buffer = ctx.buffer;
-            from = ctx.from;
-            to = ctx.to;
+    private void served(SelectToken<T> waiter) {
+        if (waiter.isTimed()) {
+            metrics.waited(waiter.waitedNanos());
         }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("channel is closed");
+    }
 
-        boolean isFull() {
-            return bufferSize == bufferLimit;
+    private void checkOpen() {
+        if (closed) {
+            throw closedException();
         }
+    }
 
-        boolean isEmpty() {
-            return bufferSize == 0;
+    /**
+     * Adds the sender's value to the buffer and only then completes the sender, so that a buffer that can't
+     * take the value, e.g. when spilling it fails, fails the sender rather than losing the value. The token
+     * is left alone while the buffer does its I/O; if it turns out to be done by then, the value is taken
+     * back out. Returns whether the token completed or failed here.
+     */
+    private boolean store(SelectToken<T> sender, T value) throws Exception {
+        try {
+            buffer.add(value);
+        } catch (Exception e) {
+            return sender.tryFail(e);
+        }
+        if (!sender.tryCompleteSent(handle.getSendPort())) {
+            buffer.removeLast();
+            return false;
         }
+        metrics.sent();
+        return true;
+    }
 
-        T peek() {
-            return buffer.peek();
+    /**
+     * Moves the first live waiting sender into the freed buffer slot and returns its token, which the
+     * caller unregisters once the lock is released.
+     */
+    private SelectToken<T> refill() throws Exception {
+        while (!buffer.isFull() && !sndQueue.isEmpty()) {
+            WaitQueue.Node<T> sender = sndQueue.poll();
+            if (store(sender.token, sender.value)) {
+                served(sender.token);
+                return sender.token;
+            }
         }
+        return null;
+    }
 
-        BufferProcessContext<T> offer(T val) {
-            BufferProcessContext<T> ctx = new BufferProcessContext<>(this);
-            ctx.buffer = buffer.offer(val);
-            ctx.bufferSize = bufferSize + 1;
-            return ctx;
+    @Override
+    public boolean send(SelectToken<T> token, T value) throws Exception {
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            checkOpen();
+            WaitQueue.Node<T> node;
+            while (buffer.isEmpty() && (node = rcvQueue.peekOther(token)) != null) {
+                SelectToken<T> receiver = node.token;
+                SelectToken.MatchResult result = SelectToken.match(handle, value, token, receiver);
+                if (result.receiverWasDone || result.matched) {
+                    rcvQueue.remove(node);
+                }
+                if (result.matched) {
+                    metrics.sent();
+                    metrics.received();
+                    served(receiver);
+                    matched = receiver;
+                    return true;
+                }
+                if (result.senderWasDone) {
+                    return false;
+                }
+            }
+            if (!buffer.isFull()) {
+                return store(token, value);
+            }
+            sndQueue.offer(token, value);
+            return false;
+        } finally {
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
         }
+    }
 
-        BufferProcessContext<T> poll() {
-            BufferProcessContext<T> ctx = new BufferProcessContext<>(this);
-            ctx.buffer = buffer.poll();
-            ctx.bufferSize = bufferSize - 1;
-            return ctx;
+    @Override
+    public boolean receive(SelectToken<T> token) throws Exception {
+        SelectToken<T> refilled = null;
+        try {
+            lock.lock();
+            checkOpen();
+            if (buffer.isEmpty()) {
+                rcvQueue.offer(token, null);
+                return false;
+            }
+            // as in store, the I/O comes first and is undone if the token is done by then
+            T value;
+            try {
+                value = buffer.peek();
+                buffer.removeFirst();
+            } catch (Exception e) {
+                return token.tryFail(e);
+            }
+            if (!token.tryCompleteReceived(handle.getReceivePort(), value)) {
+                buffer.addFirst(value);
+                return false;
+            }
+            metrics.received();
+            refilled = refill();
+            return true;
+        } finally {
+            lock.unlock();
+            if (refilled != null) {
+                refilled.unregister();
+            }
         }
     }
 
-    private static <T> AsyncAction<Void> bufferProcessBody(BufferProcessContext<T> ctx) {
-        SelectBuilder<T> select = CSP.select();
-        if (!ctx.isFull()) {
-            select.receive(ctx.from);
+    @Override
+    public int offer(List<? extends T> values, int from) throws Exception {
+        List<SelectToken<T>> completed = new ArrayList<>();
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (from + count < values.size() && buffer.isEmpty() && !rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), values.get(from + count))) {
+                    completed.add(receiver);
+                    metrics.sent();
+                    metrics.received();
+                    served(receiver);
+                    count++;
+                }
+            }
+            while (from + count < values.size() && !buffer.isFull()) {
+                buffer.add(values.get(from + count));
+                metrics.sent();
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
         }
-        if (!ctx.isEmpty()) {
-            select.send(ctx.to, ctx.peek());
+    }
+
+    @Override
+    public int poll(List<? super T> into, int max) throws Exception {
+        List<SelectToken<T>> completed = new ArrayList<>();
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (count < max && !buffer.isEmpty()) {
+                into.add(buffer.peek());
+                buffer.removeFirst();
+                metrics.received();
+                count++;
+                SelectToken<T> refilled = refill();
+                if (refilled != null) {
+                    completed.add(refilled);
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
         }
-        return select.build().bind(result -> {
-            switch (result.getType()) {
-                case SENT:
-                    return bufferProcessBody(ctx.poll());
-                case RECEIVED:
-                    return bufferProcessBody(ctx.offer(result.getReceivedValue()));
-                default:
-                    throw new AssertionError();
+    }
+
+    @Override
+    public boolean trySend(T value) throws Exception {
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            checkOpen();
+            while (buffer.isEmpty() && !rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), value)) {
+                    metrics.sent();
+                    metrics.received();
+                    served(receiver);
+                    matched = receiver;
+                    return true;
+                }
+            }
+            if (buffer.isFull()) {
+                return false;
             }
-        });
+            buffer.add(value);
+            metrics.sent();
+            return true;
+        } finally {
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
     }
 
-    static <T> AsyncAction<ChannelHandle<T>> bufferedChannel(int bufferSize) {
-        if (bufferSize < 1) {
-            throw new IllegalArgumentException("buffer size must be at least one");
+    @Override
+    public Maybe<T> tryReceive() throws Exception {
+        SelectToken<T> refilled = null;
+        try {
+            lock.lock();
+            checkOpen();
+            if (buffer.isEmpty()) {
+                return Maybe.nothing();
+            }
+            T value = buffer.peek();
+            buffer.removeFirst();
+            metrics.received();
+            refilled = refill();
+            return Maybe.just(value);
+        } finally {
+            lock.unlock();
+            if (refilled != null) {
+                refilled.unregister();
+            }
         }
-        return exe -> () -> {
-            Channel<T> chIn = new UnbufferedChannel<>();
-            Channel<T> chOut = new UnbufferedChannel<>();
-            BufferProcessContext<T> ctx = new BufferProcessContext<>(
-                    chIn.getHandle().getReceivePort(),
-                    chOut.getHandle().getSendPort(),
-                    bufferSize);
-            AsyncAction.fork(
-                    bufferProcessBody(ctx)
-            ).getIOAction(exe).perform();
-            return Promise.newPromise(exe,
-                    new ChannelHandle<>(
-                            chIn.getHandle().getSendPort(),
-                            chOut.getHandle().getReceivePort()))
-                    .perform();
-        };
+    }
+
+    /*
+     * Primitive channels keep their values in a ChannelBuffer.Bits and move them through the methods below
+     * as raw bits, so that nothing is boxed unless a value is handed to a process waiting on the channel.
+     */
+
+    interface BitsSink {
+        void put(int index, long bits);
+    }
+
+    /**
+     * Takes the single value of a pollBits(1, ...) call. Each thread reuses one holder, which is safe since
+     * the value is read as soon as pollBits returns, before anything else can run on the thread.
+     */
+    static class BitsHolder implements BitsSink {
+        private static final ThreadLocal<BitsHolder> PER_THREAD = ThreadLocal.withInitial(BitsHolder::new);
+
+        long bits;
+
+        static BitsHolder forThread() {
+            return PER_THREAD.get();
+        }
+
+        @Override
+        public void put(int index, long bits) {
+            this.bits = bits;
+        }
+    }
+
+    private ChannelBuffer.Bits<T> bits() {
+        return (ChannelBuffer.Bits<T>) buffer;
+    }
+
+    T box(long bits) {
+        return bits().box.apply(bits);
+    }
+
+    long unbox(T value) {
+        return bits().unbox.applyAsLong(value);
+    }
+
+    boolean trySendBits(long bits) throws Exception {
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            while (buffer.isEmpty() && !rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), box(bits))) {
+                    metrics.sent();
+                    metrics.received();
+                    served(receiver);
+                    matched = receiver;
+                    return true;
+                }
+            }
+            if (buffer.isFull()) {
+                return false;
+            }
+            bits().addBits(bits);
+            metrics.sent();
+            return true;
+        } finally {
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
+    }
+
+    /**
+     * Stores the values at indices from (inclusive) to to (exclusive) for as long as there is room and
+     * returns how many were taken.
+     */
+    int offerBits(int from, int to, IntToLongFunction bitsAt) throws Exception {
+        List<SelectToken<T>> completed = null;
+        int count = 0;
+        try {
+            lock.lock();
+            while (from + count < to && buffer.isEmpty() && !rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), box(bitsAt.applyAsLong(from + count)))) {
+                    if (completed == null) {
+                        completed = new ArrayList<>();
+                    }
+                    completed.add(receiver);
+                    metrics.sent();
+                    metrics.received();
+                    served(receiver);
+                    count++;
+                }
+            }
+            ChannelBuffer.Bits<T> ring = bits();
+            while (from + count < to && !ring.isFull()) {
+                ring.addBits(bitsAt.applyAsLong(from + count));
+                metrics.sent();
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+            if (completed != null) {
+                for (SelectToken<T> token : completed) {
+                    token.unregister();
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes up to max buffered values to the sink, numbering them from zero, and returns how many there
+     * were.
+     */
+    int pollBits(int max, BitsSink sink) throws Exception {
+        List<SelectToken<T>> completed = null;
+        int count = 0;
+        try {
+            lock.lock();
+            ChannelBuffer.Bits<T> ring = bits();
+            while (count < max && !ring.isEmpty()) {
+                sink.put(count, ring.peekBits());
+                ring.removeFirst();
+                metrics.received();
+                count++;
+                SelectToken<T> refilled = refill();
+                if (refilled != null) {
+                    if (completed == null) {
+                        completed = new ArrayList<>();
+                    }
+                    completed.add(refilled);
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+            if (completed != null) {
+                for (SelectToken<T> token : completed) {
+                    token.unregister();
+                }
+            }
+        }
+    }
+
+    @Override
+    public int waitingSenders() {
+        try {
+            lock.lock();
+            return sndQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int waitingReceivers() {
+        try {
+            lock.lock();
+            return rcvQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int bufferedMessages() {
+        try {
+            lock.lock();
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fails the waiting processes and releases what the buffer holds outside the heap, dropping the
+     * buffered messages; later sends and receives fail. Does nothing if the buffer holds nothing to release.
+     */
+    @Override
+    public void close() throws Exception {
+        if (!buffer.isCloseable()) {
+            return;
+        }
+        List<SelectToken<T>> failed = new ArrayList<>();
+        try {
+            lock.lock();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (WaitQueue<T> queue : Arrays.asList(sndQueue, rcvQueue)) {
+                while (!queue.isEmpty()) {
+                    SelectToken<T> waiter = queue.poll().token;
+                    if (waiter.tryFail(closedException())) {
+                        failed.add(waiter);
+                    }
+                }
+            }
+            buffer.close();
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : failed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public ChannelHandle<T> getHandle() {
+        return handle;
     }
 }
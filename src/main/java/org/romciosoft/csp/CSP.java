@@ -3,49 +3,320 @@ package org.romciosoft.csp;
 import org.romciosoft.io.AsyncAction;
 import org.romciosoft.io.IOActionExecutor;
 import org.romciosoft.io.Promise;
-import java.util.Iterator;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.metrics.SelectMetrics;
+import org.romciosoft.monad.Maybe;
+
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class CSP {
     private CSP() {
     }
 
-    static <T> Promise<SelectResult<T>> processSelect(IOActionExecutor executor, List<SelectOption<T>> selectOptions) throws Exception {
+    // one order array per thread for fair selects; taken out while in use, in case a select runs another
+    private static final ThreadLocal<int[][]> ORDER = ThreadLocal.withInitial(() -> new int[1][]);
+
+    static int[] randomOrder(int size) {
+        return randomOrder(new int[size], size);
+    }
+
+    private static int[] randomOrder(int[] order, int size) {
+        Random random = ThreadLocalRandom.current();
+        for (int i = 0; i < size; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        return order;
+    }
+
+    private static int[] takeOrder(int size) {
+        int[][] slot = ORDER.get();
+        int[] order = slot[0];
+        slot[0] = null;
+        if (order == null || order.length < size) {
+            order = new int[Math.max(size, 8)];
+        }
+        return randomOrder(order, size);
+    }
+
+    private static void returnOrder(int[] order) {
+        if (order != null) {
+            ORDER.get()[0] = order;
+        }
+    }
+
+    private static <T> SelectToken<T> singleToken(IOActionExecutor executor, Promise<?> promise,
+                                                  SelectToken.Yield yield) {
+        MetricsRegistry registry = executor.getMetricsRegistry();
+        SelectMetrics metrics = registry.select();
+        metrics.started(1);
+        return new SelectToken<>(promise, yield, true, metrics, registry.isEnabled());
+    }
+
+    /**
+     * A plain send: a select with the single option, minus the select. If the channel can take the value
+     * right away and no metrics are being kept, it allocates nothing beyond the action itself.
+     */
+    static <T> Promise<Void> send(IOActionExecutor executor, ChannelHandle.SendPort<T> port, T value)
+            throws Exception {
+        if (!executor.getMetricsRegistry().isEnabled() && port.channel.trySend(value)) {
+            return executor.constantPromise(null);
+        }
+        Promise<Void> pro = Promise.<Void>newPromise(executor).perform();
+        port.channel.send(singleToken(executor, pro, SelectToken.Yield.NOTHING), value);
+        return pro;
+    }
+
+    /**
+     * A plain receive, whose promise is completed with the value itself rather than a SelectResult.
+     */
+    static <T> Promise<T> receive(IOActionExecutor executor, ChannelHandle.ReceivePort<T> port) throws Exception {
+        if (!executor.getMetricsRegistry().isEnabled()) {
+            Maybe<T> value = port.channel.tryReceive();
+            if (value.isPresent()) {
+                return Promise.newPromise(executor, value.getValue()).perform();
+            }
+        }
+        Promise<T> pro = Promise.<T>newPromise(executor).perform();
+        port.channel.receive(singleToken(executor, pro, SelectToken.Yield.VALUE));
+        return pro;
+    }
+
+    /**
+     * Runs a select that waits until one of the options succeeds or, if timeoutNanos is not negative,
+     * the timeout expires.
+     */
+    static <T> Promise<SelectResult<T>> processSelect(IOActionExecutor executor, List<SelectOption<T>> selectOptions,
+                                                      boolean fair, long timeoutNanos) throws Exception {
         Promise<SelectResult<T>> pro = Promise.<SelectResult<T>>newPromise(executor).perform();
-        SelectToken<T> token = new SelectToken<>(pro);
+        MetricsRegistry registry = executor.getMetricsRegistry();
+        SelectMetrics metrics = registry.select();
+        metrics.started(selectOptions.size());
+        SelectToken<T> token = new SelectToken<>(pro, selectOptions.size() == 1 && timeoutNanos < 0, metrics,
+                registry.isEnabled());
+        int[] order = fair && selectOptions.size() > 1 ? takeOrder(selectOptions.size()) : null;
         boolean madeIt = false;
-        Iterator<SelectOption<T>> itr = selectOptions.iterator();
-        while (!madeIt && itr.hasNext()) {
-            SelectOption<T> option = itr.next();
+        try {
+            for (int i = 0; !madeIt && i < selectOptions.size(); i++) {
+                SelectOption<T> option = selectOptions.get(order == null ? i : order[i]);
+                switch (option.type) {
+                    case SEND:
+                        madeIt = option.getChannel().send(token, option.value);
+                        break;
+                    case RECEIVE:
+                        madeIt = option.getChannel().receive(token);
+                        break;
+                    default:
+                        throw new AssertionError();
+                }
+            }
+        } catch (Exception e) {
+            // the options visited so far may hold the token: without this, a later match there would
+            // complete a select nobody waits for, and the message would be lost
+            if (token.abandon()) {
+                throw e;
+            }
+            // one of them completed it in the meantime, so the select went through after all
+            madeIt = true;
+        } finally {
+            returnOrder(order);
+        }
+        if (madeIt) {
+            token.unregister();
+        } else if (timeoutNanos >= 0) {
+            token.setTimeout(executor.scheduleCancellable(() -> {
+                token.timeOut();
+                return null;
+            }, timeoutNanos, TimeUnit.NANOSECONDS).perform());
+        }
+        return pro;
+    }
+
+    /**
+     * Runs a select with a default branch: tries the options once without registering anywhere and yields
+     * the default result if none of them could proceed, without allocating a promise.
+     */
+    static <T> Promise<SelectResult<T>> trySelect(IOActionExecutor executor, List<SelectOption<T>> selectOptions,
+                                                  boolean fair) throws Exception {
+        int[] order = fair && selectOptions.size() > 1 ? takeOrder(selectOptions.size()) : null;
+        try {
+            return tryOptions(executor, selectOptions, order);
+        } finally {
+            returnOrder(order);
+        }
+    }
+
+    private static <T> Promise<SelectResult<T>> tryOptions(IOActionExecutor executor,
+                                                           List<SelectOption<T>> selectOptions, int[] order)
+            throws Exception {
+        for (int i = 0; i < selectOptions.size(); i++) {
+            SelectOption<T> option = selectOptions.get(order == null ? i : order[i]);
             switch (option.type) {
                 case SEND:
-                    madeIt = option.getChannel().send(token, option.value);
+                    if (option.getChannel().trySend(option.value)) {
+                        return Promise.newPromise(executor, SelectResult.sent(option.sendPort)).perform();
+                    }
                     break;
                 case RECEIVE:
-                    madeIt = option.getChannel().receive(token);
+                    Maybe<T> received = option.getChannel().tryReceive();
+                    if (received.isPresent()) {
+                        return Promise.newPromise(executor,
+                                SelectResult.received(option.rcvPort, received.getValue())).perform();
+                    }
                     break;
                 default:
                     throw new AssertionError();
             }
         }
-        return pro;
+        return executor.constantPromise(SelectResult.defaulted());
     }
 
+
     public static <T> SelectBuilder<T> select() {
         return new SelectBuilder<>();
     }
 
-    public static <T> AsyncAction<ChannelHandle<T>> newChannel(int bufferSize) {
+    public static PrimitiveSelectBuilder primitiveSelect() {
+        return new PrimitiveSelectBuilder();
+    }
+
+    /**
+     * Starts building a service whose workers answer each request with the given function.
+     */
+    public static <Req, Rep> ServiceBuilder<Req, Rep> service(Function<Req, Rep> handler) {
+        return new ServiceBuilder<>(handler, null, 1);
+    }
+
+    /**
+     * Starts building a service whose workers take up to maxBatch queued requests at a time and answer them
+     * with one call of the handler, which must return the replies in the order of the requests.
+     */
+    public static <Req, Rep> ServiceBuilder<Req, Rep> batchService(int maxBatch,
+                                                                  Function<List<Req>, List<Rep>> handler) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("batch size must be at least one");
+        }
+        return new ServiceBuilder<>(null, handler, maxBatch);
+    }
+
+    /**
+     * Creates a channel registered under the given name with the executor's metrics registry. The name is
+     * only used for reporting and may be null.
+     */
+    public static <T> AsyncAction<ChannelHandle<T>> newChannel(int bufferSize, String name) {
         if (bufferSize < 0) {
             throw new IllegalArgumentException("negative buffer size");
         }
         if (bufferSize == 0) {
-            return AsyncAction.unit(new UnbufferedChannel<T>().getHandle());
+            return exe -> Promise.newPromise(exe, new UnbufferedChannel<T>(exe.getMetricsRegistry(), name).getHandle());
         }
-        return BufferedChannel.bufferedChannel(bufferSize);
+        return BufferedChannel.bufferedChannel(bufferSize, name);
+    }
+
+    public static <T> AsyncAction<ChannelHandle<T>> newChannel(int bufferSize) {
+        return newChannel(bufferSize, null);
     }
 
     public static <T> AsyncAction<ChannelHandle<T>> newChannel() {
         return newChannel(0);
     }
-}
\ No newline at end of file
+
+    private static void checkPrimitiveBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least one");
+        }
+    }
+
+    public static AsyncAction<IntChannel> newIntChannel(int bufferSize, String name) {
+        checkPrimitiveBufferSize(bufferSize);
+        return exe -> Promise.newPromise(exe, new IntChannel(bufferSize, exe.getMetricsRegistry(), name));
+    }
+
+    public static AsyncAction<IntChannel> newIntChannel(int bufferSize) {
+        return newIntChannel(bufferSize, null);
+    }
+
+    public static AsyncAction<LongChannel> newLongChannel(int bufferSize, String name) {
+        checkPrimitiveBufferSize(bufferSize);
+        return exe -> Promise.newPromise(exe, new LongChannel(bufferSize, exe.getMetricsRegistry(), name));
+    }
+
+    public static AsyncAction<LongChannel> newLongChannel(int bufferSize) {
+        return newLongChannel(bufferSize, null);
+    }
+
+    public static AsyncAction<DoubleChannel> newDoubleChannel(int bufferSize, String name) {
+        checkPrimitiveBufferSize(bufferSize);
+        return exe -> Promise.newPromise(exe, new DoubleChannel(bufferSize, exe.getMetricsRegistry(), name));
+    }
+
+    public static AsyncAction<DoubleChannel> newDoubleChannel(int bufferSize) {
+        return newDoubleChannel(bufferSize, null);
+    }
+
+    /**
+     * Creates a channel that delivers every message to every subscriber, keeping the last capacity messages
+     * for subscribers that are behind.
+     */
+    public static <T> AsyncAction<BroadcastChannel<T>> newBroadcastChannel(
+            int capacity, BroadcastChannel.SlowSubscriberPolicy policy, String name) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least one");
+        }
+        return exe -> Promise.newPromise(exe, new BroadcastChannel<>(capacity, policy, exe.getMetricsRegistry(), name));
+    }
+
+    public static <T> AsyncAction<BroadcastChannel<T>> newBroadcastChannel(
+            int capacity, BroadcastChannel.SlowSubscriberPolicy policy) {
+        return newBroadcastChannel(capacity, policy, null);
+    }
+
+    /**
+     * Creates a buffered channel that keeps up to memoryCapacity messages on the heap and spills any further
+     * ones to segment files of about segmentBytes each in the given directory, so senders never wait.
+     * Segments are deleted once they have been read back, and all of them when either port is closed, which
+     * drops whatever is still buffered. Messages must not be null.
+     */
+    public static <T> AsyncAction<ChannelHandle<T>> newSpillingChannel(int memoryCapacity, long segmentBytes,
+                                                                      Path directory, Serializer<T> serializer,
+                                                                      String name) {
+        if (memoryCapacity < 1) {
+            throw new IllegalArgumentException("memory capacity must be at least one");
+        }
+        if (segmentBytes < 1) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        return exe -> Promise.newPromise(exe, new BufferedChannel<>(
+                new SpillingBuffer<>(memoryCapacity, segmentBytes, directory, serializer),
+                exe.getMetricsRegistry(), name, "spilling").getHandle());
+    }
+
+    public static <T> AsyncAction<ChannelHandle<T>> newSpillingChannel(int memoryCapacity, Path directory,
+                                                                      Serializer<T> serializer) {
+        return newSpillingChannel(memoryCapacity, 64 << 20, directory, serializer, null);
+    }
+
+    /**
+     * Opens the sending end of a channel to another process on the same host through a memory-mapped ring
+     * of the given capacity in bytes (a multiple of 16). The file is created if needed; one process may send
+     * and one may receive through it, and both must use the same capacity.
+     */
+    public static <T> AsyncAction<ChannelHandle.SendPort<T>> openSharedSender(Path file, int capacity,
+                                                                          Serializer<T> serializer) {
+        return SharedMemoryChannel.sender(file, capacity, serializer);
+    }
+
+    /**
+     * Opens the receiving end of a channel created with {@link #openSharedSender}.
+     */
+    public static <T> AsyncAction<ChannelHandle.ReceivePort<T>> openSharedReceiver(Path file, int capacity,
+                                                                                Serializer<T> serializer) {
+        return SharedMemoryChannel.receiver(file, capacity, serializer);
+    }
+}
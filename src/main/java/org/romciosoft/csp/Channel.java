@@ -1,8 +1,41 @@
 package org.romciosoft.csp;
 
+import org.romciosoft.monad.Maybe;
+
+import java.util.List;
+
 interface Channel<T> {
     boolean send(SelectToken<T> token, T value) throws Exception;
     boolean receive(SelectToken<T> token) throws Exception;
 
+    /**
+     * Hands over values starting at index from, for as long as that is possible without waiting, and
+     * returns how many of them were taken.
+     */
+    int offer(List<? extends T> values, int from) throws Exception;
+
+    /**
+     * Appends up to max values that can be received without waiting to the given list and returns how
+     * many were received.
+     */
+    int poll(List<? super T> into, int max) throws Exception;
+
+    /**
+     * Sends the value if that is possible without waiting. Never registers anything with the channel.
+     */
+    boolean trySend(T value) throws Exception;
+
+    /**
+     * Receives a value if one is available without waiting. Never registers anything with the channel.
+     */
+    Maybe<T> tryReceive() throws Exception;
+
+    /**
+     * Releases what the channel holds outside the heap, such as files or a mapping, and fails the tokens
+     * waiting on it. Channels that hold nothing of the kind ignore it.
+     */
+    default void close() throws Exception {
+    }
+
     ChannelHandle<T> getHandle();
 }
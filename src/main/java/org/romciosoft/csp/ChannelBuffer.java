@@ -0,0 +1,176 @@
+package org.romciosoft.csp;
+
+import java.io.IOException;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * The FIFO storage behind a buffered channel. All access happens under the channel's lock. The channel
+ * moves a value in or out before it completes the token concerned, and undoes the move with removeLast or
+ * addFirst if the token turns out to be done already.
+ */
+abstract class ChannelBuffer<T> {
+    abstract void add(T value) throws IOException;
+
+    abstract T peek() throws IOException;
+
+    abstract void removeFirst() throws IOException;
+
+    /**
+     * Takes back the value just added.
+     */
+    abstract void removeLast() throws IOException;
+
+    /**
+     * Puts back the value just removed.
+     */
+    abstract void addFirst(T value);
+
+    abstract int size();
+
+    abstract boolean isFull();
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Whether the buffer holds files or other resources outside the heap, which close releases.
+     */
+    boolean isCloseable() {
+        return false;
+    }
+
+    void close() throws IOException {
+    }
+
+    abstract static class Ring<T> extends ChannelBuffer<T> {
+        final int capacity;
+        int head = 0;
+        int size = 0;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+        }
+
+        final int index(int offset) {
+            return (head + offset) % capacity;
+        }
+
+        final void advance() {
+            head = (head + 1) % capacity;
+            size--;
+        }
+
+        final void retreat() {
+            head = (head + capacity - 1) % capacity;
+            size++;
+        }
+
+        @Override
+        void removeLast() {
+            size--;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+    }
+
+    static class Objects<T> extends Ring<T> {
+        private final Object[] ring;
+
+        Objects(int capacity) {
+            super(capacity);
+            ring = new Object[capacity];
+        }
+
+        @Override
+        void add(T value) {
+            ring[index(size)] = value;
+            size++;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T peek() {
+            return (T) ring[head];
+        }
+
+        @Override
+        void removeFirst() {
+            ring[head] = null;
+            advance();
+        }
+
+        @Override
+        void removeLast() {
+            super.removeLast();
+            ring[index(size)] = null;
+        }
+
+        @Override
+        void addFirst(T value) {
+            retreat();
+            ring[head] = value;
+        }
+    }
+
+    /**
+     * A ring of raw 64-bit words for primitive channels. Values only get boxed when they go through the
+     * generic channel interface; the bits methods move them without allocating.
+     */
+    static class Bits<T> extends Ring<T> {
+        private final long[] ring;
+        final LongFunction<T> box;
+        final ToLongFunction<T> unbox;
+
+        Bits(int capacity, LongFunction<T> box, ToLongFunction<T> unbox) {
+            super(capacity);
+            ring = new long[capacity];
+            this.box = box;
+            this.unbox = unbox;
+        }
+
+        void addBits(long bits) {
+            ring[index(size)] = bits;
+            size++;
+        }
+
+        long peekBits() {
+            return ring[head];
+        }
+
+        @Override
+        void add(T value) {
+            addBits(unbox.applyAsLong(value));
+        }
+
+        @Override
+        T peek() {
+            return box.apply(ring[head]);
+        }
+
+        @Override
+        void removeFirst() {
+            advance();
+        }
+
+        @Override
+        void addFirst(T value) {
+            retreat();
+            ring[head] = unbox.applyAsLong(value);
+        }
+    }
+}
@@ -1,29 +1,124 @@
 package org.romciosoft.csp;
 
 import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.Promise;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class ChannelHandle<T> {
     public static class SendPort<T> {
         Channel<T> channel;
+        final SelectResult<T> sent = SelectResult.newSent(this);
 
         SendPort(Channel<T> channel) {
             this.channel = channel;
         }
 
         public AsyncAction<Void> send(T value) {
-            return CSP.<T>select().send(this, value).build().then(AsyncAction.unit(null));
+            return exe -> () -> CSP.send(exe, this, value);
+        }
+
+        /**
+         * Sends the value only if a receiver or buffer space is available right away and yields whether it
+         * did. No promise is allocated when the channel is not ready.
+         */
+        public AsyncAction<Boolean> trySend(T value) {
+            return exe -> () -> exe.constantPromise(channel.trySend(value));
+        }
+
+        /**
+         * Sends all values in order. Whatever the channel can take without waiting is moved under a single
+         * lock acquisition; the rest is sent one by one as room frees up, each wait again followed by a batch.
+         */
+        public AsyncAction<Void> sendAll(List<? extends T> values) {
+            return sendAllFrom(values, 0);
+        }
+
+        private AsyncAction<Void> sendAllFrom(List<? extends T> values, int from) {
+            return exe -> () -> {
+                int next = from + channel.offer(values, from);
+                if (next == values.size()) {
+                    return Promise.<Void>newPromise(exe, null).perform();
+                }
+                return send(values.get(next))
+                        .then(sendAllFrom(values, next + 1))
+                        .getIOAction(exe).perform();
+            };
+        }
+
+        /**
+         * Closes the channel if it holds files or shared memory, as shared-memory and spilling channels do:
+         * processes waiting on it fail, and so do later sends and receives. Does nothing for other channels.
+         */
+        public AsyncAction<Void> close() {
+            return exe -> () -> {
+                channel.close();
+                return Promise.<Void>newPromise(exe, null).perform();
+            };
         }
     }
 
     public static class ReceivePort<T> {
         Channel<T> channel;
+        // set by a Pipeline stage that ends its output stream early, before it sends the end of the stream,
+        // whose receipt publishes it
+        Exception streamFailure;
+        // the same action every time, since it captures nothing but the port
+        private final AsyncAction<T> receive = exe -> () -> CSP.receive(exe, this);
 
         ReceivePort(Channel<T> channel) {
             this.channel = channel;
         }
 
         public AsyncAction<T> receive() {
-            return CSP.<T>select().receive(this).build().bind(result -> AsyncAction.unit(result.getReceivedValue()));
+            return receive;
+        }
+
+        /**
+         * Receives a value only if one is available right away. No promise is allocated when the channel is
+         * not ready.
+         */
+        public AsyncAction<Maybe<T>> tryReceive() {
+            return exe -> () -> {
+                Maybe<T> value = channel.tryReceive();
+                return value.isPresent() ? Promise.newPromise(exe, value).perform() : exe.constantPromise(value);
+            };
+        }
+
+        /**
+         * Receives at least one and at most max values: everything available without waiting is taken
+         * under a single lock acquisition, and only if nothing is available does it wait for one value.
+         */
+        public AsyncAction<List<T>> receiveUpTo(int max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("max must be at least one");
+            }
+            return exe -> () -> {
+                List<T> values = new ArrayList<>();
+                if (channel.poll(values, max) > 0) {
+                    return Promise.newPromise(exe, values).perform();
+                }
+                return receive().bind(first -> (AsyncAction<List<T>>) exe2 -> () -> {
+                    values.add(first);
+                    if (max > 1) {
+                        channel.poll(values, max - 1);
+                    }
+                    return Promise.newPromise(exe2, values).perform();
+                }).getIOAction(exe).perform();
+            };
+        }
+
+        /**
+         * Closes the channel if it holds files or shared memory, as shared-memory and spilling channels do:
+         * processes waiting on it fail, and so do later sends and receives. Does nothing for other channels.
+         */
+        public AsyncAction<Void> close() {
+            return exe -> () -> {
+                channel.close();
+                return Promise.<Void>newPromise(exe, null).perform();
+            };
         }
     }
 
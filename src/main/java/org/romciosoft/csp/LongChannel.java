@@ -0,0 +1,86 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Monad;
+
+import java.util.function.LongFunction;
+
+/**
+ * A buffered channel of longs kept in a primitive ring. Values that go through the buffer are never boxed;
+ * only a value handed directly to a waiting process is. getHandle() gives a boxed view of the same channel
+ * for use with SelectBuilder and Pipeline.
+ */
+public final class LongChannel {
+    final BufferedChannel<Long> channel;
+
+    LongChannel(int bufferSize, MetricsRegistry registry, String name) {
+        channel = new BufferedChannel<>(new ChannelBuffer.Bits<>(bufferSize, bits -> bits, Long::longValue),
+                registry, name, "long");
+    }
+
+    public ChannelHandle<Long> getHandle() {
+        return channel.getHandle();
+    }
+
+    public AsyncAction<Void> send(long value) {
+        return exe -> () -> channel.trySendBits(value)
+                ? exe.<Void>constantPromise(null)
+                : getHandle().getSendPort().send(value).getIOAction(exe).perform();
+    }
+
+    /**
+     * Receives a value and passes it to the continuation without boxing it, unless it had to be waited for.
+     */
+    public <U> AsyncAction<U> receive(LongFunction<Monad<AsyncAction<?>, U>> then) {
+        return exe -> () -> {
+            BufferedChannel.BitsHolder received = BufferedChannel.BitsHolder.forThread();
+            if (channel.pollBits(1, received) == 1) {
+                return AsyncAction.fromMonad(then.apply(received.bits)).getIOAction(exe).perform();
+            }
+            return getHandle().getReceivePort().receive().bind(then::apply).getIOAction(exe).perform();
+        };
+    }
+
+    public AsyncAction<Boolean> trySend(long value) {
+        return exe -> () -> exe.constantPromise(channel.trySendBits(value));
+    }
+
+    /**
+     * Sends values[from] to values[to - 1] in order, moving whatever fits in the buffer under a single lock
+     * acquisition and waiting for room only when it is full.
+     */
+    public AsyncAction<Void> sendAll(long[] values, int from, int to) {
+        return exe -> () -> {
+            int next = from + channel.offerBits(from, to, i -> values[i]);
+            if (next == to) {
+                return exe.<Void>constantPromise(null);
+            }
+            return send(values[next])
+                    .then(sendAll(values, next + 1, to))
+                    .getIOAction(exe).perform();
+        };
+    }
+
+    /**
+     * Receives at least one and at most max values into the array starting at offset and yields how many
+     * it got. Only waits if nothing is available.
+     */
+    public AsyncAction<Integer> receiveUpTo(long[] into, int offset, int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least one");
+        }
+        return exe -> () -> {
+            int count = channel.pollBits(max, (i, bits) -> into[offset + i] = bits);
+            if (count > 0) {
+                return Promise.newPromise(exe, count).perform();
+            }
+            return receive(first -> (AsyncAction<Integer>) exe2 -> () -> {
+                into[offset] = first;
+                int more = max > 1 ? channel.pollBits(max - 1, (i, bits) -> into[offset + 1 + i] = bits) : 0;
+                return Promise.newPromise(exe2, 1 + more).perform();
+            }).getIOAction(exe).perform();
+        };
+    }
+}
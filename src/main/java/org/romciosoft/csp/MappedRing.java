@@ -0,0 +1,266 @@
+package org.romciosoft.csp;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single-producer single-consumer ring of length-prefixed records in a memory-mapped file, shared by
+ * one sending and one receiving process. Each side only ever writes its own position, so the two never
+ * contend for a cache line and neither needs a system call to hand over a record: the producer writes the
+ * record and then publishes the new tail, the consumer reads up to the tail and then publishes the new head,
+ * with fences in between keeping the other side from seeing a position before the bytes it covers.
+ * Not thread-safe: each side is used under its channel's lock.
+ * <p>
+ * Each side holds a file lock on the header line it owns for as long as it has the ring open, so that a
+ * second producer or consumer, in this process or another, fails to open instead of corrupting the ring.
+ * Closing the ring releases the lock and unmaps the file; the ring must not be touched afterwards.
+ */
+class MappedRing {
+    private static final int MAGIC = 0x43535052;
+    private static final int PADDING = -1;
+    // producer-owned and consumer-owned fields sit on separate cache lines
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int TAIL_OFFSET = 64;
+    private static final int WRITTEN_OFFSET = 72;
+    private static final int HEAD_OFFSET = 128;
+    private static final int READ_OFFSET = 136;
+    private static final int DATA_OFFSET = 192;
+    private static final int RECORD_ALIGNMENT = 8;
+
+    // Java 8 has no VarHandles, so the fences come from Unsafe, looked up reflectively so that the code
+    // compiles with --release 8, which hides sun.misc; constant method handles cost no more than direct calls
+    private static final MethodHandle LOAD_FENCE;
+    private static final MethodHandle STORE_FENCE;
+    // frees a mapping right away instead of whenever its buffer is collected
+    private static final MethodHandle UNMAP;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            LOAD_FENCE = lookup.unreflect(unsafeClass.getMethod("loadFence")).bindTo(unsafe);
+            STORE_FENCE = lookup.unreflect(unsafeClass.getMethod("storeFence")).bindTo(unsafe);
+            UNMAP = unmapper(lookup, unsafeClass, unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle unmapper(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe)
+            throws ReflectiveOperationException {
+        try {
+            // Java 9 and later
+            return lookup.unreflect(unsafeClass.getMethod("invokeCleaner", ByteBuffer.class)).bindTo(unsafe);
+        } catch (NoSuchMethodException e) {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return MethodHandles.filterReturnValue(lookup.unreflect(cleaner), lookup.unreflect(clean))
+                    .asType(MethodType.methodType(void.class, ByteBuffer.class));
+        }
+    }
+
+    // kept open until close, since closing it releases the side's lock
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // for bulk copies, which Java 8 only has relative to a position
+    private final ByteBuffer view;
+    private final int capacity;
+
+    MappedRing(Path file, int capacity, boolean producer) throws IOException {
+        if (capacity < 2 * RECORD_ALIGNMENT || capacity % (2 * RECORD_ALIGNMENT) != 0) {
+            throw new IllegalArgumentException("capacity must be a positive multiple of " + 2 * RECORD_ALIGNMENT);
+        }
+        this.capacity = capacity;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            lock(file, producer);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+            checkHeader(file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        view = ((ByteBuffer) buffer).duplicate();
+    }
+
+    private void lock(Path file, boolean producer) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock(producer ? TAIL_OFFSET : HEAD_OFFSET, 64, false);
+        } catch (OverlappingFileLockException e) {
+            // held through another channel of this process
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException(file + " already has a " + (producer ? "sender" : "receiver"));
+        }
+    }
+
+    private void checkHeader(Path file) throws IOException {
+        buffer.order(ByteOrder.nativeOrder());
+        // a fresh file is all zeroes, so whichever side comes first only has to stamp the header
+        int magic = buffer.getInt(MAGIC_OFFSET);
+        if (magic == 0) {
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            storeFence();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+        } else if (magic != MAGIC) {
+            throw new IOException(file + " is not a channel ring");
+        } else if (buffer.getInt(CAPACITY_OFFSET) != capacity) {
+            throw new IllegalArgumentException(file + " has a capacity of " + buffer.getInt(CAPACITY_OFFSET));
+        }
+    }
+
+    private static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void storeFence() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static int recordSize(int length) {
+        return (4 + length + RECORD_ALIGNMENT - 1) / RECORD_ALIGNMENT * RECORD_ALIGNMENT;
+    }
+
+    private long head() {
+        long head = buffer.getLong(HEAD_OFFSET);
+        loadFence();
+        return head;
+    }
+
+    private long tail() {
+        long tail = buffer.getLong(TAIL_OFFSET);
+        loadFence();
+        return tail;
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+
+    /**
+     * Records are limited to half the ring so that one always fits into an empty ring, whatever the
+     * wrap-around padding in front of it.
+     */
+    int maxRecordLength() {
+        return capacity / 2 - 4;
+    }
+
+    /**
+     * Whether a record of the given length fits right now, counting the padding needed to wrap around.
+     * Only the producer calls this, and space only grows behind its back.
+     */
+    boolean hasRoom(int length) {
+        long tail = buffer.getLong(TAIL_OFFSET);
+        int size = recordSize(length);
+        int untilEnd = capacity - index(tail);
+        int needed = size <= untilEnd ? size : untilEnd + size;
+        return tail + needed - head() <= capacity;
+    }
+
+    /**
+     * Appends a record; the caller must have checked hasRoom.
+     */
+    void write(byte[] bytes) {
+        long tail = buffer.getLong(TAIL_OFFSET);
+        int size = recordSize(bytes.length);
+        int untilEnd = capacity - index(tail);
+        if (size > untilEnd) {
+            buffer.putInt(DATA_OFFSET + index(tail), PADDING);
+            tail += untilEnd;
+        }
+        int at = DATA_OFFSET + index(tail);
+        buffer.putInt(at, bytes.length);
+        ((Buffer) view).position(at + 4);
+        view.put(bytes);
+        long written = buffer.getLong(WRITTEN_OFFSET);
+        storeFence();
+        buffer.putLong(WRITTEN_OFFSET, written + 1);
+        buffer.putLong(TAIL_OFFSET, tail + size);
+    }
+
+    boolean isEmpty() {
+        return buffer.getLong(HEAD_OFFSET) == tail();
+    }
+
+    /**
+     * Copies out the oldest record without consuming it, or returns null if there is none.
+     */
+    byte[] peek() {
+        long head = buffer.getLong(HEAD_OFFSET);
+        if (head == tail()) {
+            return null;
+        }
+        int at = DATA_OFFSET + index(head);
+        int length = buffer.getInt(at);
+        if (length == PADDING) {
+            at = DATA_OFFSET;
+            length = buffer.getInt(at);
+        }
+        byte[] bytes = new byte[length];
+        ((Buffer) view).position(at + 4);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Consumes the record returned by the last peek.
+     */
+    void remove() {
+        long head = buffer.getLong(HEAD_OFFSET);
+        int at = DATA_OFFSET + index(head);
+        int length = buffer.getInt(at);
+        if (length == PADDING) {
+            head += capacity - index(head);
+            length = buffer.getInt(DATA_OFFSET);
+        }
+        long read = buffer.getLong(READ_OFFSET);
+        // the record's bytes must have been read before the producer may overwrite them
+        loadFence();
+        buffer.putLong(READ_OFFSET, read + 1);
+        buffer.putLong(HEAD_OFFSET, head + recordSize(length));
+    }
+
+    int size() {
+        long read = buffer.getLong(READ_OFFSET);
+        loadFence();
+        return (int) (buffer.getLong(WRITTEN_OFFSET) - read);
+    }
+
+    void close() throws IOException {
+        try {
+            UNMAP.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            throw new IOException("could not unmap the ring", e);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Makes channels usable across JVMs over TCP. A node exports local channels under names and listens; other
+ * nodes import them as ordinary send or receive ports, which work in selects like local ones. All ports
+ * imported from one node share a single connection, and all sockets of a transport are served by one
+ * selector thread. See TransportConnection for framing and flow control.
+ */
+public class NetworkTransport implements Closeable {
+    static class Export<T> {
+        final ChannelHandle<T> handle;
+        final Serializer<T> serializer;
+
+        Export(ChannelHandle<T> handle, Serializer<T> serializer) {
+            this.handle = handle;
+            this.serializer = serializer;
+        }
+    }
+
+    final IOActionExecutor executor;
+    private final int window;
+    private final Selector selector;
+    private final Thread ioThread;
+    private final Map<String, Export<?>> exports = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, TransportConnection> connections = new ConcurrentHashMap<>();
+    // run on the I/O thread, which owns all selection keys
+    private final ConcurrentLinkedQueue<IOTask> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * @param executor runs the local sends and receives on behalf of remote nodes
+     * @param window   how many messages may be in flight per imported port before its senders have to wait
+     */
+    public NetworkTransport(IOActionExecutor executor, int window) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least one");
+        }
+        this.executor = executor;
+        this.window = window;
+        selector = Selector.open();
+        ioThread = new Thread(this::loop, "csp-transport");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public NetworkTransport(IOActionExecutor executor) throws IOException {
+        this(executor, 64);
+    }
+
+    private void runOnIOThread(IOTask task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void requestFlush(TransportConnection connection) {
+        runOnIOThread(connection::flush);
+    }
+
+    Export<?> getExport(String name) {
+        return exports.get(name);
+    }
+
+    /**
+     * Accepts connections from importing nodes on the given address and returns the address actually bound,
+     * which tells the port if 0 was asked for.
+     */
+    public InetSocketAddress listen(InetSocketAddress address) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        runOnIOThread(() -> server.register(selector, SelectionKey.OP_ACCEPT));
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    public <T> void export(String name, ChannelHandle<T> channel, Serializer<T> serializer) {
+        exports.put(name, new Export<>(channel, serializer));
+    }
+
+    private TransportConnection connection(InetSocketAddress node) {
+        return connections.computeIfAbsent(node, address -> {
+            try {
+                SocketChannel socket = SocketChannel.open();
+                socket.configureBlocking(false);
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                TransportConnection connection = new TransportConnection(this, socket);
+                boolean connected = socket.connect(address);
+                runOnIOThread(() -> {
+                    connection.key = socket.register(selector,
+                            connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+                    if (connected) {
+                        connection.flush();
+                    }
+                });
+                return connection;
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot connect to " + address, e);
+            }
+        });
+    }
+
+    public <T> AsyncAction<ChannelHandle.SendPort<T>> importSendPort(InetSocketAddress node, String name,
+                                                                    Serializer<T> serializer) {
+        return exe -> () -> Promise.newPromise(exe,
+                connection(node).importSend(name, serializer, window, exe).getHandle().getSendPort()).perform();
+    }
+
+    public <T> AsyncAction<ChannelHandle.ReceivePort<T>> importReceivePort(InetSocketAddress node, String name,
+                                                                          Serializer<T> serializer) {
+        return exe -> () -> Promise.newPromise(exe, connection(node).importReceive(name, serializer, window, exe)
+                .getHandle().getReceivePort()).perform();
+    }
+
+    private void drop(SelectionKey key, TransportConnection connection) {
+        key.cancel();
+        try {
+            connection.socket.close();
+        } catch (IOException e) {
+            // already gone
+        }
+        connections.values().remove(connection);
+        connection.closed();
+    }
+
+    private void handle(SelectionKey key) throws Exception {
+        if (key.isAcceptable()) {
+            SocketChannel socket = ((ServerSocketChannel) key.channel()).accept();
+            if (socket != null) {
+                socket.configureBlocking(false);
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                TransportConnection connection = new TransportConnection(this, socket);
+                connection.key = socket.register(selector, SelectionKey.OP_READ, connection);
+            }
+            return;
+        }
+        TransportConnection connection = (TransportConnection) key.attachment();
+        if (key.isConnectable()) {
+            connection.socket.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            if (connection.hasPendingWrites()) {
+                connection.flush();
+            }
+            return;
+        }
+        if (key.isReadable()) {
+            connection.read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            connection.flush();
+        }
+    }
+
+    private void loop() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                continue;
+            }
+            IOTask task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    // a broken connection is dropped once its key reports the failure
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    handle(key);
+                } catch (Exception e) {
+                    if (key.attachment() instanceof TransportConnection) {
+                        drop(key, (TransportConnection) key.attachment());
+                    }
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            if (key.attachment() instanceof TransportConnection) {
+                ((TransportConnection) key.attachment()).closed();
+            }
+        }
+    }
+
+    /**
+     * Closes all connections and listening sockets. Ports imported through this transport stop working.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
@@ -0,0 +1,376 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.Promise;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reusable pipeline stages. A stream is a {@code ReceivePort<Maybe<T>>} on which every element arrives
+ * wrapped in {@link Maybe#just} and the end of the stream is signalled by {@link Maybe#nothing}. Each
+ * stage forks its own processes and returns the port of a freshly created buffered channel, so a slow
+ * stage pushes back on the ones before it once its buffer fills up.
+ * <p>
+ * A stage whose function throws ends its output stream right away, after recording the exception on
+ * the output port. Later stages end their streams with the same failure, and forEach and collect fail
+ * with it. The stages before the failed one are just no longer read from.
+ */
+public class Pipeline {
+    private static class Sequenced<T> {
+        final long seq;
+        final T value;
+        // instead of a value, from a worker whose function threw
+        final RuntimeException failure;
+
+        Sequenced(long seq, T value, RuntimeException failure) {
+            this.seq = seq;
+            this.value = value;
+            this.failure = failure;
+        }
+    }
+
+    private Pipeline() {
+    }
+
+    private static void checkBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least one");
+        }
+    }
+
+    private static <T> AsyncAction<T> failed(Exception failure) {
+        return exe -> () -> {
+            Promise<T> promise = Promise.<T>newPromise(exe).perform();
+            promise.fail(failure).perform();
+            return promise;
+        };
+    }
+
+    /**
+     * Sends the last elements of a stream followed by its end, recording first the failure, if any, that cut
+     * the stream short.
+     */
+    private static <T> AsyncAction<Void> end(ChannelHandle<Maybe<T>> out, List<Maybe<T>> last, Exception failure) {
+        out.getReceivePort().streamFailure = failure;
+        last.add(Maybe.nothing());
+        return out.getSendPort().sendAll(last);
+    }
+
+    private static <T> AsyncAction<Void> end(ChannelHandle<Maybe<T>> out, Exception failure) {
+        return end(out, new ArrayList<>(1), failure);
+    }
+
+    private static <T> AsyncAction<Void> sourceBody(Iterator<? extends T> values, ChannelHandle<Maybe<T>> out,
+                                                    int batchSize) {
+        return exe -> () -> {
+            List<Maybe<T>> batch = new ArrayList<>(batchSize + 1);
+            boolean ended;
+            RuntimeException failure = null;
+            try {
+                while (batch.size() < batchSize && values.hasNext()) {
+                    batch.add(Maybe.just(values.next()));
+                }
+                ended = !values.hasNext();
+            } catch (RuntimeException e) {
+                failure = e;
+                ended = true;
+            }
+            AsyncAction<Void> send = ended
+                    ? end(out, batch, failure)
+                    : out.getSendPort().sendAll(batch).then(sourceBody(values, out, batchSize));
+            return send.getIOAction(exe).perform();
+        };
+    }
+
+    /**
+     * Streams the values, taking them from the iterator only as the buffer has room for them. If the
+     * iterator throws, the stream ends with that failure.
+     */
+    public static <T> AsyncAction<ChannelHandle.ReceivePort<Maybe<T>>> source(Iterable<? extends T> values, int bufferSize) {
+        checkBufferSize(bufferSize);
+        return CSP.<Maybe<T>>newChannel(bufferSize).bind(ch ->
+                AsyncAction.fork(exe -> () -> {
+                    Iterator<? extends T> iterator;
+                    try {
+                        iterator = values.iterator();
+                    } catch (RuntimeException e) {
+                        return end(ch, e).getIOAction(exe).perform();
+                    }
+                    return sourceBody(iterator, ch, bufferSize).getIOAction(exe).perform();
+                }).then(AsyncAction.unit(ch.getReceivePort())));
+    }
+
+    /**
+     * Runs the given action for every element in turn, finishing once the end of the stream is received,
+     * or failing if the stream ended with a failure.
+     */
+    public static <T> AsyncAction<Void> forEach(ChannelHandle.ReceivePort<Maybe<T>> in, Function<T, AsyncAction<Void>> fun) {
+        return in.receive().bind(item -> {
+            if (item.isNothing()) {
+                return in.streamFailure == null ? AsyncAction.unit(null) : failed(in.streamFailure);
+            }
+            return fun.apply(item.getValue()).then(forEach(in, fun));
+        });
+    }
+
+    public static <T> AsyncAction<List<T>> collect(ChannelHandle.ReceivePort<Maybe<T>> in) {
+        return AsyncAction.wrap(() -> new ArrayList<T>()).bind(values ->
+                forEach(in, value -> AsyncAction.wrap(() -> {
+                    values.add(value);
+                    return null;
+                })).then(AsyncAction.unit(values)));
+    }
+
+    private static <T, U> AsyncAction<Void> transformBody(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                          ChannelHandle<Maybe<U>> out,
+                                                          int batchSize,
+                                                          Function<T, ? extends Iterable<? extends U>> fun) {
+        return in.receiveUpTo(batchSize).bind(items -> {
+            List<Maybe<U>> results = new ArrayList<>(items.size() + 1);
+            for (Maybe<T> item : items) {
+                if (item.isNothing()) {
+                    return end(out, results, in.streamFailure);
+                }
+                try {
+                    for (U result : fun.apply(item.getValue())) {
+                        results.add(Maybe.just(result));
+                    }
+                } catch (RuntimeException e) {
+                    return end(out, results, e);
+                }
+            }
+            return out.getSendPort().sendAll(results).then(transformBody(in, out, batchSize, fun));
+        });
+    }
+
+    private static <T, U> AsyncAction<ChannelHandle.ReceivePort<Maybe<U>>> transform(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                                     int bufferSize,
+                                                                                     Function<T, ? extends Iterable<? extends U>> fun) {
+        checkBufferSize(bufferSize);
+        return CSP.<Maybe<U>>newChannel(bufferSize).bind(ch ->
+                AsyncAction.fork(transformBody(in, ch, bufferSize, fun))
+                        .then(AsyncAction.unit(ch.getReceivePort())));
+    }
+
+    public static <T, U> AsyncAction<ChannelHandle.ReceivePort<Maybe<U>>> map(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                              int bufferSize,
+                                                                              Function<T, U> fun) {
+        return transform(in, bufferSize, value -> Collections.singletonList(fun.apply(value)));
+    }
+
+    public static <T> AsyncAction<ChannelHandle.ReceivePort<Maybe<T>>> filter(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                              int bufferSize,
+                                                                              Predicate<T> predicate) {
+        return transform(in, bufferSize, value -> predicate.test(value) ? Collections.singletonList(value) : Collections.<T>emptyList());
+    }
+
+    public static <T, U> AsyncAction<ChannelHandle.ReceivePort<Maybe<U>>> flatMap(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                                  int bufferSize,
+                                                                                  Function<T, ? extends Iterable<? extends U>> fun) {
+        return transform(in, bufferSize, fun);
+    }
+
+    private static <T> AsyncAction<Void> dispatchBody(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                      ChannelHandle.SendPort<Maybe<Sequenced<T>>> work,
+                                                      ChannelHandle.ReceivePort<Boolean> credits,
+                                                      int workers,
+                                                      long seq) {
+        AsyncAction<Boolean> credit = credits == null ? AsyncAction.unit(true) : credits.receive();
+        return credit.then(in.receive()).bind(item -> {
+            if (item.isNothing()) {
+                return work.sendAll(Collections.nCopies(workers, Maybe.<Sequenced<T>>nothing()));
+            }
+            return work.send(Maybe.just(new Sequenced<>(seq, item.getValue(), null)))
+                    .then(dispatchBody(in, work, credits, workers, seq + 1));
+        });
+    }
+
+    private static <T, U> AsyncAction<Void> workerBody(ChannelHandle.ReceivePort<Maybe<Sequenced<T>>> work,
+                                                       ChannelHandle.SendPort<Maybe<Sequenced<U>>> results,
+                                                       Function<T, U> fun) {
+        return work.receive().bind(item -> {
+            if (item.isNothing()) {
+                return results.send(Maybe.nothing());
+            }
+            Sequenced<T> task = item.getValue();
+            U result;
+            try {
+                result = fun.apply(task.value);
+            } catch (RuntimeException e) {
+                // the collector ends the stream on it, so this worker is done
+                return results.send(Maybe.just(new Sequenced<>(task.seq, null, e)));
+            }
+            return results.send(Maybe.just(new Sequenced<>(task.seq, result, null)))
+                    .then(workerBody(work, results, fun));
+        });
+    }
+
+    /*
+     * In ordered mode results wait in the reorder buffer until all earlier ones have been emitted, and every
+     * emitted result returns a credit to the dispatcher, so at most as many elements as there are credits
+     * are ever in flight. The input stream's failure, if any, reaches the collector through the workers'
+     * ends of stream, which all follow the dispatcher's receipt of the input's end.
+     */
+    private static <T, U> AsyncAction<Void> collectorBody(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                          ChannelHandle.ReceivePort<Maybe<Sequenced<U>>> results,
+                                                          ChannelHandle<Maybe<U>> out,
+                                                          ChannelHandle.SendPort<Boolean> credits,
+                                                          Map<Long, U> reorderBuffer,
+                                                          long next,
+                                                          int running) {
+        if (running == 0) {
+            return end(out, in.streamFailure);
+        }
+        return results.receive().bind(item -> {
+            if (item.isNothing()) {
+                return collectorBody(in, results, out, credits, reorderBuffer, next, running - 1);
+            }
+            Sequenced<U> result = item.getValue();
+            if (result.failure != null) {
+                return end(out, result.failure);
+            }
+            if (credits == null) {
+                return out.getSendPort().send(Maybe.just(result.value))
+                        .then(collectorBody(in, results, out, null, reorderBuffer, next, running));
+            }
+            reorderBuffer.put(result.seq, result.value);
+            List<Maybe<U>> ready = new ArrayList<>();
+            long nextAfter = next;
+            while (reorderBuffer.containsKey(nextAfter)) {
+                ready.add(Maybe.just(reorderBuffer.remove(nextAfter)));
+                nextAfter++;
+            }
+            long emitted = nextAfter;
+            return out.getSendPort().sendAll(ready)
+                    .then(credits.sendAll(Collections.nCopies(ready.size(), true)))
+                    .then(collectorBody(in, results, out, credits, reorderBuffer, emitted, running));
+        });
+    }
+
+    /**
+     * Applies the function on the given number of worker processes. With ordered set, results are emitted
+     * in input order through a reorder buffer holding at most workers + bufferSize elements; otherwise they
+     * are emitted as soon as they are ready.
+     */
+    public static <T, U> AsyncAction<ChannelHandle.ReceivePort<Maybe<U>>> parallelMap(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                                      int bufferSize,
+                                                                                      int workers,
+                                                                                      boolean ordered,
+                                                                                      Function<T, U> fun) {
+        checkBufferSize(bufferSize);
+        if (workers < 1) {
+            throw new IllegalArgumentException("at least one worker needed");
+        }
+        int window = workers + bufferSize;
+        return CSP.<Maybe<Sequenced<T>>>newChannel(bufferSize).bind(work ->
+                CSP.<Maybe<Sequenced<U>>>newChannel(bufferSize).bind(results ->
+                        CSP.<Maybe<U>>newChannel(bufferSize).bind(out ->
+                                CSP.<Boolean>newChannel(window).bind(credits -> {
+                                    AsyncAction<Void> start = ordered
+                                            ? credits.getSendPort().sendAll(Collections.nCopies(window, true))
+                                            : AsyncAction.unit(null);
+                                    start = start
+                                            .then(AsyncAction.fork(dispatchBody(in, work.getSendPort(),
+                                                    ordered ? credits.getReceivePort() : null, workers, 0)))
+                                            .then(AsyncAction.fork(collectorBody(in, results.getReceivePort(), out,
+                                                    ordered ? credits.getSendPort() : null, new TreeMap<>(), 0, workers)));
+                                    for (int i = 0; i < workers; i++) {
+                                        start = start.then(AsyncAction.fork(workerBody(work.getReceivePort(), results.getSendPort(), fun)));
+                                    }
+                                    return start.then(AsyncAction.unit(out.getReceivePort()));
+                                }))));
+    }
+
+    private static <T> AsyncAction<Void> mergeBody(List<ChannelHandle.ReceivePort<Maybe<T>>> ins,
+                                                   ChannelHandle<Maybe<T>> out) {
+        if (ins.isEmpty()) {
+            return end(out, null);
+        }
+        SelectBuilder<Maybe<T>> select = CSP.<Maybe<T>>select().fair();
+        for (ChannelHandle.ReceivePort<Maybe<T>> in : ins) {
+            select.receive(in);
+        }
+        return select.build().bind(result -> {
+            Maybe<T> item = result.getReceivedValue();
+            if (item.isNothing()) {
+                Exception failure = result.getReceivePort().streamFailure;
+                if (failure != null) {
+                    return end(out, failure);
+                }
+                List<ChannelHandle.ReceivePort<Maybe<T>>> remaining = new ArrayList<>(ins);
+                remaining.remove(result.getReceivePort());
+                return mergeBody(remaining, out);
+            }
+            return out.getSendPort().send(item).then(mergeBody(ins, out));
+        });
+    }
+
+    /**
+     * Interleaves several streams into one, which ends once all of them have ended, or as soon as one of
+     * them ends with a failure.
+     */
+    public static <T> AsyncAction<ChannelHandle.ReceivePort<Maybe<T>>> merge(List<ChannelHandle.ReceivePort<Maybe<T>>> ins,
+                                                                             int bufferSize) {
+        checkBufferSize(bufferSize);
+        return CSP.<Maybe<T>>newChannel(bufferSize).bind(ch ->
+                AsyncAction.fork(mergeBody(new ArrayList<>(ins), ch))
+                        .then(AsyncAction.unit(ch.getReceivePort())));
+    }
+
+    private static <T> AsyncAction<List<ChannelHandle<T>>> newChannels(int n, int bufferSize) {
+        if (n == 0) {
+            return AsyncAction.wrap(() -> new ArrayList<ChannelHandle<T>>());
+        }
+        return Pipeline.<T>newChannels(n - 1, bufferSize).bind(chs ->
+                CSP.<T>newChannel(bufferSize).bind(ch -> {
+                    chs.add(ch);
+                    return AsyncAction.unit(chs);
+                }));
+    }
+
+    private static <T> AsyncAction<Void> splitBody(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                   List<ChannelHandle<Maybe<T>>> outs) {
+        return in.receive().bind(item -> {
+            if (item.isNothing()) {
+                AsyncAction<Void> ends = AsyncAction.unit(null);
+                for (ChannelHandle<Maybe<T>> out : outs) {
+                    ends = ends.then(end(out, in.streamFailure));
+                }
+                return ends;
+            }
+            SelectBuilder<Maybe<T>> select = CSP.<Maybe<T>>select().fair();
+            for (ChannelHandle<Maybe<T>> out : outs) {
+                select.send(out.getSendPort(), item);
+            }
+            return select.build().then(splitBody(in, outs));
+        });
+    }
+
+    /**
+     * Distributes the elements of a stream over n streams, each element going to whichever output has
+     * room first. Every output receives the end of the stream.
+     */
+    public static <T> AsyncAction<List<ChannelHandle.ReceivePort<Maybe<T>>>> split(ChannelHandle.ReceivePort<Maybe<T>> in,
+                                                                                   int bufferSize,
+                                                                                   int n) {
+        checkBufferSize(bufferSize);
+        if (n < 1) {
+            throw new IllegalArgumentException("at least one output needed");
+        }
+        return Pipeline.<Maybe<T>>newChannels(n, bufferSize).<List<ChannelHandle.ReceivePort<Maybe<T>>>>bind(chs -> {
+            List<ChannelHandle.ReceivePort<Maybe<T>>> ports = new ArrayList<>();
+            for (ChannelHandle<Maybe<T>> ch : chs) {
+                ports.add(ch.getReceivePort());
+            }
+            return AsyncAction.fork(splitBody(in, chs)).then(AsyncAction.unit(ports));
+        });
+    }
+}
@@ -0,0 +1,182 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A select over primitive channels. Options that can proceed right away are served straight from the
+ * primitive rings; only when the select has to wait does it fall back to an ordinary select over the boxed
+ * handles.
+ */
+public class PrimitiveSelectBuilder {
+    private static class Option {
+        final boolean send;
+        final BufferedChannel<Object> channel;
+        final long bits;
+
+        @SuppressWarnings("unchecked")
+        Option(boolean send, BufferedChannel<?> channel, long bits) {
+            this.send = send;
+            this.channel = (BufferedChannel<Object>) channel;
+            this.bits = bits;
+        }
+    }
+
+    private List<Option> options = new ArrayList<>();
+    private boolean fair = false;
+    private long timeoutNanos = -1;
+    private boolean orElse = false;
+
+    PrimitiveSelectBuilder() {
+    }
+
+    public PrimitiveSelectBuilder send(IntChannel channel, int value) {
+        options.add(new Option(true, channel.channel, value));
+        return this;
+    }
+
+    public PrimitiveSelectBuilder send(LongChannel channel, long value) {
+        options.add(new Option(true, channel.channel, value));
+        return this;
+    }
+
+    public PrimitiveSelectBuilder send(DoubleChannel channel, double value) {
+        options.add(new Option(true, channel.channel, Double.doubleToRawLongBits(value)));
+        return this;
+    }
+
+    public PrimitiveSelectBuilder receive(IntChannel channel) {
+        options.add(new Option(false, channel.channel, 0));
+        return this;
+    }
+
+    public PrimitiveSelectBuilder receive(LongChannel channel) {
+        options.add(new Option(false, channel.channel, 0));
+        return this;
+    }
+
+    public PrimitiveSelectBuilder receive(DoubleChannel channel) {
+        options.add(new Option(false, channel.channel, 0));
+        return this;
+    }
+
+    /**
+     * See {@link SelectBuilder#fair()}.
+     */
+    public PrimitiveSelectBuilder fair() {
+        fair = true;
+        return this;
+    }
+
+    /**
+     * See {@link SelectBuilder#timeout(long, TimeUnit)}.
+     */
+    public PrimitiveSelectBuilder timeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("negative timeout");
+        }
+        timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * See {@link SelectBuilder#orElse()}.
+     */
+    public PrimitiveSelectBuilder orElse() {
+        orElse = true;
+        return this;
+    }
+
+    private PrimitiveSelectResult tryOptions() throws Exception {
+        int[] order = fair && options.size() > 1 ? CSP.randomOrder(options.size()) : null;
+        for (int i = 0; i < options.size(); i++) {
+            int index = order == null ? i : order[i];
+            Option option = options.get(index);
+            if (option.send) {
+                if (option.channel.trySendBits(option.bits)) {
+                    return new PrimitiveSelectResult(SelectResult.Type.SENT, index, 0);
+                }
+            } else {
+                BufferedChannel.BitsHolder received = BufferedChannel.BitsHolder.forThread();
+                if (option.channel.pollBits(1, received) == 1) {
+                    return new PrimitiveSelectResult(SelectResult.Type.RECEIVED, index, received.bits);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the result of the boxed select back to the option it went through. Its options are at the
+     * positions given by order, so the position found is carried back to the option's index. Two options on
+     * the same channel and side give the same port, but the one registered first always wins: both wait with
+     * the same token, and a channel serves its waiters in order.
+     */
+    private PrimitiveSelectResult unboxed(SelectResult<Object> result, int[] order) {
+        switch (result.getType()) {
+            case SENT:
+                for (int i = 0; i < options.size(); i++) {
+                    int index = order == null ? i : order[i];
+                    Option option = options.get(index);
+                    if (option.send && option.channel.getHandle().getSendPort() == result.getSendPort()) {
+                        return new PrimitiveSelectResult(SelectResult.Type.SENT, index, 0);
+                    }
+                }
+                break;
+            case RECEIVED:
+                for (int i = 0; i < options.size(); i++) {
+                    int index = order == null ? i : order[i];
+                    Option option = options.get(index);
+                    if (!option.send && option.channel.getHandle().getReceivePort() == result.getReceivePort()) {
+                        return new PrimitiveSelectResult(SelectResult.Type.RECEIVED, index,
+                                option.channel.unbox(result.getReceivedValue()));
+                    }
+                }
+                break;
+            case TIMED_OUT:
+                return PrimitiveSelectResult.TIMED_OUT;
+            default:
+                break;
+        }
+        throw new AssertionError();
+    }
+
+    private Promise<PrimitiveSelectResult> waitForOptions(IOActionExecutor exe) throws Exception {
+        // a fair select is shuffled here rather than by the boxed select, so that its order is known
+        int[] order = fair && options.size() > 1 ? CSP.randomOrder(options.size()) : null;
+        SelectBuilder<Object> select = CSP.select();
+        for (int i = 0; i < options.size(); i++) {
+            Option option = options.get(order == null ? i : order[i]);
+            if (option.send) {
+                select.send(option.channel.getHandle().getSendPort(), option.channel.box(option.bits));
+            } else {
+                select.receive(option.channel.getHandle().getReceivePort());
+            }
+        }
+        if (timeoutNanos >= 0) {
+            select.timeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        return select.build().bind(result -> AsyncAction.unit(unboxed(result, order))).getIOAction(exe).perform();
+    }
+
+    public AsyncAction<PrimitiveSelectResult> build() {
+        if (orElse && timeoutNanos >= 0) {
+            throw new IllegalStateException("a select cannot have both a timeout and a default branch");
+        }
+        return exe -> () -> {
+            PrimitiveSelectResult ready = tryOptions();
+            if (ready != null) {
+                return Promise.newPromise(exe, ready).perform();
+            }
+            if (orElse) {
+                return exe.constantPromise(PrimitiveSelectResult.DEFAULT);
+            }
+            return waitForOptions(exe);
+        };
+    }
+}
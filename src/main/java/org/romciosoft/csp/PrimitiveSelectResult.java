@@ -0,0 +1,52 @@
+package org.romciosoft.csp;
+
+public class PrimitiveSelectResult {
+    static final PrimitiveSelectResult TIMED_OUT = new PrimitiveSelectResult(SelectResult.Type.TIMED_OUT, -1, 0);
+    static final PrimitiveSelectResult DEFAULT = new PrimitiveSelectResult(SelectResult.Type.DEFAULT, -1, 0);
+
+    private SelectResult.Type type;
+    private int index;
+    private long bits;
+
+    PrimitiveSelectResult(SelectResult.Type type, int index, long bits) {
+        this.type = type;
+        this.index = index;
+        this.bits = bits;
+    }
+
+    public SelectResult.Type getType() {
+        return type;
+    }
+
+    /**
+     * The position of the option that succeeded, counting the options in the order they were added to the
+     * builder.
+     */
+    public int getIndex() {
+        if (type != SelectResult.Type.SENT && type != SelectResult.Type.RECEIVED) {
+            throw new IllegalAccessError("cannot get option index on " + type + " select result");
+        }
+        return index;
+    }
+
+    private void checkReceived() {
+        if (type != SelectResult.Type.RECEIVED) {
+            throw new IllegalAccessError("cannot get received value on " + type + " select result");
+        }
+    }
+
+    public int getInt() {
+        checkReceived();
+        return (int) bits;
+    }
+
+    public long getLong() {
+        checkReceived();
+        return bits;
+    }
+
+    public double getDouble() {
+        checkReceived();
+        return Double.longBitsToDouble(bits);
+    }
+}
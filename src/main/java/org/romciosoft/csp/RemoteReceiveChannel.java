@@ -0,0 +1,209 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The importing end of a remote receive port. Messages the exporter forwarded within the granted window are
+ * buffered here until a local process receives them, which is when their credit is returned.
+ */
+class RemoteReceiveChannel<T> implements Channel<T>, ChannelGauges, TransportConnection.Stream {
+    private ChannelHandle<T> handle = new ChannelHandle<>(this, this);
+    private ReentrantLock lock = new ReentrantLock();
+    private WaitQueue<T> rcvQueue = new WaitQueue<>(lock);
+    private final ArrayDeque<T> arrived = new ArrayDeque<>();
+    private final TransportConnection connection;
+    private final int id;
+    private final Serializer<T> serializer;
+    private final int creditBatch;
+    private final ChannelMetrics metrics;
+    // guarded by lock
+    private int unreturned = 0;
+    private boolean closed = false;
+
+    RemoteReceiveChannel(TransportConnection connection, int id, Serializer<T> serializer, int window,
+                         MetricsRegistry registry, String name) {
+        this.connection = connection;
+        this.id = id;
+        this.serializer = serializer;
+        this.creditBatch = TransportConnection.creditBatch(window);
+        metrics = registry.channel(name, "remote-receive", this);
+    }
+
+    private void taken() {
+        metrics.received();
+        if (++unreturned >= creditBatch) {
+            connection.writeInt(TransportConnection.CREDIT, id, unreturned);
+            unreturned = 0;
+        }
+    }
+
+    @Override
+    public void onData(byte[] payload) throws Exception {
+        T value = serializer.deserialize(payload);
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            while (!rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), value)) {
+                    taken();
+                    if (receiver.isTimed()) {
+                        metrics.waited(receiver.waitedNanos());
+                    }
+                    matched = receiver;
+                    return;
+                }
+            }
+            arrived.addLast(value);
+        } finally {
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
+    }
+
+    @Override
+    public void onCredit(int credits) {
+    }
+
+    /**
+     * Fails the receivers still waiting, since nothing more will arrive; messages that already did can still
+     * be received.
+     */
+    @Override
+    public void onClose() throws Exception {
+        List<SelectToken<T>> failed = new ArrayList<>();
+        try {
+            lock.lock();
+            closed = true;
+            while (!rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryFail(closedException())) {
+                    failed.add(receiver);
+                }
+            }
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : failed) {
+                token.unregister();
+            }
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("remote channel is closed or was never exported");
+    }
+
+    private void checkOpen() {
+        if (closed && arrived.isEmpty()) {
+            throw closedException();
+        }
+    }
+
+    @Override
+    public boolean receive(SelectToken<T> token) throws Exception {
+        try {
+            lock.lock();
+            checkOpen();
+            if (!arrived.isEmpty()) {
+                if (!token.tryCompleteReceived(handle.getReceivePort(), arrived.peekFirst())) {
+                    return false;
+                }
+                arrived.removeFirst();
+                taken();
+                return true;
+            }
+            rcvQueue.offer(token, null);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int poll(List<? super T> into, int max) {
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (count < max && !arrived.isEmpty()) {
+                into.add(arrived.removeFirst());
+                taken();
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Maybe<T> tryReceive() {
+        try {
+            lock.lock();
+            checkOpen();
+            if (arrived.isEmpty()) {
+                return Maybe.nothing();
+            }
+            T value = arrived.removeFirst();
+            taken();
+            return Maybe.just(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean send(SelectToken<T> token, T value) {
+        throw new UnsupportedOperationException("cannot send to a remote receive port");
+    }
+
+    @Override
+    public int offer(List<? extends T> values, int from) {
+        throw new UnsupportedOperationException("cannot send to a remote receive port");
+    }
+
+    @Override
+    public boolean trySend(T value) {
+        throw new UnsupportedOperationException("cannot send to a remote receive port");
+    }
+
+    @Override
+    public int waitingSenders() {
+        return 0;
+    }
+
+    @Override
+    public int waitingReceivers() {
+        try {
+            lock.lock();
+            return rcvQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int bufferedMessages() {
+        try {
+            lock.lock();
+            return arrived.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ChannelHandle<T> getHandle() {
+        return handle;
+    }
+}
@@ -0,0 +1,193 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The importing end of a remote send port. A send goes through as soon as it is written to the connection,
+ * as long as the exporter has granted credit for it; otherwise the sender waits here until credit returns.
+ */
+class RemoteSendChannel<T> implements Channel<T>, ChannelGauges, TransportConnection.Stream {
+    private ChannelHandle<T> handle = new ChannelHandle<>(this, this);
+    private ReentrantLock lock = new ReentrantLock();
+    private WaitQueue<T> sndQueue = new WaitQueue<>(lock);
+    private final TransportConnection connection;
+    private final int id;
+    private final Serializer<T> serializer;
+    private final ChannelMetrics metrics;
+    // guarded by lock
+    private int credits;
+    private boolean closed = false;
+
+    RemoteSendChannel(TransportConnection connection, int id, Serializer<T> serializer, int window,
+                      MetricsRegistry registry, String name) {
+        this.connection = connection;
+        this.id = id;
+        this.serializer = serializer;
+        this.credits = window;
+        metrics = registry.channel(name, "remote-send", this);
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("remote channel is closed or was never exported");
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw closedException();
+        }
+    }
+
+    private void transmit(T value) throws Exception {
+        connection.write(TransportConnection.DATA, id, serializer.serialize(value));
+        credits--;
+        metrics.sent();
+    }
+
+    @Override
+    public void onCredit(int granted) throws Exception {
+        List<SelectToken<T>> completed = new ArrayList<>();
+        try {
+            lock.lock();
+            credits += granted;
+            while (credits > 0 && !sndQueue.isEmpty()) {
+                WaitQueue.Node<T> sender = sndQueue.poll();
+                if (sender.token.tryCompleteSent(handle.getSendPort())) {
+                    transmit(sender.value);
+                    completed.add(sender.token);
+                    if (sender.token.isTimed()) {
+                        metrics.waited(sender.token.waitedNanos());
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public void onData(byte[] payload) {
+    }
+
+    /**
+     * Fails the senders still waiting for credit, which will never come.
+     */
+    @Override
+    public void onClose() throws Exception {
+        List<SelectToken<T>> failed = new ArrayList<>();
+        try {
+            lock.lock();
+            closed = true;
+            while (!sndQueue.isEmpty()) {
+                SelectToken<T> sender = sndQueue.poll().token;
+                if (sender.tryFail(closedException())) {
+                    failed.add(sender);
+                }
+            }
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : failed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public boolean send(SelectToken<T> token, T value) throws Exception {
+        try {
+            lock.lock();
+            checkOpen();
+            if (credits > 0 && sndQueue.isEmpty()) {
+                if (!token.tryCompleteSent(handle.getSendPort())) {
+                    return false;
+                }
+                transmit(value);
+                return true;
+            }
+            sndQueue.offer(token, value);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int offer(List<? extends T> values, int from) throws Exception {
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (from + count < values.size() && credits > 0 && sndQueue.isEmpty()) {
+                transmit(values.get(from + count));
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean trySend(T value) throws Exception {
+        try {
+            lock.lock();
+            checkOpen();
+            if (credits == 0 || !sndQueue.isEmpty()) {
+                return false;
+            }
+            transmit(value);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean receive(SelectToken<T> token) {
+        throw new UnsupportedOperationException("cannot receive from a remote send port");
+    }
+
+    @Override
+    public int poll(List<? super T> into, int max) {
+        throw new UnsupportedOperationException("cannot receive from a remote send port");
+    }
+
+    @Override
+    public Maybe<T> tryReceive() {
+        throw new UnsupportedOperationException("cannot receive from a remote send port");
+    }
+
+    @Override
+    public int waitingSenders() {
+        try {
+            lock.lock();
+            return sndQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int waitingReceivers() {
+        return 0;
+    }
+
+    @Override
+    public int bufferedMessages() {
+        return 0;
+    }
+
+    @Override
+    public ChannelHandle<T> getHandle() {
+        return handle;
+    }
+}
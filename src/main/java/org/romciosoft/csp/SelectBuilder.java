@@ -4,9 +4,13 @@ import org.romciosoft.io.AsyncAction;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class SelectBuilder<T> {
     List<SelectOption<T>> options = new ArrayList<>();
+    boolean fair = false;
+    long timeoutNanos = -1;
+    boolean orElse = false;
 
     SelectBuilder() {
     }
@@ -21,7 +25,43 @@ public class SelectBuilder<T> {
         return this;
     }
 
+    /**
+     * Tries the options in a fresh random order on every select instead of in the order they were added,
+     * so that a select looping over several always-ready channels serves each of them equally often.
+     */
+    public SelectBuilder<T> fair() {
+        fair = true;
+        return this;
+    }
+
+    /**
+     * Gives up waiting after the given time, in which case the select yields a TIMED_OUT result and is
+     * removed from all channels it was waiting on.
+     */
+    public SelectBuilder<T> timeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("negative timeout");
+        }
+        timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Makes the select never wait: if none of the options can proceed right away, it yields a DEFAULT
+     * result without having registered with any channel.
+     */
+    public SelectBuilder<T> orElse() {
+        orElse = true;
+        return this;
+    }
+
     public AsyncAction<SelectResult<T>> build() {
-        return exe -> () -> CSP.processSelect(exe, options);
+        if (orElse) {
+            if (timeoutNanos >= 0) {
+                throw new IllegalStateException("a select cannot have both a timeout and a default branch");
+            }
+            return exe -> () -> CSP.trySelect(exe, options, fair);
+        }
+        return exe -> () -> CSP.processSelect(exe, options, fair, timeoutNanos);
     }
 }
@@ -2,9 +2,12 @@ package org.romciosoft.csp;
 
 public class SelectResult<T> {
     public enum Type {
-        SENT, RECEIVED
+        SENT, RECEIVED, TIMED_OUT, DEFAULT
     }
 
+    private static final SelectResult<?> TIMED_OUT = new SelectResult<>(Type.TIMED_OUT, null, null, null);
+    private static final SelectResult<?> DEFAULT = new SelectResult<>(Type.DEFAULT, null, null, null);
+
     private Type type;
     private T value;
     private ChannelHandle.SendPort<T> sendPort;
@@ -18,35 +21,50 @@ public class SelectResult<T> {
         this.receivePort = receivePort;
     }
 
-    static <T> SelectResult<T> sent(ChannelHandle.SendPort<T> sendPort) {
+    // a SENT result only depends on the port, so each port creates one and hands it out every time
+    static <T> SelectResult<T> newSent(ChannelHandle.SendPort<T> sendPort) {
         return new SelectResult<>(Type.SENT, null, sendPort, null);
     }
 
+    static <T> SelectResult<T> sent(ChannelHandle.SendPort<T> sendPort) {
+        return sendPort.sent;
+    }
+
     static <T> SelectResult<T> received(ChannelHandle.ReceivePort<T> receivePort, T value) {
         return new SelectResult<>(Type.RECEIVED, value, null, receivePort);
     }
 
+    @SuppressWarnings("unchecked")
+    static <T> SelectResult<T> timedOut() {
+        return (SelectResult<T>) TIMED_OUT;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> SelectResult<T> defaulted() {
+        return (SelectResult<T>) DEFAULT;
+    }
+
     public Type getType() {
         return type;
     }
 
     public ChannelHandle.SendPort<T> getSendPort() {
         if (type != Type.SENT) {
-            throw new IllegalAccessError("cannot get send port on RECEIVED select result");
+            throw new IllegalAccessError("cannot get send port on " + type + " select result");
         }
         return sendPort;
     }
 
     public ChannelHandle.ReceivePort<T> getReceivePort() {
         if (type != Type.RECEIVED) {
-            throw new IllegalAccessError("cannot get receive port on SENT select result");
+            throw new IllegalAccessError("cannot get receive port on " + type + " select result");
         }
         return receivePort;
     }
 
     public T getReceivedValue() {
         if (type != Type.RECEIVED) {
-            throw new IllegalAccessError("cannot get received value on SENT select result");
+            throw new IllegalAccessError("cannot get received value on " + type + " select result");
         }
         return value;
     }
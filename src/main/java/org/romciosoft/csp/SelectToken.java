@@ -1,75 +1,347 @@
 package org.romciosoft.csp;
 
 import org.romciosoft.io.Promise;
+import org.romciosoft.io.Timeout;
+import org.romciosoft.metrics.SelectMetrics;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * The state of one select. A token goes from WAITING to DONE exactly once, through a compare-and-set on its
+ * state word; no global ordering of tokens is needed and no token is ever locked. A match between two
+ * tokens first claims the sender (WAITING to CLAIMED), then moves the receiver straight to DONE and
+ * finishes the sender, or puts the sender back to WAITING if the receiver was taken. Nothing waits while
+ * holding a claim, so two matches crossing over the same pair of tokens can't deadlock: the second step of
+ * each just fails, and they retry.
+ */
 class SelectToken<T> {
-    private static final AtomicLong COUNTER = new AtomicLong(0);
+    private static final int WAITING = 0;
+    private static final int CLAIMED = 1;
+    private static final int DONE = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<SelectToken> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(SelectToken.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SelectToken, WaitQueue.Node> REGISTRATIONS =
+            AtomicReferenceFieldUpdater.newUpdater(SelectToken.class, WaitQueue.Node.class, "registrations");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SelectToken, Timeout> TIMEOUT =
+            AtomicReferenceFieldUpdater.newUpdater(SelectToken.class, Timeout.class, "timeout");
+    // takes the place of the timer once the token has completed, so a timer attached later is cancelled
+    private static final Timeout COMPLETED = () -> false;
 
     static class MatchResult {
+        static final MatchResult MATCHED = new MatchResult(true, false, false);
+        static final MatchResult SENDER_DONE = new MatchResult(false, true, false);
+        static final MatchResult RECEIVER_DONE = new MatchResult(false, false, true);
+        static final MatchResult BOTH_DONE = new MatchResult(false, true, true);
+
         final boolean matched;
         final boolean senderWasDone;
         final boolean receiverWasDone;
 
-        MatchResult(boolean matched, boolean senderWasDone, boolean receiverWasDone) {
+        private MatchResult(boolean matched, boolean senderWasDone, boolean receiverWasDone) {
             this.matched = matched;
             this.senderWasDone = senderWasDone;
             this.receiverWasDone = receiverWasDone;
         }
     }
 
-    private final Promise<SelectResult<T>> promise;
-    private boolean done = false;
-    private final long id;
-    private final Lock lock = new ReentrantLock();
+    /**
+     * What the token's promise is completed with: the SelectResult for a select, or, for a plain receive
+     * or send, just the received value or null, so that those need neither a result nor a bind to unwrap it.
+     */
+    enum Yield {
+        RESULT, VALUE, NOTHING
+    }
 
-    SelectToken(Promise<SelectResult<T>> promise) {
+    @SuppressWarnings("rawtypes")
+    private final Promise promise;
+    private final Yield yield;
+    private volatile int state = WAITING;
+    private final boolean exclusive;
+    private volatile WaitQueue.Node<T> registrations;
+    private final SelectMetrics metrics;
+    private final boolean timed;
+    private final long startedAt;
+    private volatile Timeout timeout;
+
+    SelectToken(Promise<SelectResult<T>> promise, boolean exclusive) {
+        this(promise, exclusive, SelectMetrics.NOOP, false);
+    }
+
+    /**
+     * An exclusive token belongs to a single-option select, so it is only ever reachable from one channel
+     * and the channel serializes all access to it. Such tokens skip the compare-and-sets. A timed token reads the
+     * clock on creation and reports how long it took to complete.
+     */
+    SelectToken(Promise<SelectResult<T>> promise, boolean exclusive, SelectMetrics metrics, boolean timed) {
+        this(promise, Yield.RESULT, exclusive, metrics, timed);
+    }
+
+    SelectToken(Promise<?> promise, Yield yield, boolean exclusive, SelectMetrics metrics, boolean timed) {
         this.promise = promise;
-        id = COUNTER.incrementAndGet();
+        this.yield = yield;
+        this.exclusive = exclusive;
+        this.metrics = metrics;
+        this.timed = timed;
+        startedAt = timed ? System.nanoTime() : 0;
+    }
+
+    boolean isExclusive() {
+        return exclusive;
+    }
+
+    boolean isTimed() {
+        return timed;
+    }
+
+    long waitedNanos() {
+        return System.nanoTime() - startedAt;
+    }
+
+    private void completed() {
+        if (timed) {
+            metrics.completed(waitedNanos());
+        }
+        finished();
+    }
+
+    /**
+     * Cancels the timer once the token is done, however it got there.
+     */
+    private void finished() {
+        if (!exclusive) {
+            Timeout attached = TIMEOUT.getAndSet(this, COMPLETED);
+            if (attached != null) {
+                attached.cancel();
+            }
+        }
     }
 
-    private static <T> void lockBoth(SelectToken<T> one, SelectToken<T> two) {
-        if (one.id < two.id) {
-            one.lock.lock();
-            two.lock.lock();
-        } else {
-            two.lock.lock();
-            one.lock.lock();
+    /**
+     * Attaches the timer of a select with a timeout, to be cancelled once the token completes. Tokens with
+     * a timeout must not be exclusive, since the timer completes them from outside the channel.
+     */
+    void setTimeout(Timeout timeout) {
+        if (!TIMEOUT.compareAndSet(this, null, timeout)) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Takes the token from WAITING to the given state, waiting out a match elsewhere that holds it CLAIMED,
+     * which never takes longer than that match's one compare-and-set. Returns false if the token is done.
+     */
+    private boolean claim(int to) {
+        if (exclusive) {
+            if (state == DONE) {
+                return false;
+            }
+            if (to == DONE) {
+                STATE.lazySet(this, DONE);
+            }
+            return true;
+        }
+        while (true) {
+            int current = state;
+            if (current == DONE) {
+                return false;
+            }
+            if (current == WAITING && STATE.compareAndSet(this, WAITING, to)) {
+                return true;
+            }
+            if (current == CLAIMED) {
+                Thread.yield();
+            }
         }
     }
 
-    private static <T> void unlockBoth(SelectToken<T> one, SelectToken<T> two) {
-        if (one.id < two.id) {
-            one.lock.unlock();
-            two.lock.unlock();
-        } else {
-            two.lock.unlock();
-            one.lock.unlock();
+    /**
+     * The second step of a match: takes the token from WAITING to DONE, or returns the state that stopped
+     * it without waiting, since the caller holds a claim on the other token.
+     */
+    private int finish() {
+        if (exclusive) {
+            int current = state;
+            if (current == WAITING) {
+                STATE.lazySet(this, DONE);
+            }
+            return current;
+        }
+        while (true) {
+            int current = state;
+            if (current != WAITING || STATE.compareAndSet(this, WAITING, DONE)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Records a wait node linked on behalf of this token, unless the token is already done.
+     */
+    boolean register(WaitQueue.Node<T> node) {
+        if (exclusive) {
+            return state != DONE;
+        }
+        while (true) {
+            WaitQueue.Node<T> head = registrations;
+            if (head == WaitQueue.Node.CLOSED || state == DONE) {
+                return false;
+            }
+            node.nextRegistration = head;
+            if (REGISTRATIONS.compareAndSet(this, head, node)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unlinks a completed token from every channel it is still waiting on, and closes the token to further
+     * registrations. Takes channel locks, so it must not be called while holding one.
+     */
+    @SuppressWarnings("unchecked")
+    void unregister() {
+        if (exclusive) {
+            return;
+        }
+        WaitQueue.Node<T> node = REGISTRATIONS.getAndSet(this, WaitQueue.Node.CLOSED);
+        for (; node != null && node != WaitQueue.Node.CLOSED; node = node.nextRegistration) {
+            node.unlink();
         }
     }
 
     static <T> MatchResult match(ChannelHandle<T> handle, T value, SelectToken<T> sender, SelectToken<T> receiver) throws Exception {
-        try {
-            lockBoth(sender, receiver);
-            if (sender.done ^ receiver.done) {
-                if (sender.done) {
-                    return new MatchResult(false, true, false);
-                } else {
-                    return new MatchResult(false, false, true);
-                }
-            } else if (sender.done && receiver.done) {
-                return new MatchResult(false, true, true);
+        while (true) {
+            if (!sender.claim(CLAIMED)) {
+                return receiver.state == DONE ? MatchResult.BOTH_DONE : MatchResult.SENDER_DONE;
+            }
+            int found = receiver.finish();
+            if (found == WAITING) {
+                sender.state = DONE;
+                sender.completed();
+                receiver.completed();
+                sender.deliverSent(handle.getSendPort());
+                receiver.deliverReceived(handle.getReceivePort(), value);
+                return MatchResult.MATCHED;
+            }
+            if (!sender.exclusive) {
+                sender.state = WAITING;
             }
-            sender.promise.deliver(SelectResult.sent(handle.getSendPort())).perform();
-            receiver.promise.deliver(SelectResult.received(handle.getReceivePort(), value)).perform();
-            sender.done = true;
-            receiver.done = true;
-            return new MatchResult(true, false, false);
-        } finally {
-            unlockBoth(sender, receiver);
+            if (found == DONE) {
+                return MatchResult.RECEIVER_DONE;
+            }
+            // the receiver is claimed by a match on another channel, whose second step may be failing on
+            // this sender just the same: back off and retry
+            Thread.yield();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverSent(ChannelHandle.SendPort<T> port) throws Exception {
+        promise.deliver(yield == Yield.RESULT ? SelectResult.sent(port) : null).perform();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverReceived(ChannelHandle.ReceivePort<T> port, T value) throws Exception {
+        switch (yield) {
+            case RESULT:
+                promise.deliver(SelectResult.received(port, value)).perform();
+                break;
+            case VALUE:
+                promise.deliver(value).perform();
+                break;
+            default:
+                promise.deliver(null).perform();
+        }
+    }
+
+    /**
+     * Completes the token on its own with a send, e.g. when a buffered channel takes the value into its
+     * buffer. Returns false if the token was already done.
+     */
+    boolean tryCompleteSent(ChannelHandle.SendPort<T> port) throws Exception {
+        if (!claim(DONE)) {
+            return false;
         }
+        completed();
+        deliverSent(port);
+        return true;
+    }
+
+    /**
+     * Completes the token on its own with a received value, e.g. one taken from a buffer. Returns false if
+     * the token was already done.
+     */
+    boolean tryCompleteReceived(ChannelHandle.ReceivePort<T> port, T value) throws Exception {
+        if (!claim(DONE)) {
+            return false;
+        }
+        completed();
+        deliverReceived(port, value);
+        return true;
+    }
+
+    /**
+     * Completes the token with a TIMED_OUT result. The token is unlinked from every channel before the
+     * result is delivered, so the select's continuation never finds it still waiting anywhere.
+     */
+    boolean timeOut() throws Exception {
+        if (!claim(DONE)) {
+            return false;
+        }
+        // counted apart from completions, so that the wait statistics only cover selects that went through
+        if (timed) {
+            metrics.timedOut();
+        }
+        finished();
+        unregister();
+        deliverTimedOut();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverTimedOut() throws Exception {
+        promise.deliver(SelectResult.timedOut()).perform();
+    }
+
+    /**
+     * Fails the token's promise, e.g. when the channel it waits on goes away, so that the waiting process
+     * fails rather than waits forever. Returns false if the token was already done.
+     */
+    boolean tryFail(Exception failure) throws Exception {
+        if (!claim(DONE)) {
+            return false;
+        }
+        completed();
+        promise.fail(failure).perform();
+        return true;
+    }
+
+    /**
+     * Takes a token out of play without completing it, when its select throws halfway through registering,
+     * and unlinks it from the channels it already waits on. Returns false if a match got to it first.
+     */
+    boolean abandon() {
+        boolean abandoned = claim(DONE);
+        if (abandoned && timed) {
+            metrics.abandoned();
+        }
+        unregister();
+        return abandoned;
+    }
+
+    /**
+     * Completes a rendezvous between two exclusive tokens that the caller has already claimed.
+     */
+    static <T> void exchange(ChannelHandle<T> handle, T value, SelectToken<T> sender, SelectToken<T> receiver) throws Exception {
+        STATE.lazySet(sender, DONE);
+        STATE.lazySet(receiver, DONE);
+        sender.completed();
+        receiver.completed();
+        sender.deliverSent(handle.getSendPort());
+        receiver.deliverReceived(handle.getReceivePort(), value);
     }
 }
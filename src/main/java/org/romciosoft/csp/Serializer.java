@@ -0,0 +1,55 @@
+package org.romciosoft.csp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the messages of a channel that crosses process boundaries into bytes and back.
+ */
+public interface Serializer<T> {
+    byte[] serialize(T value) throws IOException;
+
+    T deserialize(byte[] bytes) throws IOException;
+
+    static Serializer<String> utf8() {
+        return new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    static <T extends Serializable> Serializer<T> java() {
+        return new Serializer<T>() {
+            @Override
+            public byte[] serialize(T value) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(value);
+                }
+                return bytes.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T deserialize(byte[] bytes) throws IOException {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T) in.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,249 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.ServiceMetrics;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A pool of worker processes answering requests taken from one bounded queue, created with
+ * CSP.service(...). A worker takes the oldest queued request, or with a batch handler everything queued up
+ * to the batch size, and completes each caller's reply promise directly, so a call needs no reply channel
+ * and no process per reply.
+ */
+public final class Service<Req, Rep> {
+    static final class Request<Req> {
+        final Req payload;
+        // completed with the reply, or with Maybe.just of it for tryCall
+        @SuppressWarnings("rawtypes")
+        final Promise reply;
+        final boolean maybe;
+        final long madeAt;
+
+        Request(Req payload, Promise<?> reply, boolean maybe, long madeAt) {
+            this.payload = payload;
+            this.reply = reply;
+            this.maybe = maybe;
+            this.madeAt = madeAt;
+        }
+    }
+
+    // queued by shutdown; a worker that takes it queues it again for the next one and stops, and the last
+    // one fails whatever is queued behind it
+    private static final Request<?> STOP = new Request<>(null, null, false, 0);
+
+    private final ChannelHandle<Request<Req>> queue;
+    private final Function<Req, Rep> handler;
+    private final Function<List<Req>, List<Rep>> batchHandler;
+    private final int maxBatch;
+    private final ServiceMetrics metrics;
+    private final boolean timed;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicInteger running;
+    // set by the last worker before it drains the queue for good
+    private volatile boolean drained = false;
+    // built once, since every worker runs the same loop
+    private final AsyncAction<Void> work;
+
+    Service(ChannelHandle<Request<Req>> queue, int workers, Function<Req, Rep> handler,
+            Function<List<Req>, List<Rep>> batchHandler, int maxBatch, ServiceMetrics metrics, boolean timed) {
+        this.queue = queue;
+        running = new AtomicInteger(workers);
+        this.handler = handler;
+        this.batchHandler = batchHandler;
+        this.maxBatch = maxBatch;
+        this.metrics = metrics;
+        this.timed = timed;
+        work = batchHandler == null
+                ? queue.getReceivePort().receive().bind(this::handle)
+                : queue.getReceivePort().receiveUpTo(maxBatch).bind(this::handleBatch);
+    }
+
+    AsyncAction<Void> work() {
+        return work;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Request<Req> stop() {
+        return (Request<Req>) STOP;
+    }
+
+    private static IllegalStateException shutDownException() {
+        return new IllegalStateException("service is shut down");
+    }
+
+    private void checkRunning() {
+        if (stopped.get()) {
+            throw shutDownException();
+        }
+    }
+
+    /**
+     * Fails every request left in the queue, once no worker is left to take them.
+     */
+    private void drain() throws Exception {
+        Channel<Request<Req>> channel = queue.getReceivePort().channel;
+        for (Maybe<Request<Req>> next = channel.tryReceive(); next.isPresent(); next = channel.tryReceive()) {
+            if (next.getValue() != STOP) {
+                fail(next.getValue(), shutDownException());
+            }
+        }
+    }
+
+    /**
+     * Called by a caller after queueing its request: if the last worker has drained the queue meanwhile,
+     * the request would never be taken, so it is failed here instead.
+     */
+    private void checkDrained() throws Exception {
+        if (drained) {
+            drain();
+        }
+    }
+
+    private Request<Req> request(Req payload, Promise<?> reply, boolean maybe) {
+        return new Request<>(payload, reply, maybe, timed ? System.nanoTime() : 0);
+    }
+
+    /**
+     * Yields the reply to the request, waiting for room in the queue if it is full. If the handler throws,
+     * the call fails with its exception.
+     */
+    public AsyncAction<Rep> call(Req request) {
+        return exe -> () -> {
+            checkRunning();
+            Promise<Rep> reply = Promise.<Rep>newPromise(exe).perform();
+            // the reply can only come after the send, so the send's own promise needn't be waited on
+            CSP.send(exe, queue.getSendPort(), request(request, reply, false));
+            checkDrained();
+            return reply;
+        };
+    }
+
+    /**
+     * Yields the reply to the request, or nothing right away if the queue is full. If the handler throws,
+     * the call fails with its exception.
+     */
+    public AsyncAction<Maybe<Rep>> tryCall(Req request) {
+        return exe -> () -> {
+            checkRunning();
+            Promise<Maybe<Rep>> reply = Promise.<Maybe<Rep>>newPromise(exe).perform();
+            if (!queue.getSendPort().channel.trySend(request(request, reply, true))) {
+                metrics.shed();
+                return exe.constantPromise(Maybe.nothing());
+            }
+            checkDrained();
+            return reply;
+        };
+    }
+
+    /**
+     * Stops admitting calls and lets the workers stop once they have answered every request queued so far.
+     * A call racing with the shutdown that got into the queue behind the workers' last request fails with
+     * IllegalStateException, just like a call made afterwards.
+     */
+    public AsyncAction<Void> shutdown() {
+        return exe -> () -> {
+            if (!stopped.compareAndSet(false, true)) {
+                return Promise.<Void>newPromise(exe, null).perform();
+            }
+            return CSP.send(exe, queue.getSendPort(), stop());
+        };
+    }
+
+    private Promise<Void> workerStopped(IOActionExecutor exe) throws Exception {
+        if (running.decrementAndGet() > 0) {
+            return CSP.send(exe, queue.getSendPort(), stop());
+        }
+        drained = true;
+        drain();
+        return Promise.<Void>newPromise(exe, null).perform();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void answer(Request<Req> request, Rep reply) throws Exception {
+        request.reply.deliver(request.maybe ? Maybe.just(reply) : reply).perform();
+        if (timed) {
+            metrics.completed(System.nanoTime() - request.madeAt);
+        }
+    }
+
+    private void fail(Request<Req> request, RuntimeException e) throws Exception {
+        request.reply.fail(e).perform();
+    }
+
+    private AsyncAction<Void> handle(Request<Req> request) {
+        return exe -> () -> {
+            if (request == STOP) {
+                return workerStopped(exe);
+            }
+            Rep reply = null;
+            RuntimeException failure = null;
+            try {
+                reply = handler.apply(request.payload);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            if (failure != null) {
+                fail(request, failure);
+            } else {
+                answer(request, reply);
+            }
+            return work.getIOAction(exe).perform();
+        };
+    }
+
+    private List<Rep> applyBatch(List<Req> payloads) {
+        List<Rep> replies = batchHandler.apply(payloads);
+        if (replies == null || replies.size() != payloads.size()) {
+            throw new IllegalStateException("handler returned " + (replies == null ? "no" : replies.size())
+                    + " replies to " + payloads.size() + " requests");
+        }
+        return replies;
+    }
+
+    private AsyncAction<Void> handleBatch(List<Request<Req>> batch) {
+        return exe -> () -> {
+            List<Req> payloads = new ArrayList<>(batch.size());
+            boolean stop = false;
+            for (Request<Req> request : batch) {
+                if (request == STOP) {
+                    stop = true;
+                } else {
+                    payloads.add(request.payload);
+                }
+            }
+            if (!payloads.isEmpty()) {
+                metrics.batch(payloads.size());
+                List<Rep> replies = null;
+                RuntimeException failure = null;
+                try {
+                    replies = applyBatch(payloads);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                int i = 0;
+                for (Request<Req> request : batch) {
+                    if (request == STOP) {
+                        continue;
+                    }
+                    if (failure != null) {
+                        fail(request, failure);
+                    } else {
+                        answer(request, replies.get(i++));
+                    }
+                }
+            }
+            if (stop) {
+                return workerStopped(exe);
+            }
+            return work.getIOAction(exe).perform();
+        };
+    }
+}
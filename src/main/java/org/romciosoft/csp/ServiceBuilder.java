@@ -0,0 +1,76 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.MetricsRegistry;
+
+import java.util.List;
+import java.util.function.Function;
+
+public class ServiceBuilder<Req, Rep> {
+    private final Function<Req, Rep> handler;
+    private final Function<List<Req>, List<Rep>> batchHandler;
+    private final int maxBatch;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private String name = null;
+
+    ServiceBuilder(Function<Req, Rep> handler, Function<List<Req>, List<Rep>> batchHandler, int maxBatch) {
+        this.handler = handler;
+        this.batchHandler = batchHandler;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * The number of worker processes, by default one per available core.
+     */
+    public ServiceBuilder<Req, Rep> workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("a service needs at least one worker");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * How many requests may wait for a worker, 1024 by default. Once the queue is full, call waits for
+     * room and tryCall turns the request away.
+     */
+    public ServiceBuilder<Req, Rep> queueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be at least one");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * The name the service and its queue are reported under by the executor's metrics registry.
+     */
+    public ServiceBuilder<Req, Rep> name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    private AsyncAction<Service<Req, Rep>> start(ChannelHandle<Service.Request<Req>> queue, int workers,
+                                                 String name) {
+        return exe -> () -> {
+            MetricsRegistry registry = exe.getMetricsRegistry();
+            Service<Req, Rep> service = new Service<>(queue, workers, handler, batchHandler, maxBatch,
+                    registry.service(name), registry.isEnabled());
+            for (int i = 0; i < workers; i++) {
+                AsyncAction.fork(service.work()).getIOAction(exe).perform();
+            }
+            return Promise.newPromise(exe, service).perform();
+        };
+    }
+
+    /**
+     * Creates the queue and forks the workers, which run until the service is shut down.
+     */
+    public AsyncAction<Service<Req, Rep>> build() {
+        int workers = this.workers;
+        String name = this.name;
+        return CSP.<Service.Request<Req>>newChannel(queueCapacity, name).bind(queue -> start(queue, workers, name));
+    }
+}
@@ -0,0 +1,388 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.monad.Maybe;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One end of a channel between two processes on the same host, backed by a MappedRing. Sending and
+ * receiving while the ring has room or messages only touches shared memory. The other process cannot wake
+ * up local waiters, so while there are any the channel polls the ring on the executor's timer, backing off
+ * from MIN_POLL_NANOS to MAX_POLL_NANOS while nothing moves. A waiting sender's message is serialized once,
+ * when it starts to wait, and kept in its wait node.
+ */
+class SharedMemoryChannel<T> implements Channel<T>, ChannelGauges {
+    private static final long MIN_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ChannelHandle<T> handle = new ChannelHandle<>(this, this);
+    private ReentrantLock lock = new ReentrantLock();
+    private WaitQueue<T> sndQueue = new WaitQueue<>(lock);
+    private WaitQueue<T> rcvQueue = new WaitQueue<>(lock);
+    private final MappedRing ring;
+    private final Serializer<T> serializer;
+    private final IOActionExecutor executor;
+    private final ChannelMetrics metrics;
+    private final IOAction<Void> pollAction = () -> {
+        poll();
+        return null;
+    };
+    // guarded by lock
+    private boolean polling = false;
+    private long pollNanos;
+    private boolean closed = false;
+
+    SharedMemoryChannel(MappedRing ring, Serializer<T> serializer, IOActionExecutor executor, String name) {
+        this.ring = ring;
+        this.serializer = serializer;
+        this.executor = executor;
+        metrics = executor.getMetricsRegistry().channel(name, "shared", this);
+    }
+
+    private static <T> IOAction<SharedMemoryChannel<T>> open(IOActionExecutor exe, Path file, int capacity,
+                                                             Serializer<T> serializer, boolean producer) {
+        return () -> new SharedMemoryChannel<>(new MappedRing(file, capacity, producer), serializer, exe,
+                file.getFileName().toString());
+    }
+
+    static <T> AsyncAction<ChannelHandle.SendPort<T>> sender(Path file, int capacity, Serializer<T> serializer) {
+        return exe -> open(exe, file, capacity, serializer, true)
+                .bind(channel -> Promise.newPromise(exe, channel.getHandle().getSendPort()));
+    }
+
+    static <T> AsyncAction<ChannelHandle.ReceivePort<T>> receiver(Path file, int capacity, Serializer<T> serializer) {
+        return exe -> open(exe, file, capacity, serializer, false)
+                .bind(channel -> Promise.newPromise(exe, channel.getHandle().getReceivePort()));
+    }
+
+    private byte[] bytes(T value) throws IOException {
+        byte[] bytes = serializer.serialize(value);
+        if (bytes.length > ring.maxRecordLength()) {
+            throw new IllegalArgumentException("message of " + bytes.length + " bytes does not fit the ring");
+        }
+        return bytes;
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("shared channel is closed");
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw closedException();
+        }
+    }
+
+    /**
+     * Deserializes the oldest record, dropping it if that fails, since it would fail every receive after
+     * this one too.
+     */
+    private T decode(byte[] bytes) throws Exception {
+        try {
+            return serializer.deserialize(bytes);
+        } catch (Exception e) {
+            ring.remove();
+            throw e;
+        }
+    }
+
+    private void served(SelectToken<T> waiter, List<SelectToken<T>> completed) {
+        completed.add(waiter);
+        if (waiter.isTimed()) {
+            metrics.waited(waiter.waitedNanos());
+        }
+    }
+
+    private void startPolling() throws Exception {
+        if (!polling) {
+            polling = true;
+            pollNanos = MIN_POLL_NANOS;
+            executor.schedule(pollAction, pollNanos, TimeUnit.NANOSECONDS).perform();
+        }
+    }
+
+    /**
+     * Moves what it can between the ring and the waiters, and polls again for as long as any are left, even
+     * if this round throws: a message that fails to deserialize only fails the receiver it was meant for.
+     */
+    private void poll() throws Exception {
+        List<SelectToken<T>> completed = new ArrayList<>();
+        try {
+            lock.lock();
+            if (closed) {
+                return;
+            }
+            try {
+                while (!sndQueue.isEmpty()) {
+                    WaitQueue.Node<T> sender = sndQueue.peek();
+                    byte[] bytes = (byte[]) sender.attachment;
+                    if (!ring.hasRoom(bytes.length)) {
+                        break;
+                    }
+                    sndQueue.poll();
+                    if (sender.token.tryCompleteSent(handle.getSendPort())) {
+                        ring.write(bytes);
+                        metrics.sent();
+                        served(sender.token, completed);
+                    }
+                }
+                while (!rcvQueue.isEmpty()) {
+                    byte[] bytes = ring.peek();
+                    if (bytes == null) {
+                        break;
+                    }
+                    SelectToken<T> receiver = rcvQueue.poll().token;
+                    T value;
+                    try {
+                        value = serializer.deserialize(bytes);
+                    } catch (Exception e) {
+                        if (receiver.tryFail(e)) {
+                            ring.remove();
+                            completed.add(receiver);
+                        }
+                        continue;
+                    }
+                    if (receiver.tryCompleteReceived(handle.getReceivePort(), value)) {
+                        ring.remove();
+                        metrics.received();
+                        served(receiver, completed);
+                    }
+                }
+            } finally {
+                if (sndQueue.isEmpty() && rcvQueue.isEmpty()) {
+                    polling = false;
+                } else {
+                    pollNanos = completed.isEmpty() ? Math.min(2 * pollNanos, MAX_POLL_NANOS) : MIN_POLL_NANOS;
+                    executor.schedule(pollAction, pollNanos, TimeUnit.NANOSECONDS).perform();
+                }
+            }
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public boolean send(SelectToken<T> token, T value) throws Exception {
+        byte[] bytes = bytes(value);
+        try {
+            lock.lock();
+            checkOpen();
+            if (sndQueue.isEmpty() && ring.hasRoom(bytes.length)) {
+                if (!token.tryCompleteSent(handle.getSendPort())) {
+                    return false;
+                }
+                ring.write(bytes);
+                metrics.sent();
+                return true;
+            }
+            sndQueue.offer(token, value, bytes);
+            startPolling();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean receive(SelectToken<T> token) throws Exception {
+        try {
+            lock.lock();
+            checkOpen();
+            byte[] bytes = rcvQueue.isEmpty() ? ring.peek() : null;
+            if (bytes != null) {
+                T value;
+                try {
+                    value = serializer.deserialize(bytes);
+                } catch (Exception e) {
+                    // as in poll, the record goes with the receive it failed
+                    if (!token.tryFail(e)) {
+                        return false;
+                    }
+                    ring.remove();
+                    return true;
+                }
+                if (!token.tryCompleteReceived(handle.getReceivePort(), value)) {
+                    return false;
+                }
+                ring.remove();
+                metrics.received();
+                return true;
+            }
+            rcvQueue.offer(token, null);
+            startPolling();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int offer(List<? extends T> values, int from) throws Exception {
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (from + count < values.size() && sndQueue.isEmpty()) {
+                byte[] bytes = bytes(values.get(from + count));
+                if (!ring.hasRoom(bytes.length)) {
+                    break;
+                }
+                ring.write(bytes);
+                metrics.sent();
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int poll(List<? super T> into, int max) throws Exception {
+        int count = 0;
+        try {
+            lock.lock();
+            checkOpen();
+            while (count < max && rcvQueue.isEmpty()) {
+                byte[] bytes = ring.peek();
+                if (bytes == null) {
+                    break;
+                }
+                if (count > 0) {
+                    // a record that fails to deserialize is left to the next receive, not to lose these
+                    T value;
+                    try {
+                        value = serializer.deserialize(bytes);
+                    } catch (Exception e) {
+                        break;
+                    }
+                    into.add(value);
+                } else {
+                    into.add(decode(bytes));
+                }
+                ring.remove();
+                metrics.received();
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean trySend(T value) throws Exception {
+        byte[] bytes = bytes(value);
+        try {
+            lock.lock();
+            checkOpen();
+            if (!sndQueue.isEmpty() || !ring.hasRoom(bytes.length)) {
+                return false;
+            }
+            ring.write(bytes);
+            metrics.sent();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Maybe<T> tryReceive() throws Exception {
+        try {
+            lock.lock();
+            checkOpen();
+            byte[] bytes = rcvQueue.isEmpty() ? ring.peek() : null;
+            if (bytes == null) {
+                return Maybe.nothing();
+            }
+            T value = decode(bytes);
+            ring.remove();
+            metrics.received();
+            return Maybe.just(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int waitingSenders() {
+        try {
+            lock.lock();
+            return sndQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int waitingReceivers() {
+        try {
+            lock.lock();
+            return rcvQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int bufferedMessages() {
+        try {
+            lock.lock();
+            return closed ? 0 : ring.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fails the local waiters, stops polling, and closes the ring, which frees this side of the file for
+     * another process to open. Messages already in the ring stay there for the next receiver.
+     */
+    @Override
+    public void close() throws Exception {
+        List<SelectToken<T>> failed = new ArrayList<>();
+        try {
+            lock.lock();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            polling = false;
+            for (WaitQueue<T> queue : Arrays.asList(sndQueue, rcvQueue)) {
+                while (!queue.isEmpty()) {
+                    SelectToken<T> waiter = queue.poll().token;
+                    if (waiter.tryFail(closedException())) {
+                        failed.add(waiter);
+                    }
+                }
+            }
+            ring.close();
+        } finally {
+            lock.unlock();
+            for (SelectToken<T> token : failed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public ChannelHandle<T> getHandle() {
+        return handle;
+    }
+}
@@ -0,0 +1,208 @@
+package org.romciosoft.csp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * A channel buffer that keeps at most memoryCapacity of the oldest messages on the heap and appends the
+ * rest to segment files in a directory, so it never fills up. Everything in memory is older than everything
+ * on disk: once something has been spilled, new messages are spilled too, and the memory part is topped up
+ * from disk in order as messages are removed. Segments are read back sequentially and deleted as soon as
+ * they have been drained, or all at once when the buffer is closed. A spilled message that is taken back
+ * is cut off the end of its segment.
+ */
+class SpillingBuffer<T> extends ChannelBuffer<T> {
+    private static class Segment {
+        final Path file;
+        int records = 0;
+
+        Segment(Path file) {
+            this.file = file;
+        }
+    }
+
+    private final int memoryCapacity;
+    private final long segmentBytes;
+    private final Path directory;
+    private final Serializer<T> serializer;
+    private final ArrayDeque<T> memory = new ArrayDeque<>();
+    // oldest first; the last one is being written to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    // the file under writer, for cutting off a record that is taken back
+    private FileChannel output;
+    private DataOutputStream writer;
+    private long written;
+    private long lastRecordAt;
+    private DataInputStream reader;
+    private int read;
+    private int spilled = 0;
+
+    SpillingBuffer(int memoryCapacity, long segmentBytes, Path directory, Serializer<T> serializer) {
+        this.memoryCapacity = memoryCapacity;
+        this.segmentBytes = segmentBytes;
+        this.directory = directory;
+        this.serializer = serializer;
+    }
+
+    private void spill(T value) throws IOException {
+        byte[] bytes = serializer.serialize(value);
+        if (writer == null || written >= segmentBytes) {
+            if (writer != null) {
+                writer.close();
+            }
+            Segment segment = new Segment(Files.createTempFile(directory, "spill-", ".seg"));
+            segments.addLast(segment);
+            output = FileChannel.open(segment.file, StandardOpenOption.WRITE);
+            writer = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(output)));
+            written = 0;
+        }
+        lastRecordAt = written;
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+        written += 4 + bytes.length;
+        segments.getLast().records++;
+        spilled++;
+    }
+
+    private T unspill() throws IOException {
+        Segment segment = segments.getFirst();
+        if (reader == null) {
+            if (segments.size() == 1) {
+                writer.flush();
+            }
+            reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.file)));
+            read = 0;
+        } else if (segments.size() == 1) {
+            // the writer may still hold records of the segment being read in its buffer
+            writer.flush();
+        }
+        byte[] bytes = new byte[reader.readInt()];
+        reader.readFully(bytes);
+        T value = serializer.deserialize(bytes);
+        read++;
+        spilled--;
+        if (read == segment.records && (segments.size() > 1 || spilled == 0)) {
+            reader.close();
+            reader = null;
+            if (segments.size() == 1) {
+                writer.close();
+                writer = null;
+            }
+            segments.removeFirst();
+            Files.delete(segment.file);
+        }
+        return value;
+    }
+
+    @Override
+    void add(T value) throws IOException {
+        if (spilled == 0 && memory.size() < memoryCapacity) {
+            memory.addLast(value);
+        } else {
+            spill(value);
+        }
+    }
+
+    @Override
+    T peek() {
+        return memory.peekFirst();
+    }
+
+    @Override
+    void removeFirst() throws IOException {
+        // reads the next message back before dropping the head, so that a failed read loses nothing
+        T next = spilled > 0 ? unspill() : null;
+        memory.removeFirst();
+        if (next != null) {
+            memory.addLast(next);
+        }
+    }
+
+    @Override
+    void removeLast() throws IOException {
+        if (spilled == 0) {
+            memory.removeLast();
+            return;
+        }
+        writer.flush();
+        output.truncate(lastRecordAt);
+        written = lastRecordAt;
+        segments.getLast().records--;
+        spilled--;
+    }
+
+    /**
+     * May leave memory one message over memoryCapacity.
+     */
+    @Override
+    void addFirst(T value) {
+        memory.addFirst(value);
+    }
+
+    @Override
+    int size() {
+        return memory.size() + spilled;
+    }
+
+    @Override
+    boolean isCloseable() {
+        return true;
+    }
+
+    /**
+     * Drops every message and deletes the segment files, carrying on past any that fail to close or delete
+     * and throwing the first failure at the end.
+     */
+    @Override
+    void close() throws IOException {
+        IOException failure = null;
+        for (Closeable stream : new Closeable[]{reader, writer}) {
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        reader = null;
+        writer = null;
+        output = null;
+        for (Segment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        segments.clear();
+        memory.clear();
+        spilled = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    boolean isFull() {
+        return false;
+    }
+
+    int spilled() {
+        return spilled;
+    }
+
+    int segments() {
+        return segments.size();
+    }
+}
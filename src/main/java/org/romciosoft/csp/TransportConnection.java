@@ -0,0 +1,404 @@
+package org.romciosoft.csp;
+
+import org.romciosoft.io.IOAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+import org.romciosoft.metrics.SelectMetrics;
+import org.romciosoft.monad.Maybe;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One TCP connection of a NetworkTransport, multiplexing any number of streams. The connecting side imports
+ * ports and the accepting side serves them from its exported channels, so stream ids, which the importer
+ * picks, are unambiguous.
+ * <p>
+ * A frame is its length, a type byte, the stream id and a payload. Frames written from any thread are
+ * appended to one outgoing buffer, which the transport's I/O thread writes out in a single call, so frames
+ * produced while a write is pending go out together.
+ * <p>
+ * Flow control is per stream: whoever sends DATA on a stream may have at most window messages that the
+ * other side has not yet handed to a local process. The receiving side returns CREDIT in batches of
+ * creditBatch(window). A full exported channel thus stops the remote senders, and a slow remote receiver
+ * stops an exported channel from being drained, just like a local wait would.
+ */
+class TransportConnection {
+    static final byte OPEN_SEND = 1;
+    static final byte OPEN_RECEIVE = 2;
+    static final byte DATA = 3;
+    static final byte CREDIT = 4;
+    static final byte CLOSE = 5;
+
+    interface Stream {
+        void onData(byte[] payload) throws Exception;
+
+        void onCredit(int credits) throws Exception;
+
+        void onClose() throws Exception;
+    }
+
+    static int creditBatch(int window) {
+        return Math.max(1, window / 2);
+    }
+
+    private final NetworkTransport transport;
+    final SocketChannel socket;
+    SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(64 << 10);
+    // guarded by this
+    private ByteBuffer out = ByteBuffer.allocate(64 << 10);
+    private boolean flushRequested = false;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStream = new AtomicInteger();
+
+    TransportConnection(NetworkTransport transport, SocketChannel socket) {
+        this.transport = transport;
+        this.socket = socket;
+    }
+
+    private void reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes));
+            ((Buffer) out).flip();
+            bigger.put(out);
+            out = bigger;
+        }
+    }
+
+    private void written() {
+        if (!flushRequested) {
+            flushRequested = true;
+            transport.requestFlush(this);
+        }
+    }
+
+    synchronized void write(byte type, int stream, byte[] payload) {
+        reserve(9 + payload.length);
+        out.putInt(5 + payload.length).put(type).putInt(stream).put(payload);
+        written();
+    }
+
+    synchronized void writeInt(byte type, int stream, int value) {
+        reserve(13);
+        out.putInt(9).put(type).putInt(stream).putInt(value);
+        written();
+    }
+
+    private void open(byte type, Stream stream, int id, int window, String name) {
+        streams.put(id, stream);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        write(type, id, ByteBuffer.allocate(4 + nameBytes.length).putInt(window).put(nameBytes).array());
+    }
+
+    <T> RemoteSendChannel<T> importSend(String name, Serializer<T> serializer, int window,
+                                        IOActionExecutor executor) {
+        int id = nextStream.incrementAndGet();
+        RemoteSendChannel<T> channel = new RemoteSendChannel<>(this, id, serializer, window,
+                executor.getMetricsRegistry(), name);
+        open(OPEN_SEND, channel, id, window, name);
+        return channel;
+    }
+
+    <T> RemoteReceiveChannel<T> importReceive(String name, Serializer<T> serializer, int window,
+                                              IOActionExecutor executor) {
+        int id = nextStream.incrementAndGet();
+        RemoteReceiveChannel<T> channel = new RemoteReceiveChannel<>(this, id, serializer, window,
+                executor.getMetricsRegistry(), name);
+        open(OPEN_RECEIVE, channel, id, window, name);
+        return channel;
+    }
+
+    /**
+     * Writes out as much of the outgoing buffer as the socket takes. Called on the I/O thread only.
+     */
+    synchronized void flush() throws IOException {
+        if (!socket.isConnected()) {
+            return;
+        }
+        ((Buffer) out).flip();
+        socket.write(out);
+        boolean rest = out.hasRemaining();
+        out.compact();
+        if (rest) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            flushRequested = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    synchronized boolean hasPendingWrites() {
+        return out.position() > 0;
+    }
+
+    /**
+     * Reads whatever is available and dispatches all complete frames. Called on the I/O thread only.
+     */
+    void read() throws Exception {
+        if (socket.read(in) < 0) {
+            throw new EOFException();
+        }
+        ((Buffer) in).flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (in.remaining() < 4 + length) {
+                if (4 + length > in.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                    bigger.put(in);
+                    in = bigger;
+                    return;
+                }
+                break;
+            }
+            in.getInt();
+            byte type = in.get();
+            int stream = in.getInt();
+            byte[] payload = new byte[length - 5];
+            in.get(payload);
+            dispatch(type, stream, payload);
+        }
+        in.compact();
+    }
+
+    private void dispatch(byte type, int id, byte[] payload) throws Exception {
+        Stream stream = streams.get(id);
+        switch (type) {
+            case OPEN_SEND:
+            case OPEN_RECEIVE:
+                ByteBuffer open = ByteBuffer.wrap(payload);
+                int window = open.getInt();
+                String name = new String(payload, 4, payload.length - 4, StandardCharsets.UTF_8);
+                NetworkTransport.Export<?> export = transport.getExport(name);
+                if (export == null) {
+                    write(CLOSE, id, new byte[0]);
+                } else if (type == OPEN_SEND) {
+                    streams.put(id, new ExportedSend<>(this, id, export, window, transport.executor));
+                } else {
+                    ExportedReceive<?> receive = new ExportedReceive<>(this, id, export, transport.executor);
+                    streams.put(id, receive);
+                    receive.onCredit(window);
+                }
+                break;
+            case DATA:
+                if (stream != null) {
+                    stream.onData(payload);
+                }
+                break;
+            case CREDIT:
+                if (stream != null) {
+                    stream.onCredit(ByteBuffer.wrap(payload).getInt());
+                }
+                break;
+            case CLOSE:
+                if (stream != null) {
+                    streams.remove(id);
+                    stream.onClose();
+                }
+                break;
+            default:
+                throw new IOException("unknown frame type " + type);
+        }
+    }
+
+    void closed() {
+        for (Stream stream : streams.values()) {
+            try {
+                stream.onClose();
+            } catch (Exception e) {
+                // the other streams are closed regardless
+            }
+        }
+        streams.clear();
+    }
+
+    /**
+     * The serving end of a remote send port: hands incoming messages to the exported channel in order and
+     * returns credit as they are taken.
+     */
+    private static class ExportedSend<T> implements Stream {
+        private final TransportConnection connection;
+        private final int id;
+        private final NetworkTransport.Export<T> export;
+        private final int creditBatch;
+        private final IOActionExecutor executor;
+        private final ConcurrentLinkedQueue<T> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // only touched by whoever holds sending
+        private int unreturned = 0;
+        private final IOAction<Void> sentAfterWaiting = () -> {
+            pending.poll();
+            taken();
+            drain();
+            return null;
+        };
+
+        ExportedSend(TransportConnection connection, int id, NetworkTransport.Export<T> export, int window,
+                     IOActionExecutor executor) {
+            this.connection = connection;
+            this.id = id;
+            this.export = export;
+            this.creditBatch = creditBatch(window);
+            this.executor = executor;
+        }
+
+        private void taken() {
+            if (++unreturned >= creditBatch) {
+                connection.writeInt(CREDIT, id, unreturned);
+                unreturned = 0;
+            }
+        }
+
+        private void drain() throws Exception {
+            ChannelHandle.SendPort<T> port = export.handle.getSendPort();
+            while (true) {
+                T value = pending.peek();
+                if (value == null) {
+                    sending.set(false);
+                    if (pending.isEmpty() || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (!port.channel.trySend(value)) {
+                    port.send(value).getIOAction(executor)
+                            .bind(promise -> promise.addCallback(x -> sentAfterWaiting))
+                            .perform();
+                    return;
+                }
+                pending.poll();
+                taken();
+            }
+        }
+
+        @Override
+        public void onData(byte[] payload) throws Exception {
+            pending.add(export.serializer.deserialize(payload));
+            if (sending.compareAndSet(false, true)) {
+                drain();
+            }
+        }
+
+        @Override
+        public void onCredit(int credits) {
+        }
+
+        @Override
+        public void onClose() {
+        }
+    }
+
+    /**
+     * The serving end of a remote receive port: takes messages from the exported channel for as long as the
+     * importer has granted credit. Its wait for the next message is a token of its own, which a close takes
+     * off the exported channel, so that the channel's next message isn't taken for a dead stream.
+     */
+    private static class ExportedReceive<T> implements Stream {
+        private final TransportConnection connection;
+        private final int id;
+        private final NetworkTransport.Export<T> export;
+        private final IOActionExecutor executor;
+        private final AtomicInteger credits = new AtomicInteger();
+        private final AtomicBoolean receiving = new AtomicBoolean();
+        private volatile boolean closed = false;
+        private volatile SelectToken<T> waiting;
+
+        ExportedReceive(TransportConnection connection, int id, NetworkTransport.Export<T> export,
+                        IOActionExecutor executor) {
+            this.connection = connection;
+            this.id = id;
+            this.export = export;
+            this.executor = executor;
+        }
+
+        /**
+         * Writes the message to the importer, or puts it back into the exported channel if the stream has
+         * closed, in which case false is returned.
+         */
+        private synchronized boolean forward(T value) throws Exception {
+            if (closed) {
+                CSP.send(executor, export.handle.getSendPort(), value);
+                return false;
+            }
+            connection.write(DATA, id, export.serializer.serialize(value));
+            credits.decrementAndGet();
+            return true;
+        }
+
+        private void await(ChannelHandle.ReceivePort<T> port) throws Exception {
+            Promise<T> promise = Promise.<T>newPromise(executor).perform();
+            SelectToken<T> token = new SelectToken<>(promise, SelectToken.Yield.VALUE, false, SelectMetrics.NOOP,
+                    false);
+            promise.addCallback(received -> () -> {
+                waiting = null;
+                if (forward(received)) {
+                    drain();
+                }
+                return null;
+            }).perform();
+            waiting = token;
+            // onClose sets closed before it looks at waiting, so one of the two sees the other
+            if (closed) {
+                token.abandon();
+                return;
+            }
+            if (port.channel.receive(token)) {
+                token.unregister();
+            }
+        }
+
+        private void drain() throws Exception {
+            ChannelHandle.ReceivePort<T> port = export.handle.getReceivePort();
+            while (true) {
+                if (credits.get() == 0 || closed) {
+                    receiving.set(false);
+                    if (credits.get() == 0 || closed || !receiving.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                Maybe<T> value = port.channel.tryReceive();
+                if (!value.isPresent()) {
+                    await(port);
+                    return;
+                }
+                if (!forward(value.getValue())) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onData(byte[] payload) {
+        }
+
+        @Override
+        public void onCredit(int granted) throws Exception {
+            credits.addAndGet(granted);
+            if (receiving.compareAndSet(false, true)) {
+                drain();
+            }
+        }
+
+        @Override
+        public void onClose() {
+            synchronized (this) {
+                closed = true;
+            }
+            SelectToken<T> token = waiting;
+            if (token != null) {
+                token.abandon();
+            }
+        }
+    }
+}
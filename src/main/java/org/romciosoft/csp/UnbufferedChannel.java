@@ -1,84 +1,404 @@
 package org.romciosoft.csp;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import org.romciosoft.metrics.ChannelGauges;
+import org.romciosoft.metrics.ChannelMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
-class UnbufferedChannel<T> implements Channel<T> {
-    private static class SndQItem<T> {
-        SelectToken<T> token;
-        T value;
+class UnbufferedChannel<T> implements Channel<T>, ChannelGauges {
+    /**
+     * A single-option sender or receiver waiting in the lock-free exchange slot.
+     */
+    private static class Parked<T> {
+        final SelectToken<T> token;
+        final T value;
+        final boolean isSender;
 
-        SndQItem(SelectToken<T> token, T value) {
+        Parked(SelectToken<T> token, T value, boolean isSender) {
             this.token = token;
             this.value = value;
-        }
-
-        static <T> SndQItem<T> of(SelectToken<T> token, T value) {
-            return new SndQItem<>(token, value);
+            this.isSender = isSender;
         }
     }
 
     private ChannelHandle<T> handle = new ChannelHandle<>(this, this);
     private ReentrantLock lock = new ReentrantLock();
-    private Queue<SndQItem<T>> sndQueue = new LinkedList<>();
-    private Queue<SelectToken<T>> rcvQueue = new LinkedList<>();
+    // a token that completes on another channel unlinks itself from these, which may empty them
+    private WaitQueue<T> sndQueue = new WaitQueue<>(lock, this::updateQueuesEmpty);
+    private WaitQueue<T> rcvQueue = new WaitQueue<>(lock, this::updateQueuesEmpty);
+
+    /*
+     * Exclusive (single-option) tokens rendezvous through the slot without taking the lock as long as
+     * both queues are empty. The locked path clears queuesEmpty before it inspects the slot and a fast
+     * path re-reads queuesEmpty after parking in the slot, so at least one side always sees the other.
+     */
+    private final AtomicReference<Parked<T>> slot = new AtomicReference<>();
+    private volatile boolean queuesEmpty = true;
+    private final ChannelMetrics metrics;
+
+    UnbufferedChannel() {
+        this(MetricsRegistry.NOOP, null);
+    }
+
+    UnbufferedChannel(MetricsRegistry registry, String name) {
+        metrics = registry.channel(name, "unbuffered", this);
+    }
+
+    /**
+     * Called under the lock whenever the queues may have changed, so that exclusive tokens go back to the
+     * slot once nothing waits in them.
+     */
+    private void updateQueuesEmpty() {
+        queuesEmpty = sndQueue.isEmpty() && rcvQueue.isEmpty();
+    }
+
+    boolean queuesEmpty() {
+        return queuesEmpty;
+    }
+
+    /**
+     * Counts one rendezvous with a counterpart that was waiting on the channel.
+     */
+    private void transferred(SelectToken<T> waiter) {
+        metrics.sent();
+        metrics.received();
+        if (waiter.isTimed()) {
+            metrics.waited(waiter.waitedNanos());
+        }
+    }
 
     @Override
     public boolean send(SelectToken<T> token, T value) throws Exception {
+        if (!token.isExclusive()) {
+            return lockedSend(token, value);
+        }
+        while (true) {
+            Parked<T> parked = slot.get();
+            if (parked != null && !parked.isSender) {
+                if (slot.compareAndSet(parked, null)) {
+                    SelectToken.exchange(handle, value, token, parked.token);
+                    transferred(parked.token);
+                    return true;
+                }
+                continue;
+            }
+            if (parked != null || !queuesEmpty) {
+                return lockedSend(token, value);
+            }
+            Parked<T> me = new Parked<>(token, value, true);
+            if (slot.compareAndSet(null, me)) {
+                if (!queuesEmpty && slot.compareAndSet(me, null)) {
+                    return lockedSend(token, value);
+                }
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean receive(SelectToken<T> token) throws Exception {
+        if (!token.isExclusive()) {
+            return lockedReceive(token);
+        }
+        while (true) {
+            Parked<T> parked = slot.get();
+            if (parked != null && parked.isSender) {
+                if (slot.compareAndSet(parked, null)) {
+                    SelectToken.exchange(handle, parked.value, parked.token, token);
+                    transferred(parked.token);
+                    return true;
+                }
+                continue;
+            }
+            if (parked != null || !queuesEmpty) {
+                return lockedReceive(token);
+            }
+            Parked<T> me = new Parked<>(token, null, false);
+            if (slot.compareAndSet(null, me)) {
+                if (!queuesEmpty && slot.compareAndSet(me, null)) {
+                    return lockedReceive(token);
+                }
+                return false;
+            }
+        }
+    }
+
+    private Parked<T> takeParked(boolean sender) {
+        while (true) {
+            Parked<T> parked = slot.get();
+            if (parked == null || parked.isSender != sender) {
+                return null;
+            }
+            if (slot.compareAndSet(parked, null)) {
+                return parked;
+            }
+        }
+    }
+
+    private boolean lockedSend(SelectToken<T> token, T value) throws Exception {
+        SelectToken<T> matched = null;
         try {
             lock.lock();
-            if (rcvQueue.isEmpty()) {
-                sndQueue.offer(SndQItem.of(token, value));
-                return false;
+            queuesEmpty = false;
+            Parked<T> parked = takeParked(false);
+            if (parked != null) {
+                SelectToken.MatchResult result = SelectToken.match(handle, value, token, parked.token);
+                if (result.matched) {
+                    transferred(parked.token);
+                    return true;
+                }
+                rcvQueue.offer(parked.token, null);
+                if (result.senderWasDone) {
+                    return false;
+                }
             }
-            SelectToken.MatchResult result;
-            do {
-                result = SelectToken.match(handle, value, token, rcvQueue.peek());
+            WaitQueue.Node<T> node;
+            while ((node = rcvQueue.peekOther(token)) != null) {
+                SelectToken<T> receiver = node.token;
+                SelectToken.MatchResult result = SelectToken.match(handle, value, token, receiver);
                 if (result.receiverWasDone || result.matched) {
-                    rcvQueue.poll();
+                    rcvQueue.remove(node);
+                }
+                if (result.matched) {
+                    transferred(receiver);
+                    matched = receiver;
+                    return true;
+                }
+                if (result.senderWasDone) {
+                    return false;
+                }
+            }
+            sndQueue.offer(token, value);
+            return false;
+        } finally {
+            updateQueuesEmpty();
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
+    }
+
+    private boolean lockedReceive(SelectToken<T> token) throws Exception {
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            queuesEmpty = false;
+            Parked<T> parked = takeParked(true);
+            if (parked != null) {
+                SelectToken.MatchResult result = SelectToken.match(handle, parked.value, parked.token, token);
+                if (result.matched) {
+                    transferred(parked.token);
+                    return true;
                 }
+                sndQueue.offer(parked.token, parked.value);
+                if (result.receiverWasDone) {
+                    return false;
+                }
+            }
+            WaitQueue.Node<T> sender;
+            while ((sender = sndQueue.peekOther(token)) != null) {
+                SelectToken.MatchResult result = SelectToken.match(handle, sender.value, sender.token, token);
                 if (result.senderWasDone || result.matched) {
-                    break;
+                    sndQueue.remove(sender);
+                }
+                if (result.matched) {
+                    transferred(sender.token);
+                    matched = sender.token;
+                    return true;
+                }
+                if (result.receiverWasDone) {
+                    return false;
                 }
-            } while(!rcvQueue.isEmpty());
-            if (!result.matched && !result.senderWasDone) {
-                sndQueue.offer(SndQItem.of(token, value));
             }
-            return result.matched;
+            rcvQueue.offer(token, null);
+            return false;
         } finally {
+            updateQueuesEmpty();
             lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
         }
     }
 
     @Override
-    public boolean receive(SelectToken<T> token) throws Exception {
+    public int offer(List<? extends T> values, int from) throws Exception {
+        if (queuesEmpty && slot.get() == null) {
+            return 0;
+        }
+        List<SelectToken<T>> completed = new ArrayList<>();
+        int count = 0;
         try {
             lock.lock();
-            if (sndQueue.isEmpty()) {
-                rcvQueue.offer(token);
-                return false;
+            queuesEmpty = false;
+            while (from + count < values.size()) {
+                T value = values.get(from + count);
+                Parked<T> parked = takeParked(false);
+                if (parked != null) {
+                    parked.token.tryCompleteReceived(handle.getReceivePort(), value);
+                    transferred(parked.token);
+                    count++;
+                    continue;
+                }
+                if (rcvQueue.isEmpty()) {
+                    break;
+                }
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), value)) {
+                    completed.add(receiver);
+                    transferred(receiver);
+                    count++;
+                }
             }
-            SelectToken.MatchResult result;
-            do {
-                SndQItem<T> sndQItem = sndQueue.peek();
-                result = SelectToken.match(handle, sndQItem.value, sndQItem.token, token);
-                if (result.senderWasDone || result.matched) {
-                    sndQueue.poll();
+            return count;
+        } finally {
+            updateQueuesEmpty();
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public int poll(List<? super T> into, int max) throws Exception {
+        if (queuesEmpty && slot.get() == null) {
+            return 0;
+        }
+        List<SelectToken<T>> completed = new ArrayList<>();
+        int count = 0;
+        try {
+            lock.lock();
+            queuesEmpty = false;
+            while (count < max) {
+                Parked<T> parked = takeParked(true);
+                if (parked != null) {
+                    parked.token.tryCompleteSent(handle.getSendPort());
+                    transferred(parked.token);
+                    into.add(parked.value);
+                    count++;
+                    continue;
                 }
-                if (result.receiverWasDone || result.matched) {
+                if (sndQueue.isEmpty()) {
                     break;
                 }
-            } while(!sndQueue.isEmpty());
-            if (!result.matched && !result.receiverWasDone) {
-                rcvQueue.offer(token);
+                WaitQueue.Node<T> sender = sndQueue.poll();
+                if (sender.token.tryCompleteSent(handle.getSendPort())) {
+                    completed.add(sender.token);
+                    transferred(sender.token);
+                    into.add(sender.value);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            updateQueuesEmpty();
+            lock.unlock();
+            for (SelectToken<T> token : completed) {
+                token.unregister();
+            }
+        }
+    }
+
+    @Override
+    public boolean trySend(T value) throws Exception {
+        if (queuesEmpty && slot.get() == null) {
+            return false;
+        }
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            queuesEmpty = false;
+            Parked<T> parked = takeParked(false);
+            if (parked != null) {
+                parked.token.tryCompleteReceived(handle.getReceivePort(), value);
+                transferred(parked.token);
+                return true;
+            }
+            while (!rcvQueue.isEmpty()) {
+                SelectToken<T> receiver = rcvQueue.poll().token;
+                if (receiver.tryCompleteReceived(handle.getReceivePort(), value)) {
+                    transferred(receiver);
+                    matched = receiver;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            updateQueuesEmpty();
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
+    }
+
+    @Override
+    public Maybe<T> tryReceive() throws Exception {
+        if (queuesEmpty && slot.get() == null) {
+            return Maybe.nothing();
+        }
+        SelectToken<T> matched = null;
+        try {
+            lock.lock();
+            queuesEmpty = false;
+            Parked<T> parked = takeParked(true);
+            if (parked != null) {
+                parked.token.tryCompleteSent(handle.getSendPort());
+                transferred(parked.token);
+                return Maybe.just(parked.value);
+            }
+            while (!sndQueue.isEmpty()) {
+                WaitQueue.Node<T> sender = sndQueue.poll();
+                if (sender.token.tryCompleteSent(handle.getSendPort())) {
+                    transferred(sender.token);
+                    matched = sender.token;
+                    return Maybe.just(sender.value);
+                }
             }
-            return result.matched;
+            return Maybe.nothing();
+        } finally {
+            updateQueuesEmpty();
+            lock.unlock();
+            if (matched != null) {
+                matched.unregister();
+            }
+        }
+    }
+
+    @Override
+    public int waitingSenders() {
+        try {
+            lock.lock();
+            Parked<T> parked = slot.get();
+            return sndQueue.size() + (parked != null && parked.isSender ? 1 : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int waitingReceivers() {
+        try {
+            lock.lock();
+            Parked<T> parked = slot.get();
+            return rcvQueue.size() + (parked != null && !parked.isSender ? 1 : 0);
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public int bufferedMessages() {
+        return 0;
+    }
+
     @Override
     public ChannelHandle<T> getHandle() {
         return handle;
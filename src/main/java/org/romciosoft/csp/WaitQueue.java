@@ -0,0 +1,138 @@
+package org.romciosoft.csp;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A FIFO of select tokens waiting on one side of a channel, guarded by the channel's lock.
+ * Nodes are linked intrusively in both directions, so a token that completes elsewhere can be
+ * unlinked from every queue it registered on without scanning them. A channel that keeps state derived
+ * from its queues passes a callback that is run, under the lock, after each such unlink.
+ */
+class WaitQueue<T> {
+    static class Node<T> {
+        // ends the registrations of a token that has been unregistered
+        static final Node<?> CLOSED = new Node<>(null, null, null);
+
+        final SelectToken<T> token;
+        final T value;
+        // anything else the channel keeps with a waiting value, such as its serialized form
+        final Object attachment;
+        private Node<T> prev, next;
+        // null once the node has been unlinked; nodes are never linked twice
+        private volatile WaitQueue<T> queue;
+        Node<T> nextRegistration;
+
+        private Node(SelectToken<T> token, T value, Object attachment) {
+            this.token = token;
+            this.value = value;
+            this.attachment = attachment;
+        }
+
+        void unlink() {
+            WaitQueue<T> owner = queue;
+            if (owner == null) {
+                return;
+            }
+            try {
+                owner.lock.lock();
+                if (queue != null) {
+                    owner.remove(this);
+                    if (owner.onUnlink != null) {
+                        owner.onUnlink.run();
+                    }
+                }
+            } finally {
+                owner.lock.unlock();
+            }
+        }
+    }
+
+    private final Lock lock;
+    private final Runnable onUnlink;
+    private Node<T> head, tail;
+    private int size = 0;
+
+    WaitQueue(Lock lock) {
+        this(lock, null);
+    }
+
+    WaitQueue(Lock lock, Runnable onUnlink) {
+        this.lock = lock;
+        this.onUnlink = onUnlink;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Node<T> peek() {
+        return head;
+    }
+
+    /**
+     * The first node of a token other than the given one, since a select can't rendezvous with itself.
+     */
+    Node<T> peekOther(SelectToken<T> token) {
+        Node<T> node = head;
+        while (node != null && node.token == token) {
+            node = node.next;
+        }
+        return node;
+    }
+
+    Node<T> poll() {
+        Node<T> node = head;
+        if (node != null) {
+            remove(node);
+        }
+        return node;
+    }
+
+    /**
+     * Appends the token unless it has completed in the meantime, in which case nothing is linked and
+     * false is returned. The node points at the queue before it is registered, so that a concurrent
+     * unregister waits for the lock and unlinks it rather than missing it.
+     */
+    boolean offer(SelectToken<T> token, T value) {
+        return offer(token, value, null);
+    }
+
+    boolean offer(SelectToken<T> token, T value, Object attachment) {
+        Node<T> node = new Node<>(token, value, attachment);
+        node.queue = this;
+        if (!token.register(node)) {
+            node.queue = null;
+            return false;
+        }
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        size++;
+        return true;
+    }
+
+    void remove(Node<T> node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.queue = null;
+        size--;
+    }
+}
@@ -0,0 +1,108 @@
+package org.romciosoft.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent queue that keeps elements in arrays of ChunkedStack.CHUNK elements. Offers append to the tail
+ * chunk, sharing it between versions the same way ChunkedStack does; full chunks move to a real-time queue of
+ * chunks, and polls walk the head chunk by index. Every operation is O(1) in the worst case.
+ */
+public class ChunkedQueue<T> implements IPersistentQueue<T> {
+    private static final Object[] NONE = new Object[0];
+    private static final ChunkedQueue<?> EMPTY = new ChunkedQueue<>(NONE, 0, 0, RealTimeQueue.empty(), NONE,
+            new AtomicInteger(), 0);
+
+    // the head chunk is empty only if the whole queue is
+    private final Object[] head;
+    private final int headIndex;
+    private final int headEnd;
+    private final IPersistentQueue<Object[]> middle;
+    private final Object[] tail;
+    private final AtomicInteger tailClaimed;
+    private final int tailSize;
+
+    private ChunkedQueue(Object[] head, int headIndex, int headEnd, IPersistentQueue<Object[]> middle,
+                         Object[] tail, AtomicInteger tailClaimed, int tailSize) {
+        this.head = head;
+        this.headIndex = headIndex;
+        this.headEnd = headEnd;
+        this.middle = middle;
+        this.tail = tail;
+        this.tailClaimed = tailClaimed;
+        this.tailSize = tailSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headIndex == headEnd;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        if (headIndex == headEnd) {
+            throw new IllegalAccessError("empty queue");
+        }
+        return (T) head[headIndex];
+    }
+
+    @Override
+    public IPersistentQueue<T> poll() {
+        if (headIndex == headEnd) {
+            throw new IllegalAccessError("empty queue");
+        }
+        if (headIndex + 1 < headEnd) {
+            return new ChunkedQueue<>(head, headIndex + 1, headEnd, middle, tail, tailClaimed, tailSize);
+        }
+        // the next chunk may be the head chunk itself, if more was appended to it after it became the head
+        IPersistentQueue<Object[]> rest = middle;
+        if (!rest.isEmpty() && rest.peek() == head && headEnd == head.length) {
+            rest = rest.poll();
+        }
+        if (!rest.isEmpty()) {
+            Object[] next = rest.peek();
+            return new ChunkedQueue<>(next, next == head ? headEnd : 0, next.length, rest.poll(), tail,
+                    tailClaimed, tailSize);
+        }
+        int start = tail == head ? headEnd : 0;
+        if (start < tailSize) {
+            return new ChunkedQueue<>(tail, start, tailSize, rest, tail, tailClaimed, tailSize);
+        }
+        return empty();
+    }
+
+    @Override
+    public IPersistentQueue<T> offer(T val) {
+        Object[] chunk = tail;
+        AtomicInteger claimed = tailClaimed;
+        int size = tailSize;
+        Object[] first = head;
+        IPersistentQueue<Object[]> full = middle;
+        if (size == chunk.length) {
+            if (size > 0) {
+                full = middle.offer(chunk);
+            }
+            chunk = new Object[ChunkedStack.CHUNK];
+            claimed = new AtomicInteger(1);
+            size = 0;
+        } else if (!claimed.compareAndSet(size, size + 1)) {
+            chunk = new Object[ChunkedStack.CHUNK];
+            System.arraycopy(tail, 0, chunk, 0, size);
+            claimed = new AtomicInteger(size + 1);
+            // a head sharing the tail chunk has to move to the copy, or its elements would be read twice
+            if (head == tail) {
+                first = chunk;
+            }
+        }
+        chunk[size] = val;
+        if (headIndex == headEnd) {
+            return new ChunkedQueue<>(chunk, 0, 1, full, chunk, claimed, 1);
+        }
+        return new ChunkedQueue<>(first, headIndex, headEnd, full, chunk, claimed, size + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> IPersistentQueue<T> empty() {
+        return (IPersistentQueue<T>) EMPTY;
+    }
+}
@@ -0,0 +1,75 @@
+package org.romciosoft.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent stack that keeps elements in arrays of up to CHUNK elements instead of one node each.
+ * Versions share a chunk as long as they only append to it: the first version to push onto a given slot
+ * claims it, and any other version pushing from the same place copies the chunk instead, so no version ever
+ * sees a slot overwritten.
+ */
+public class ChunkedStack<T> implements IPersistentStack<T> {
+    static final int CHUNK = 32;
+
+    private static final ChunkedStack<?> EMPTY = new ChunkedStack<>(new Object[0], new AtomicInteger(), 0, null);
+
+    private final Object[] items;
+    // how many slots of items some version has filled; shared by all versions using the same array
+    private final AtomicInteger claimed;
+    private final int size;
+    private final ChunkedStack<T> below;
+
+    private ChunkedStack(Object[] items, AtomicInteger claimed, int size, ChunkedStack<T> below) {
+        this.items = items;
+        this.claimed = claimed;
+        this.size = size;
+        this.below = below;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        if (size == 0) {
+            throw new IllegalAccessError("empty stack");
+        }
+        return (T) items[size - 1];
+    }
+
+    @Override
+    public IPersistentStack<T> push(T val) {
+        if (size == items.length) {
+            Object[] chunk = new Object[CHUNK];
+            chunk[0] = val;
+            return new ChunkedStack<>(chunk, new AtomicInteger(1), 1, this);
+        }
+        if (claimed.compareAndSet(size, size + 1)) {
+            items[size] = val;
+            return new ChunkedStack<>(items, claimed, size + 1, below);
+        }
+        Object[] chunk = new Object[CHUNK];
+        System.arraycopy(items, 0, chunk, 0, size);
+        chunk[size] = val;
+        return new ChunkedStack<>(chunk, new AtomicInteger(size + 1), size + 1, below);
+    }
+
+    @Override
+    public IPersistentStack<T> pop() {
+        if (size == 0) {
+            throw new IllegalAccessError("empty stack");
+        }
+        if (size == 1) {
+            return below;
+        }
+        return new ChunkedStack<>(items, claimed, size - 1, below);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> IPersistentStack<T> empty() {
+        return (IPersistentStack<T>) EMPTY;
+    }
+}
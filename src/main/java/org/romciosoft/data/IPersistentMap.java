@@ -0,0 +1,15 @@
+package org.romciosoft.data;
+
+import org.romciosoft.monad.Maybe;
+
+import java.util.function.BiConsumer;
+
+public interface IPersistentMap<K, V> {
+    int size();
+    boolean isEmpty();
+    Maybe<V> get(K key);
+    boolean containsKey(K key);
+    IPersistentMap<K, V> put(K key, V val);
+    IPersistentMap<K, V> remove(K key);
+    void forEach(BiConsumer<? super K, ? super V> action);
+}
@@ -0,0 +1,12 @@
+package org.romciosoft.data;
+
+import java.util.function.Consumer;
+
+public interface IPersistentVector<T> {
+    int size();
+    T get(int index);
+    IPersistentVector<T> set(int index, T val);
+    IPersistentVector<T> append(T val);
+    IPersistentVector<T> pop();
+    void forEach(Consumer<? super T> action);
+}
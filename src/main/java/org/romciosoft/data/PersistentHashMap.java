@@ -0,0 +1,403 @@
+package org.romciosoft.data;
+
+import org.romciosoft.monad.Maybe;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent hash array mapped trie. Each level of the trie takes 5 bits of the key's hash; a node keeps
+ * a bitmap of the slots it uses and a packed array of just those, where each entry is either a key and its
+ * value or, with a null key, a subnode. Keys whose whole hashes collide share a list node. Versions share
+ * every node they don't change, and Builder changes nodes it created itself in place. Null keys are not
+ * supported.
+ */
+public class PersistentHashMap<K, V> implements IPersistentMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // set when an operation added or removed a key, so the size can be kept
+    private static final class Change {
+        boolean changed;
+    }
+
+    private interface Node {
+        Object find(int shift, int hash, Object key, Object notFound);
+
+        Node put(Object edit, int shift, int hash, Object key, Object val, Change change);
+
+        // returns null when the node becomes empty
+        Node remove(Object edit, int shift, int hash, Object key, Change change);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    private static final class BitmapNode implements Node {
+        final Object edit;
+        int bitmap;
+        // pairs of key and value, or null and subnode; may have unused room at the end if made by a builder
+        Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode editable(Object edit) {
+            if (this.edit == edit && edit != null) {
+                return this;
+            }
+            int count = Integer.bitCount(bitmap);
+            Object[] copy = new Object[edit == null ? 2 * count : 2 * (count + 1)];
+            System.arraycopy(array, 0, copy, 0, 2 * count);
+            return new BitmapNode(edit, bitmap, copy);
+        }
+
+        private BitmapNode with(Object edit, int i, Object val) {
+            BitmapNode result = editable(edit);
+            result.array[i] = val;
+            return result;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key, Object notFound) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return notFound;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key, notFound);
+            }
+            return key.equals(k) ? array[i + 1] : notFound;
+        }
+
+        @Override
+        public Node put(Object edit, int shift, int hash, Object key, Object val, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) != 0) {
+                Object k = array[i];
+                Object v = array[i + 1];
+                if (k == null) {
+                    Node sub = ((Node) v).put(edit, shift + BITS, hash, key, val, change);
+                    return sub == v ? this : with(edit, i + 1, sub);
+                }
+                if (key.equals(k)) {
+                    return v == val ? this : with(edit, i + 1, val);
+                }
+                change.changed = true;
+                Node sub = pair(edit, shift + BITS, k, v, hash, key, val);
+                BitmapNode result = editable(edit);
+                result.array[i] = null;
+                result.array[i + 1] = sub;
+                return result;
+            }
+            change.changed = true;
+            int count = Integer.bitCount(bitmap);
+            if (this.edit == edit && edit != null && array.length >= 2 * (count + 1)) {
+                System.arraycopy(array, i, array, i + 2, 2 * count - i);
+                array[i] = key;
+                array[i + 1] = val;
+                bitmap |= bit;
+                return this;
+            }
+            // a builder leaves room for a few more entries in the nodes it makes
+            Object[] grown = new Object[2 * (count + (edit == null ? 1 : 4))];
+            System.arraycopy(array, 0, grown, 0, i);
+            grown[i] = key;
+            grown[i + 1] = val;
+            System.arraycopy(array, i, grown, i + 2, 2 * count - i);
+            if (this.edit == edit && edit != null) {
+                array = grown;
+                bitmap |= bit;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap | bit, grown);
+        }
+
+        private Node without(Object edit, int bit, int i) {
+            if (bitmap == bit) {
+                return null;
+            }
+            int count = Integer.bitCount(bitmap);
+            if (this.edit == edit && edit != null) {
+                System.arraycopy(array, i + 2, array, i, 2 * count - i - 2);
+                array[2 * count - 2] = null;
+                array[2 * count - 1] = null;
+                bitmap ^= bit;
+                return this;
+            }
+            Object[] shrunk = new Object[2 * (count - 1)];
+            System.arraycopy(array, 0, shrunk, 0, i);
+            System.arraycopy(array, i + 2, shrunk, i, 2 * count - i - 2);
+            return new BitmapNode(edit, bitmap ^ bit, shrunk);
+        }
+
+        @Override
+        public Node remove(Object edit, int shift, int hash, Object key, Change change) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node sub = ((Node) v).remove(edit, shift + BITS, hash, key, change);
+                if (sub == v) {
+                    return this;
+                }
+                return sub != null ? with(edit, i + 1, sub) : without(edit, bit, i);
+            }
+            if (!key.equals(k)) {
+                return this;
+            }
+            change.changed = true;
+            return without(edit, bit, i);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            int count = Integer.bitCount(bitmap);
+            for (int i = 0; i < 2 * count; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+    }
+
+    private static final class CollisionNode implements Node {
+        final int hash;
+        // key and value pairs; always copied on change, since collisions are rare
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key, Object notFound) {
+            int i = indexOf(key);
+            return i < 0 ? notFound : array[i + 1];
+        }
+
+        @Override
+        public Node put(Object edit, int shift, int hash, Object key, Object val, Change change) {
+            if (hash != this.hash) {
+                Object[] nested = new Object[]{null, this};
+                return new BitmapNode(edit, 1 << ((this.hash >>> shift) & MASK), nested)
+                        .put(edit, shift, hash, key, val, change);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == val) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[i + 1] = val;
+                return new CollisionNode(hash, copy);
+            }
+            change.changed = true;
+            Object[] grown = new Object[array.length + 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            grown[array.length] = key;
+            grown[array.length + 1] = val;
+            return new CollisionNode(hash, grown);
+        }
+
+        @Override
+        public Node remove(Object edit, int shift, int hash, Object key, Change change) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            change.changed = true;
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] shrunk = new Object[array.length - 2];
+            System.arraycopy(array, 0, shrunk, 0, i);
+            System.arraycopy(array, i + 2, shrunk, i, array.length - i - 2);
+            return new CollisionNode(hash, shrunk);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    private static final Object NOT_FOUND = new Object();
+    private static final BitmapNode EMPTY_NODE = new BitmapNode(null, 0, new Object[0]);
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(0, EMPTY_NODE);
+
+    private final int size;
+    private final Node root;
+
+    private PersistentHashMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.requireNonNull(key, "null keys are not supported").hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static Node pair(Object edit, int shift, Object key1, Object val1, int hash2, Object key2,
+                             Object val2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2) {
+            return new CollisionNode(hash1, new Object[]{key1, val1, key2, val2});
+        }
+        Change ignored = new Change();
+        return EMPTY_NODE.put(edit, shift, hash1, key1, val1, ignored).put(edit, shift, hash2, key2, val2, ignored);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Maybe<V> get(K key) {
+        Object val = root.find(0, hash(key), key, NOT_FOUND);
+        return val == NOT_FOUND ? Maybe.nothing() : Maybe.just((V) val);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    @Override
+    public PersistentHashMap<K, V> put(K key, V val) {
+        Change change = new Change();
+        Node newRoot = root.put(null, 0, hash(key), key, val, change);
+        return newRoot == root ? this : new PersistentHashMap<>(change.changed ? size + 1 : size, newRoot);
+    }
+
+    @Override
+    public PersistentHashMap<K, V> remove(K key) {
+        Change change = new Change();
+        Node newRoot = root.remove(null, 0, hash(key), key, change);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentHashMap<>(size - 1, newRoot);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        root.forEach((k, v) -> action.accept((K) k, (V) v));
+    }
+
+    /**
+     * A builder starting from this map, which stays unchanged.
+     */
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>(empty());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Batches changes to a map, changing nodes it has already copied in place instead of copying them again
+     * for every change. It belongs to the thread using it and can't be used after build().
+     */
+    public static class Builder<K, V> {
+        private Object edit = new Object();
+        private final Change change = new Change();
+        private int size;
+        private Node root;
+
+        private Builder(PersistentHashMap<K, V> from) {
+            size = from.size;
+            root = from.root;
+        }
+
+        private void checkActive() {
+            if (edit == null) {
+                throw new IllegalStateException("builder already built");
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Maybe<V> get(K key) {
+            checkActive();
+            Object val = root.find(0, hash(key), key, NOT_FOUND);
+            return val == NOT_FOUND ? Maybe.nothing() : Maybe.just((V) val);
+        }
+
+        public Builder<K, V> put(K key, V val) {
+            checkActive();
+            change.changed = false;
+            root = root.put(edit, 0, hash(key), key, val, change);
+            if (change.changed) {
+                size++;
+            }
+            return this;
+        }
+
+        public Builder<K, V> remove(K key) {
+            checkActive();
+            change.changed = false;
+            Node newRoot = root.remove(edit, 0, hash(key), key, change);
+            root = newRoot == null ? EMPTY_NODE : newRoot;
+            if (change.changed) {
+                size--;
+            }
+            return this;
+        }
+
+        /**
+         * Returns a map of the builder's contents. The builder can't be used afterwards, since the map shares
+         * its nodes.
+         */
+        public PersistentHashMap<K, V> build() {
+            checkActive();
+            edit = null;
+            return size == 0 ? empty() : new PersistentHashMap<>(size, root);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package org.romciosoft.data;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A persistent vector: a 32-way trie of arrays plus a tail array that isn't in the trie yet, so get and set
+ * take at most a few array hops and append usually only copies the tail. Versions share every node they
+ * don't change. Builder makes a series of changes in place on nodes it created itself, and only copies nodes
+ * shared with existing versions.
+ */
+public class PersistentVector<T> implements IPersistentVector<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final class Node {
+        // the builder that created this node and may still change it in place; null for nodes of versions
+        final Object edit;
+        final Object[] array;
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Node root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private static Object[] arrayFor(Node root, int shift, int size, Object[] tail, int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " in a vector of size " + size);
+        }
+        if (index >= tailOffset(size)) {
+            return tail;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(index >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    private static Node editable(Object edit, Node node) {
+        return node.edit == edit && edit != null ? node : new Node(edit, node.array.clone());
+    }
+
+    private static Node set(Object edit, int level, Node node, int index, Object val) {
+        Node result = editable(edit, node);
+        if (level == 0) {
+            result.array[index & MASK] = val;
+        } else {
+            int sub = (index >>> level) & MASK;
+            result.array[sub] = set(edit, level - BITS, (Node) node.array[sub], index, val);
+        }
+        return result;
+    }
+
+    private static Node newPath(Object edit, int level, Node node) {
+        if (level == 0) {
+            return node;
+        }
+        Node path = new Node(edit, new Object[WIDTH]);
+        path.array[0] = newPath(edit, level - BITS, node);
+        return path;
+    }
+
+    private static Node pushTail(Object edit, int size, int level, Node parent, Node tailNode) {
+        Node result = editable(edit, parent);
+        int sub = ((size - 1) >>> level) & MASK;
+        Node child = (Node) parent.array[sub];
+        result.array[sub] = level == BITS
+                ? tailNode
+                : child != null ? pushTail(edit, size, level - BITS, child, tailNode)
+                : newPath(edit, level - BITS, tailNode);
+        return result;
+    }
+
+    // returns null when the node becomes empty
+    private static Node popTail(Object edit, int size, int level, Node node) {
+        int sub = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node child = popTail(edit, size, level - BITS, (Node) node.array[sub]);
+            if (child == null && sub == 0) {
+                return null;
+            }
+            Node result = editable(edit, node);
+            result.array[sub] = child;
+            return result;
+        }
+        if (sub == 0) {
+            return null;
+        }
+        Node result = editable(edit, node);
+        result.array[sub] = null;
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return (T) arrayFor(root, shift, size, tail, index)[index & MASK];
+    }
+
+    @Override
+    public PersistentVector<T> set(int index, T val) {
+        arrayFor(root, shift, size, tail, index);
+        if (index >= tailOffset(size)) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = val;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, set(null, shift, root, index, val), tail);
+    }
+
+    @Override
+    public PersistentVector<T> append(T val) {
+        if (size - tailOffset(size) < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = val;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        Node tailNode = new Node(null, tail);
+        Node newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Node(null, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(null, shift, tailNode);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(null, size, shift, root, tailNode);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[]{val});
+    }
+
+    @Override
+    public PersistentVector<T> pop() {
+        if (size == 0) {
+            throw new IllegalAccessError("empty vector");
+        }
+        if (size == 1) {
+            return empty();
+        }
+        if (size - tailOffset(size) > 1) {
+            return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        Object[] newTail = arrayFor(root, shift, size, tail, size - 2);
+        Node newRoot = popTail(null, size, shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = EMPTY_NODE;
+        }
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = (Node) newRoot.array[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super T> action) {
+        for (int i = 0; i < size; i += WIDTH) {
+            Object[] array = arrayFor(root, shift, size, tail, i);
+            int end = Math.min(WIDTH, size - i);
+            for (int j = 0; j < end; j++) {
+                action.accept((T) array[j]);
+            }
+        }
+    }
+
+    /**
+     * A builder starting from this vector, which stays unchanged.
+     */
+    public Builder<T> toBuilder() {
+        return new Builder<>(this);
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>(empty());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    /**
+     * Batches changes to a vector, changing nodes it has already copied in place instead of copying them
+     * again for every change. It belongs to the thread using it and can't be used after build().
+     */
+    public static class Builder<T> {
+        private Object edit = new Object();
+        private int size;
+        private int shift;
+        private Node root;
+        private Object[] tail;
+
+        private Builder(PersistentVector<T> from) {
+            size = from.size;
+            shift = from.shift;
+            root = new Node(edit, from.root.array.clone());
+            tail = Arrays.copyOf(from.tail, WIDTH);
+        }
+
+        private void checkActive() {
+            if (edit == null) {
+                throw new IllegalStateException("builder already built");
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            checkActive();
+            return (T) arrayFor(root, shift, size, tail, index)[index & MASK];
+        }
+
+        public Builder<T> set(int index, T val) {
+            checkActive();
+            arrayFor(root, shift, size, tail, index);
+            if (index >= tailOffset(size)) {
+                tail[index & MASK] = val;
+            } else {
+                root = PersistentVector.set(edit, shift, root, index, val);
+            }
+            return this;
+        }
+
+        public Builder<T> append(T val) {
+            checkActive();
+            if (size - tailOffset(size) < WIDTH) {
+                tail[size & MASK] = val;
+                size++;
+                return this;
+            }
+            Node tailNode = new Node(edit, tail);
+            tail = new Object[WIDTH];
+            tail[0] = val;
+            if ((size >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(edit, new Object[WIDTH]);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(edit, shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(edit, size, shift, root, tailNode);
+            }
+            size++;
+            return this;
+        }
+
+        public Builder<T> pop() {
+            checkActive();
+            if (size == 0) {
+                throw new IllegalAccessError("empty vector");
+            }
+            if (size == 1 || size - tailOffset(size) > 1) {
+                tail[(size - 1) & MASK] = null;
+                size--;
+                return this;
+            }
+            Object[] newTail = arrayFor(root, shift, size, tail, size - 2);
+            Node newRoot = popTail(edit, size, shift, root);
+            if (newRoot == null) {
+                newRoot = new Node(edit, new Object[WIDTH]);
+            }
+            if (shift > BITS && newRoot.array[1] == null) {
+                newRoot = editable(edit, (Node) newRoot.array[0]);
+                shift -= BITS;
+            }
+            root = newRoot;
+            tail = newTail.clone();
+            size--;
+            return this;
+        }
+
+        /**
+         * Returns a vector of the builder's contents. The builder can't be used afterwards, since the vector
+         * shares its nodes.
+         */
+        public PersistentVector<T> build() {
+            checkActive();
+            edit = null;
+            return new PersistentVector<>(size, shift, root, Arrays.copyOf(tail, size - tailOffset(size)));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.romciosoft.data;
+
+/**
+ * Okasaki's real-time queue: a persistent queue with worst-case O(1) offer and poll. The front is a lazy
+ * stream built by incremental rotations, and every operation forces one more cell of it through the
+ * schedule, so a rotation is paid for a step at a time instead of as one reversal on whichever poll finds
+ * the front empty. Forced cells are memoized, so reusing an older version never redoes a rotation.
+ */
+public class RealTimeQueue<T> implements IPersistentQueue<T> {
+    private static final class Cell<T> {
+        final T head;
+        final Stream<T> tail;
+
+        Cell(T head, Stream<T> tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+
+    /**
+     * A memoized lazy stream whose evaluation is one step of rotate(front, rear, accumulated), which
+     * appends the reverse of rear to front. Forcing it takes constant time as long as front has already
+     * been forced, which the schedule guarantees. Versions of the queue may be shared between threads, so
+     * forcing is synchronized; the fields of a forced stream never change again.
+     */
+    private static final class Stream<T> {
+        private volatile boolean forced;
+        private Cell<T> value;
+        private Stream<T> front;
+        private IPersistentStack<T> rear;
+        private Stream<T> accumulated;
+
+        private Stream(Cell<T> value) {
+            this.value = value;
+            forced = true;
+        }
+
+        private Stream(Stream<T> front, IPersistentStack<T> rear, Stream<T> accumulated) {
+            this.front = front;
+            this.rear = rear;
+            this.accumulated = accumulated;
+        }
+
+        static <T> Stream<T> rotate(Stream<T> front, IPersistentStack<T> rear, Stream<T> accumulated) {
+            return new Stream<>(front, rear, accumulated);
+        }
+
+        Cell<T> force() {
+            if (!forced) {
+                synchronized (this) {
+                    if (!forced) {
+                        Cell<T> first = front.force();
+                        Stream<T> reversed = new Stream<>(new Cell<>(rear.peek(), accumulated));
+                        value = first == null
+                                ? reversed.value
+                                : new Cell<>(first.head, rotate(first.tail, rear.pop(), reversed));
+                        front = null;
+                        rear = null;
+                        accumulated = null;
+                        forced = true;
+                    }
+                }
+            }
+            return value;
+        }
+    }
+
+    private static final Stream<?> NIL = new Stream<>(null);
+    private static final RealTimeQueue<?> EMPTY = new RealTimeQueue<>(nil(), PersistentStack.empty(), nil());
+
+    // the schedule is the suffix of front that hasn't been forced yet; its length is |front| - |rear|
+    private final Stream<T> front;
+    private final IPersistentStack<T> rear;
+    private final Stream<T> schedule;
+
+    private RealTimeQueue(Stream<T> front, IPersistentStack<T> rear, Stream<T> schedule) {
+        this.front = front;
+        this.rear = rear;
+        this.schedule = schedule;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Stream<T> nil() {
+        return (Stream<T>) NIL;
+    }
+
+    private static <T> RealTimeQueue<T> exec(Stream<T> front, IPersistentStack<T> rear, Stream<T> schedule) {
+        Cell<T> next = schedule.force();
+        if (next != null) {
+            return new RealTimeQueue<>(front, rear, next.tail);
+        }
+        Stream<T> rotated = Stream.rotate(front, rear, RealTimeQueue.nil());
+        return new RealTimeQueue<>(rotated, PersistentStack.empty(), rotated);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return front.force() == null;
+    }
+
+    @Override
+    public T peek() {
+        Cell<T> first = front.force();
+        if (first == null) {
+            throw new IllegalAccessError("empty queue");
+        }
+        return first.head;
+    }
+
+    @Override
+    public IPersistentQueue<T> poll() {
+        Cell<T> first = front.force();
+        if (first == null) {
+            throw new IllegalAccessError("empty queue");
+        }
+        return exec(first.tail, rear, schedule);
+    }
+
+    @Override
+    public IPersistentQueue<T> offer(T val) {
+        return exec(front, rear.push(val), schedule);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> IPersistentQueue<T> empty() {
+        return (IPersistentQueue<T>) EMPTY;
+    }
+}
@@ -12,13 +12,19 @@ public interface AsyncAction<T> extends Monad<AsyncAction<?>, T> {
 
     IOAction<Promise<T>> getIOAction(IOActionExecutor exe);
 
+    /**
+     * If this action's promise fails, or fun or the action it returns throws or fails, so does the result.
+     */
     default <U> AsyncAction<U> bind(Function<T, Monad<AsyncAction<?>, U>> fun) {
-        return exe -> Promise.<U>newPromise(exe).bind(responsePromise ->
-                getIOAction(exe).bind(leftPromise ->
-                        leftPromise.addCallback(leftValue ->
-                                fromMonad(fun.apply(leftValue)).getIOAction(exe).bind(rightPromise ->
-                                        rightPromise.addCallback(responsePromise::deliver))))
-                        .then(IOAction.unit(responsePromise)));
+        return exe -> Promise.<U>newPromise(exe).bind(responsePromise -> {
+            Function<Exception, IOAction<Void>> failed = responsePromise::fail;
+            return getIOAction(exe).bind(leftPromise ->
+                    leftPromise.addCallback(leftValue -> ((IOAction<Void>) () ->
+                            fromMonad(fun.apply(leftValue)).getIOAction(exe).bind(rightPromise ->
+                                    rightPromise.addCallback(responsePromise::deliver, failed)).perform())
+                            .wrapException(Exception.class, failed), failed))
+                    .then(IOAction.unit(responsePromise));
+        });
     }
 
     default <U> AsyncAction<U> then(Monad<AsyncAction<?>, U> monad) {
@@ -30,7 +36,7 @@ public interface AsyncAction<T> extends Monad<AsyncAction<?>, T> {
     }
 
     static <T> AsyncAction<T> unit(T value) {
-        return wrap(IOAction.unit(value));
+        return exe -> Promise.newPromise(exe, value);
     }
 
     static AsyncAction<Void> fork(AsyncAction<Void> action) {
@@ -0,0 +1,517 @@
+package org.romciosoft.io;
+
+import org.romciosoft.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A work-stealing executor for short, non-blocking tasks such as process continuations, modelled on the
+ * Go scheduler. Every worker has a bounded ring queue that it consumes in FIFO order and other workers
+ * steal half of when they run dry, plus a "runnext" slot. A task submitted from a worker goes into that
+ * worker's runnext slot and runs as soon as the current task is done: when a rendezvous wakes a process,
+ * the woken process continues on the same core while its caches are still warm. Tasks submitted from
+ * other threads go to a shared queue.
+ * <p>
+ * A chain of runnext tasks is cut after {@link #MAX_RUNNEXT_CHAIN} steps so that a pair of processes
+ * bouncing messages cannot starve the rest of the worker's queue. Tasks that block should run elsewhere,
+ * e.g. on virtual threads: a task sitting in the runnext slot of a blocked worker is only stolen once
+ * other workers have run out of everything else.
+ */
+public class HandoffScheduler extends AbstractExecutorService {
+    static final int MAX_RUNNEXT_CHAIN = 64;
+    private static final int QUEUE_SIZE = 256;
+    private static final int MASK = QUEUE_SIZE - 1;
+    private static final int STEAL_ROUNDS = 4;
+    // how often a worker looks at the shared queue before its own, so that submissions from outside are
+    // not starved by busy workers
+    private static final int SHARED_QUEUE_INTERVAL = 61;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private static class RunnableTask extends Task {
+        private final Runnable runnable;
+
+        RunnableTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+
+    private final class Worker extends Thread {
+        /*
+         * Ring queue with a single producer, the worker itself, and many consumers: the worker and thieves
+         * both take from head with a CAS. Slots are not cleared when taken, since a slow thief could clear a
+         * slot that has been reused in the meantime; at most QUEUE_SIZE finished tasks stay reachable.
+         */
+        final Task[] queue = new Task[QUEUE_SIZE];
+        final AtomicInteger head = new AtomicInteger();
+        volatile int tail;
+        final AtomicReference<Task> runNext = new AtomicReference<>();
+        volatile boolean parked;
+        volatile boolean spinning;
+        private int runNextChain;
+        private int tick;
+        private int seed;
+
+        Worker(int index) {
+            super("handoff-worker-" + index);
+            seed = index * 0x9E3779B9 | 1;
+        }
+
+        private int nextRandom() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return seed & Integer.MAX_VALUE;
+        }
+
+        HandoffScheduler owner() {
+            return HandoffScheduler.this;
+        }
+
+        boolean hasWork() {
+            return tail - head.get() > 0 || runNext.get() != null;
+        }
+
+        void push(Task task) {
+            while (true) {
+                int h = head.get();
+                int t = tail;
+                if (t - h < QUEUE_SIZE) {
+                    queue[t & MASK] = task;
+                    tail = t + 1;
+                    return;
+                }
+                if (pushOverflow(task, h, t)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Moves half of the full queue and the new task to the shared queue, keeping their order.
+         */
+        private boolean pushOverflow(Task task, int h, int t) {
+            int n = (t - h) / 2;
+            Task[] batch = new Task[n + 1];
+            for (int i = 0; i < n; i++) {
+                batch[i] = queue[(h + i) & MASK];
+            }
+            if (!head.compareAndSet(h, h + n)) {
+                return false;
+            }
+            batch[n] = task;
+            for (int i = 0; i < n; i++) {
+                batch[i].nextInQueue = batch[i + 1];
+            }
+            batch[n].nextInQueue = null;
+            inject(batch[0], batch[n], n + 1);
+            return true;
+        }
+
+        private Task poll() {
+            while (true) {
+                int h = head.get();
+                if (tail - h <= 0) {
+                    return null;
+                }
+                Task task = queue[h & MASK];
+                if (head.compareAndSet(h, h + 1)) {
+                    return task;
+                }
+            }
+        }
+
+        private Task localTask() {
+            Task next = runNext.get();
+            if (next != null) {
+                if (runNextChain < MAX_RUNNEXT_CHAIN) {
+                    if (runNext.compareAndSet(next, null)) {
+                        runNextChain++;
+                        return next;
+                    }
+                } else if (runNext.compareAndSet(next, null)) {
+                    push(next);
+                }
+            }
+            runNextChain = 0;
+            return poll();
+        }
+
+        /**
+         * Takes half of the victim's queue into this worker's own, which must be empty, and returns one of
+         * the stolen tasks.
+         */
+        private Task stealFrom(Worker victim, boolean includeRunNext) {
+            while (true) {
+                int h = victim.head.get();
+                int t = victim.tail;
+                int n = t - h;
+                n = n - n / 2;
+                if (n == 0) {
+                    if (!includeRunNext) {
+                        return null;
+                    }
+                    Task next = victim.runNext.get();
+                    if (next == null) {
+                        return null;
+                    }
+                    if (!victim.parked) {
+                        // give the victim a moment to pick up its own runnext task
+                        LockSupport.parkNanos(3000);
+                    }
+                    return victim.runNext.compareAndSet(next, null) ? next : null;
+                }
+                if (n > QUEUE_SIZE / 2) {
+                    // head and tail were read at different times, try again
+                    continue;
+                }
+                int myTail = tail;
+                for (int i = 0; i < n; i++) {
+                    queue[(myTail + i) & MASK] = victim.queue[(h + i) & MASK];
+                }
+                if (victim.head.compareAndSet(h, h + n)) {
+                    Task task = queue[(myTail + n - 1) & MASK];
+                    if (n > 1) {
+                        tail = myTail + n - 1;
+                    }
+                    return task;
+                }
+            }
+        }
+
+        private Task steal() {
+            for (int round = 0; round < STEAL_ROUNDS; round++) {
+                int start = nextRandom();
+                for (int i = 0; i < workers.length; i++) {
+                    Worker victim = workers[(start + i) % workers.length];
+                    if (victim == this) {
+                        continue;
+                    }
+                    Task task = stealFrom(victim, round == STEAL_ROUNDS - 1);
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Task findTask() {
+            while (true) {
+                if (state == STOP) {
+                    return null;
+                }
+                Task task = null;
+                if (++tick % SHARED_QUEUE_INTERVAL == 0) {
+                    task = pollShared(this);
+                }
+                if (task == null) {
+                    task = localTask();
+                }
+                if (task == null) {
+                    task = pollShared(this);
+                }
+                if (task == null) {
+                    task = steal();
+                }
+                if (task != null) {
+                    if (spinning) {
+                        stopSpinning();
+                    }
+                    return task;
+                }
+                if (spinning) {
+                    spinning = false;
+                    // the last spinner rechecks after leaving, since submitters do not wake anybody while
+                    // a spinner is around
+                    if (nSpinning.decrementAndGet() == 0 && anyWork()) {
+                        nSpinning.incrementAndGet();
+                        spinning = true;
+                        continue;
+                    }
+                }
+                if (state != RUNNING && !anyWork()) {
+                    return null;
+                }
+                idle();
+            }
+        }
+
+        private void stopSpinning() {
+            spinning = false;
+            if (nSpinning.decrementAndGet() == 0 && hasWork()) {
+                wakeIdle();
+            }
+        }
+
+        private void idle() {
+            parked = true;
+            synchronized (idleWorkers) {
+                idleWorkers.push(this);
+                idleCount++;
+            }
+            if (anyWork() || state != RUNNING) {
+                boolean removed;
+                synchronized (idleWorkers) {
+                    removed = idleWorkers.remove(this);
+                    if (removed) {
+                        idleCount--;
+                    }
+                }
+                if (removed) {
+                    parked = false;
+                }
+            }
+            while (parked) {
+                LockSupport.park(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Task task = findTask(); task != null; task = findTask()) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        getUncaughtExceptionHandler().uncaughtException(this, e);
+                    }
+                }
+            } finally {
+                synchronized (idleWorkers) {
+                    if (idleWorkers.remove(this)) {
+                        idleCount--;
+                    }
+                }
+                if (liveWorkers.decrementAndGet() == 0) {
+                    synchronized (terminationLock) {
+                        terminationLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private final Worker[] workers;
+    private final AtomicInteger liveWorkers;
+    private final Object terminationLock = new Object();
+    private volatile int state = RUNNING;
+
+    private final Object sharedLock = new Object();
+    private Task sharedHead, sharedTail;
+    private volatile int sharedSize;
+
+    private final ArrayDeque<Worker> idleWorkers = new ArrayDeque<>();
+    private volatile int idleCount;
+    private final AtomicInteger nSpinning = new AtomicInteger();
+
+    public HandoffScheduler(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least one");
+        }
+        workers = new Worker[parallelism];
+        liveWorkers = new AtomicInteger(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(i);
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    public HandoffScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an IOActionExecutor running on this scheduler, with timer used for delays only. It runs
+     * continuations of already completed actions inline for up to 100 microseconds, the way a goroutine
+     * keeps running after a channel operation that did not block.
+     */
+    public IOActionExecutor newIOActionExecutor(ScheduledExecutorService timer) {
+        return new IOActionExecutor(this, timer, 32, 100, TimeUnit.MICROSECONDS, MetricsRegistry.NOOP);
+    }
+
+    private void inject(Task first, Task last, int count) {
+        synchronized (sharedLock) {
+            if (sharedTail == null) {
+                sharedHead = first;
+            } else {
+                sharedTail.nextInQueue = first;
+            }
+            sharedTail = last;
+            sharedSize += count;
+        }
+    }
+
+    /**
+     * Takes a task from the shared queue, moving a fair share of the others to the worker's own queue.
+     */
+    private Task pollShared(Worker worker) {
+        if (sharedSize == 0) {
+            return null;
+        }
+        Task first;
+        Task rest;
+        int restCount;
+        synchronized (sharedLock) {
+            if (sharedHead == null) {
+                return null;
+            }
+            int count = Math.min(Math.min(sharedSize / workers.length + 1, QUEUE_SIZE / 2), sharedSize);
+            first = sharedHead;
+            rest = first.nextInQueue;
+            Task last = first;
+            for (int i = 1; i < count; i++) {
+                last = last.nextInQueue;
+            }
+            sharedHead = last.nextInQueue;
+            if (sharedHead == null) {
+                sharedTail = null;
+            }
+            last.nextInQueue = null;
+            sharedSize -= count;
+            restCount = count - 1;
+        }
+        for (int i = 0; i < restCount; i++) {
+            Task next = rest.nextInQueue;
+            rest.nextInQueue = null;
+            worker.push(rest);
+            rest = next;
+        }
+        first.nextInQueue = null;
+        return first;
+    }
+
+    private boolean anyWork() {
+        if (sharedSize > 0) {
+            return true;
+        }
+        for (Worker worker : workers) {
+            if (worker.hasWork()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes an idle worker to look for work, unless another worker is already looking.
+     */
+    private void wakeIdle() {
+        if (idleCount == 0 || nSpinning.get() != 0 || !nSpinning.compareAndSet(0, 1)) {
+            return;
+        }
+        Worker worker;
+        synchronized (idleWorkers) {
+            worker = idleWorkers.poll();
+            if (worker != null) {
+                idleCount--;
+            }
+        }
+        if (worker == null) {
+            nSpinning.decrementAndGet();
+            return;
+        }
+        worker.spinning = true;
+        worker.parked = false;
+        LockSupport.unpark(worker);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (state != RUNNING) {
+            throw new RejectedExecutionException("scheduler is shut down");
+        }
+        Task task = command instanceof Task ? (Task) command : new RunnableTask(command);
+        Thread current = Thread.currentThread();
+        if (current instanceof Worker && ((Worker) current).owner() == this) {
+            Worker worker = (Worker) current;
+            Task kicked = worker.runNext.getAndSet(task);
+            if (kicked != null) {
+                worker.push(kicked);
+                wakeIdle();
+            }
+        } else {
+            inject(task, task, 1);
+            wakeIdle();
+        }
+    }
+
+    private void wakeAll() {
+        synchronized (idleWorkers) {
+            idleWorkers.clear();
+            idleCount = 0;
+        }
+        for (Worker worker : workers) {
+            worker.parked = false;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (state == RUNNING) {
+            state = SHUTDOWN;
+        }
+        wakeAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        state = STOP;
+        wakeAll();
+        List<Runnable> remaining = new ArrayList<>();
+        synchronized (sharedLock) {
+            for (Task task = sharedHead; task != null; task = task.nextInQueue) {
+                remaining.add(task);
+            }
+            sharedHead = null;
+            sharedTail = null;
+            sharedSize = 0;
+        }
+        return remaining;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return liveWorkers.get() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (liveWorkers.get() != 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+        }
+        return true;
+    }
+}
@@ -12,7 +12,7 @@ public interface IOAction<T> extends Monad<IOAction<?>, T> {
     T perform() throws Exception;
 
     default <U> IOAction<U> bind(Function<T, Monad<IOAction<?>, U>> fun) {
-        return () -> fromMonad(fun.apply(perform())).perform();
+        return new Trampoline.Bind<>(this, fun);
     }
 
     default <U> IOAction<U> then(Monad<IOAction<?>, U> monad) {
@@ -20,7 +20,7 @@ public interface IOAction<T> extends Monad<IOAction<?>, T> {
     }
 
     static <T> IOAction<T> unit(T value) {
-        return () -> value;
+        return new Trampoline.Pure<>(value);
     }
 
     default <E extends Throwable> IOAction<T> wrapException(Class<E> cls, Function<E, IOAction<T>> handler) {
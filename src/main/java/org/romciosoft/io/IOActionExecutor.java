@@ -1,26 +1,258 @@
 package org.romciosoft.io;
 
+import org.romciosoft.metrics.ExecutorMetrics;
+import org.romciosoft.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class IOActionExecutor {
-    private ScheduledExecutorService executorService;
+    private static class InlineState {
+        int depth = 0;
+        long sliceStart;
+    }
+
+    private static class ActionTask extends Task {
+        private final IOAction<?> action;
+
+        ActionTask(IOAction<?> action) {
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            try {
+                action.perform();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static class Constant {
+        final Object value;
+        final Promise<?> promise;
+
+        Constant(Object value, Promise<?> promise) {
+            this.value = value;
+            this.promise = promise;
+        }
+    }
+
+    private static final int MAX_CONSTANTS = 8;
+    private static final ThreadLocal<InlineState> INLINE_STATE = ThreadLocal.withInitial(InlineState::new);
+
+    private ExecutorService executorService;
+    private ScheduledExecutorService timer;
+    private TimingWheel wheel;
+    private int maxInlineDepth;
+    private long inlineBudgetNanos;
+    private MetricsRegistry metricsRegistry;
+    private ExecutorMetrics metrics;
+    private final Promise<?> nullPromise = Promise.delivered(this, null);
+    private final Promise<?> truePromise = Promise.delivered(this, true);
+    private final Promise<?> falsePromise = Promise.delivered(this, false);
+    // copied on write, and never longer than MAX_CONSTANTS
+    private volatile Constant[] constants = new Constant[0];
 
     public IOActionExecutor(ScheduledExecutorService executorService) {
+        this(executorService, 0, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public IOActionExecutor(ScheduledExecutorService executorService, MetricsRegistry metricsRegistry) {
+        this(executorService, 0, 0, TimeUnit.NANOSECONDS, metricsRegistry);
+    }
+
+    public IOActionExecutor(ScheduledExecutorService executorService, int maxInlineDepth, long inlineBudget, TimeUnit unit) {
+        this(executorService, maxInlineDepth, inlineBudget, unit, MetricsRegistry.NOOP);
+    }
+
+    public IOActionExecutor(ScheduledExecutorService executorService, int maxInlineDepth, long inlineBudget, TimeUnit unit,
+                            MetricsRegistry metricsRegistry) {
+        this(executorService, executorService, maxInlineDepth, inlineBudget, unit, metricsRegistry);
+    }
+
+    /**
+     * Creates an executor that runs actions on executorService and only uses timer to wait out the delays
+     * of scheduled actions, which then run on executorService as well. This allows running on an executor
+     * without timers of its own, such as a ForkJoinPool or {@link VirtualThreads#newExecutorService()}.
+     */
+    public IOActionExecutor(ExecutorService executorService, ScheduledExecutorService timer) {
+        this(executorService, timer, 0, 0, TimeUnit.NANOSECONDS, MetricsRegistry.NOOP);
+    }
+
+    /**
+     * Creates an executor that lets {@link #execute(IOAction)} run actions on the calling thread. At most
+     * maxInlineDepth actions are nested that way, and once a thread has been running inline actions for
+     * longer than inlineBudget the next one is submitted to the pool instead, so that other processes
+     * get their turn. Channels, selects and tasks running on the executor report to metricsRegistry.
+     */
+    public IOActionExecutor(ExecutorService executorService, ScheduledExecutorService timer,
+                            int maxInlineDepth, long inlineBudget, TimeUnit unit, MetricsRegistry metricsRegistry) {
+        this(executorService, timer, null, maxInlineDepth, inlineBudget, unit, metricsRegistry);
+    }
+
+    /**
+     * Creates an executor whose delays are kept by a timing wheel rather than a ScheduledExecutorService,
+     * which scales to millions of pending timers.
+     */
+    public IOActionExecutor(ExecutorService executorService, TimingWheel wheel) {
+        this(executorService, wheel, 0, 0, TimeUnit.NANOSECONDS, MetricsRegistry.NOOP);
+    }
+
+    public IOActionExecutor(ExecutorService executorService, TimingWheel wheel,
+                            int maxInlineDepth, long inlineBudget, TimeUnit unit, MetricsRegistry metricsRegistry) {
+        this(executorService, null, wheel, maxInlineDepth, inlineBudget, unit, metricsRegistry);
+    }
+
+    private IOActionExecutor(ExecutorService executorService, ScheduledExecutorService timer, TimingWheel wheel,
+                             int maxInlineDepth, long inlineBudget, TimeUnit unit, MetricsRegistry metricsRegistry) {
+        if (maxInlineDepth < 0 || inlineBudget < 0) {
+            throw new IllegalArgumentException("negative inline budget");
+        }
         this.executorService = executorService;
+        this.timer = timer;
+        this.wheel = wheel;
+        this.maxInlineDepth = maxInlineDepth;
+        this.inlineBudgetNanos = unit.toNanos(inlineBudget);
+        this.metricsRegistry = metricsRegistry;
+        this.metrics = metricsRegistry.executor();
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Returns a delivered promise of the given value, the same one on every call, so that actions whose
+     * result is a constant need not allocate one. Meant for null, booleans and singletons such as
+     * Maybe.nothing(): any other value is matched by identity, and only the first MAX_CONSTANTS of them
+     * are kept, after which every call gets a promise of its own.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Promise<T> constantPromise(T value) {
+        if (value == null) {
+            return (Promise<T>) nullPromise;
+        }
+        if (value instanceof Boolean) {
+            return (Promise<T>) ((Boolean) value ? truePromise : falsePromise);
+        }
+        for (Constant constant : constants) {
+            if (constant.value == value) {
+                return (Promise<T>) constant.promise;
+            }
+        }
+        return addConstant(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Promise<T> addConstant(T value) {
+        Constant[] known = constants;
+        for (Constant constant : known) {
+            if (constant.value == value) {
+                return (Promise<T>) constant.promise;
+            }
+        }
+        Promise<T> promise = Promise.delivered(this, value);
+        if (known.length < MAX_CONSTANTS) {
+            Constant[] more = Arrays.copyOf(known, known.length + 1);
+            more[known.length] = new Constant(value, promise);
+            constants = more;
+        }
+        return promise;
     }
 
     public IOAction<Void> submit(IOAction<Void> action) {
+        if (metricsRegistry.isEnabled()) {
+            return () -> {
+                long submittedAt = System.nanoTime();
+                metrics.submitted();
+                executorService.execute(new ActionTask(() -> {
+                    metrics.started(System.nanoTime() - submittedAt);
+                    try {
+                        return action.perform();
+                    } finally {
+                        metrics.finished();
+                    }
+                }));
+                return null;
+            };
+        }
         return () -> {
-            executorService.submit(() -> action.perform());
+            executorService.execute(new ActionTask(action));
             return null;
         };
     }
 
-    public IOAction<Void> schedule(IOAction<Void> action, long delay, TimeUnit unit) {
+    /**
+     * Submits a task that is its own queue node, so that a {@link HandoffScheduler} takes it without
+     * wrapping.
+     */
+    void dispatch(Task task) throws Exception {
+        if (metricsRegistry.isEnabled()) {
+            submit(() -> {
+                task.run();
+                return null;
+            }).perform();
+        } else {
+            executorService.execute(task);
+        }
+    }
+
+    /**
+     * Like {@link #submit(IOAction)}, but runs the action right away on the current thread while the
+     * inline budget lasts. As with submitted actions, a failure of the action is not propagated.
+     */
+    public IOAction<Void> execute(IOAction<Void> action) {
+        if (maxInlineDepth == 0) {
+            return submit(action);
+        }
         return () -> {
-            executorService.schedule(() -> action.perform(), delay, unit);
+            InlineState state = INLINE_STATE.get();
+            if (state.depth == 0) {
+                state.sliceStart = System.nanoTime();
+            } else if (state.depth >= maxInlineDepth || System.nanoTime() - state.sliceStart > inlineBudgetNanos) {
+                return submit(action).perform();
+            }
+            state.depth++;
+            try {
+                action.perform();
+            } catch (Exception ignored) {
+            } finally {
+                state.depth--;
+            }
             return null;
         };
     }
+
+    public IOAction<Void> schedule(IOAction<Void> action, long delay, TimeUnit unit) {
+        return scheduleCancellable(action, delay, unit).then(IOAction.unit(null));
+    }
+
+    /**
+     * Like {@link #schedule}, but yields a handle that can stop the action from running, e.g. a timeout
+     * that is no longer needed.
+     */
+    public IOAction<Timeout> scheduleCancellable(IOAction<Void> action, long delay, TimeUnit unit) {
+        return () -> {
+            metrics.scheduled();
+            if (wheel != null) {
+                return wheel.schedule(() -> {
+                    try {
+                        submit(action).perform();
+                    } catch (Exception ignored) {
+                    }
+                }, delay, unit);
+            }
+            ScheduledFuture<?> future;
+            if (timer == executorService) {
+                future = timer.schedule(() -> action.perform(), delay, unit);
+            } else {
+                future = timer.schedule(() -> submit(action).perform(), delay, unit);
+            }
+            return () -> future.cancel(false);
+        };
+    }
 }
@@ -1,77 +1,168 @@
 package org.romciosoft.io;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Function;
 
 public class Promise<T> {
-    private boolean isCompleted;
-    private T value;
-    private Queue<Function<T, IOAction<Void>>> callbacks;
+    /**
+     * A callback waiting on the stack; once the value is in, the same object is dispatched as the task
+     * that runs it. If the promise fails instead, only a callback with a failure handler is dispatched.
+     */
+    private static class Callback<T> extends Task {
+        final Function<T, IOAction<Void>> fun;
+        final Function<Exception, IOAction<Void>> onFailure;
+        Callback<T> next;
+        T value;
+        Exception failure;
+
+        Callback(Function<T, IOAction<Void>> fun, Function<Exception, IOAction<Void>> onFailure, Callback<T> next) {
+            this.fun = fun;
+            this.onFailure = onFailure;
+            this.next = next;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (failure == null) {
+                    fun.apply(value).perform();
+                } else {
+                    onFailure.apply(failure).perform();
+                }
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static class Completed<T> {
+        final T value;
+
+        Completed(T value) {
+            this.value = value;
+        }
+    }
+
+    private static class Failed {
+        final Exception failure;
+
+        Failed(Exception failure) {
+            this.failure = failure;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "state");
+
+    // the state of a promise created with its value, which is then kept in the value field
+    private static final Object DELIVERED = new Object();
+
+    /*
+     * null or a Callback stack while pending, a Completed once delivered, a Failed once failed, or DELIVERED
+     * from the start. Every transition is a single CAS, and callbacks are dispatched only after the CAS that
+     * detached them.
+     */
+    private volatile Object state;
     private IOActionExecutor executor;
-    private ReentrantLock lock = new ReentrantLock();
+    private T value;
 
     private Promise(IOActionExecutor executor) {
         this.executor = executor;
-        isCompleted = false;
-        callbacks = new LinkedList<>();
     }
 
     private Promise(IOActionExecutor executor, T value) {
         this.executor = executor;
         this.value = value;
-        isCompleted = true;
+        state = DELIVERED;
+    }
+
+    static <T> Promise<T> delivered(IOActionExecutor exe, T value) {
+        return new Promise<>(exe, value);
     }
 
     public static <T> IOAction<Promise<T>> newPromise(IOActionExecutor exe) {
-        return () -> new Promise(exe);
+        return () -> new Promise<>(exe);
     }
 
     public static <T> IOAction<Promise<T>> newPromise(IOActionExecutor exe, T value) {
-        return () -> new Promise(exe, value);
+        return () -> new Promise<>(exe, value);
     }
 
-    private void _deliver(T value) throws Exception {
-        try {
-            lock.lock();
-            if (isCompleted) {
-                throw new IllegalStateException("Promise already delivered");
+    @SuppressWarnings("unchecked")
+    private boolean complete(Object settled, T value, Exception failure) throws Exception {
+        Object current;
+        do {
+            current = state;
+            if (current == DELIVERED || current instanceof Completed || current instanceof Failed) {
+                return false;
             }
-            isCompleted = true;
-            this.value = value;
-            while (!callbacks.isEmpty()) {
-                Function<T, IOAction<Void>> cbk = callbacks.poll();
-                executor.submit(cbk.apply(value)).perform();
+        } while (!STATE.compareAndSet(this, current, settled));
+        Callback<T> reversed = null;
+        for (Callback<T> cbk = (Callback<T>) current; cbk != null; ) {
+            Callback<T> next = cbk.next;
+            cbk.next = reversed;
+            reversed = cbk;
+            cbk = next;
+        }
+        while (reversed != null) {
+            Callback<T> cbk = reversed;
+            reversed = cbk.next;
+            if (failure == null) {
+                cbk.value = value;
+                executor.dispatch(cbk);
+            } else if (cbk.onFailure != null) {
+                cbk.failure = failure;
+                executor.dispatch(cbk);
             }
-        } finally {
-            lock.unlock();
+        }
+        return true;
+    }
+
+    private void _deliver(T value) throws Exception {
+        if (!complete(new Completed<>(value), value, null)) {
+            throw new IllegalStateException("Promise already delivered");
         }
     }
 
     private boolean _tryDeliver(T value) throws Exception {
-        try {
-            lock.lock();
-            if (isCompleted) {
-                return false;
-            }
-            _deliver(value);
-            return true;
-        } finally {
-            lock.unlock();
+        return complete(new Completed<>(value), value, null);
+    }
+
+    private boolean _tryFail(Exception failure) throws Exception {
+        if (failure == null) {
+            throw new NullPointerException("failure");
         }
+        return complete(new Failed(failure), null, failure);
     }
 
-    private void _addCallback(Function<T, IOAction<Void>> cbk) throws Exception {
-        try {
-            lock.lock();
-            if (isCompleted) {
-                executor.submit(cbk.apply(value)).perform();
+    @SuppressWarnings("unchecked")
+    private void _addCallback(Function<T, IOAction<Void>> cbk, Function<Exception, IOAction<Void>> onFailure)
+            throws Exception {
+        Callback<T> node = null;
+        while (true) {
+            Object current = state;
+            if (current == DELIVERED) {
+                executor.execute(cbk.apply(value)).perform();
+                return;
+            }
+            if (current instanceof Completed) {
+                executor.execute(cbk.apply(((Completed<T>) current).value)).perform();
+                return;
+            }
+            if (current instanceof Failed) {
+                if (onFailure != null) {
+                    executor.execute(onFailure.apply(((Failed) current).failure)).perform();
+                }
+                return;
+            }
+            if (node == null) {
+                node = new Callback<>(cbk, onFailure, (Callback<T>) current);
             } else {
-                callbacks.offer(cbk);
+                node.next = (Callback<T>) current;
+            }
+            if (STATE.compareAndSet(this, current, node)) {
+                return;
             }
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -86,9 +177,36 @@ public class Promise<T> {
         return () -> _tryDeliver(value);
     }
 
+    /**
+     * Settles the promise with a failure instead of a value. Callbacks added without a failure handler never
+     * run, and actions bound to the promise fail in turn.
+     */
+    public IOAction<Void> fail(Exception failure) {
+        return () -> {
+            if (!_tryFail(failure)) {
+                throw new IllegalStateException("Promise already delivered");
+            }
+            return null;
+        };
+    }
+
+    public IOAction<Boolean> tryFail(Exception failure) {
+        return () -> _tryFail(failure);
+    }
+
     public IOAction<Void> addCallback(Function<T, IOAction<Void>> cbk) {
         return () -> {
-            _addCallback(cbk);
+            _addCallback(cbk, null);
+            return null;
+        };
+    }
+
+    /**
+     * Adds a callback for the value and one for the failure, of which exactly one runs.
+     */
+    public IOAction<Void> addCallback(Function<T, IOAction<Void>> cbk, Function<Exception, IOAction<Void>> onFailure) {
+        return () -> {
+            _addCallback(cbk, onFailure);
             return null;
         };
     }
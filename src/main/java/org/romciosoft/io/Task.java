@@ -0,0 +1,10 @@
+package org.romciosoft.io;
+
+/**
+ * A unit of work that is its own queue node, so handing it to an executor allocates nothing on top of it.
+ * Executors other than {@link HandoffScheduler} just see a Runnable.
+ */
+abstract class Task implements Runnable {
+    // only used while the task sits in HandoffScheduler's shared queue
+    Task nextInQueue;
+}
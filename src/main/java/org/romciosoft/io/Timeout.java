@@ -0,0 +1,12 @@
+package org.romciosoft.io;
+
+/**
+ * Handle of a scheduled action.
+ */
+@FunctionalInterface
+public interface Timeout {
+    /**
+     * Prevents the action from running. Returns false if it has already run or been cancelled.
+     */
+    boolean cancel();
+}
@@ -0,0 +1,247 @@
+package org.romciosoft.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed hierarchical timing wheel driven by a single ticker thread. Time is counted in ticks of a
+ * configurable length; a deadline is split into digits of log2(wheelSize) bits, and a timer lives in the
+ * lowest level whose digit differs from the current tick, in the slot given by its digit there. When the
+ * lower digits of the current tick roll over to zero, the timers of the next slot up are redistributed
+ * among the lower levels. Scheduling and cancelling are O(1): both only push the timer onto a lock-free
+ * stack, and the ticker thread, the only one that touches the wheels, links or unlinks it on its next tick.
+ * <p>
+ * Expired actions run on the ticker thread, so they should only hand work over to an executor, as
+ * {@link IOActionExecutor#schedule} does. Timers fire at the end of the tick their deadline falls into,
+ * never early.
+ */
+public class TimingWheel {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final class Bucket {
+        Entry head, tail;
+    }
+
+    private static final class Entry implements Timeout {
+        private static final AtomicIntegerFieldUpdater<Entry> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        final TimingWheel wheel;
+        final Runnable action;
+        final long deadline;
+        volatile int state = PENDING;
+        // owned by the ticker thread
+        Entry prev, next;
+        Bucket bucket;
+        // links of the insertion and cancellation stacks
+        Entry nextAdded, nextCancelled;
+
+        Entry(TimingWheel wheel, Runnable action, long deadline) {
+            this.wheel = wheel;
+            this.action = action;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.push(wheel.cancelled, this, true);
+            return true;
+        }
+
+        boolean expire() {
+            return STATE.compareAndSet(this, PENDING, EXPIRED);
+        }
+    }
+
+    private final long tickNanos;
+    private final int bits;
+    private final int mask;
+    private final Bucket[][] levels;
+    private final long startNanos;
+    private final AtomicReference<Entry> added = new AtomicReference<>();
+    private final AtomicReference<Entry> cancelled = new AtomicReference<>();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    public TimingWheel() {
+        this(1, TimeUnit.MILLISECONDS, 512);
+    }
+
+    public TimingWheel(long tick, TimeUnit unit) {
+        this(tick, unit, 512);
+    }
+
+    /**
+     * Creates a wheel with ticks of the given length and wheelSize slots per level, which must be a power of
+     * two, and starts its ticker thread.
+     */
+    public TimingWheel(long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheel size must be a power of two");
+        }
+        tickNanos = unit.toNanos(tick);
+        bits = Integer.numberOfTrailingZeros(wheelSize);
+        mask = wheelSize - 1;
+        levels = new Bucket[(63 + bits - 1) / bits][wheelSize];
+        for (Bucket[] level : levels) {
+            for (int i = 0; i < wheelSize; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        startNanos = System.nanoTime();
+        ticker = new Thread(this::run, "timing-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Runs the action on the ticker thread once the delay has passed.
+     */
+    public Timeout schedule(Runnable action, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("timing wheel is stopped");
+        }
+        long elapsed = System.nanoTime() - startNanos + unit.toNanos(Math.max(delay, 0));
+        // the end of the tick that the deadline falls into
+        Entry entry = new Entry(this, action, elapsed / tickNanos + 1);
+        push(added, entry, false);
+        return entry;
+    }
+
+    /**
+     * Stops the ticker thread. Timers that have not fired by then never will.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private void push(AtomicReference<Entry> stack, Entry entry, boolean cancel) {
+        Entry top;
+        do {
+            top = stack.get();
+            if (cancel) {
+                entry.nextCancelled = top;
+            } else {
+                entry.nextAdded = top;
+            }
+        } while (!stack.compareAndSet(top, entry));
+    }
+
+    private void link(Entry entry, long now) {
+        if (entry.deadline <= now) {
+            // only happens for entries added or cascaded late; keeps them in the slot being expired
+            append(levels[0][(int) (now & mask)], entry);
+            return;
+        }
+        int level = 0;
+        while (level < levels.length - 1
+                && (entry.deadline >>> ((level + 1) * bits)) != (now >>> ((level + 1) * bits))) {
+            level++;
+        }
+        append(levels[level][(int) ((entry.deadline >>> (level * bits)) & mask)], entry);
+    }
+
+    private static void append(Bucket bucket, Entry entry) {
+        entry.bucket = bucket;
+        entry.prev = bucket.tail;
+        entry.next = null;
+        if (bucket.tail == null) {
+            bucket.head = entry;
+        } else {
+            bucket.tail.next = entry;
+        }
+        bucket.tail = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        Bucket bucket = entry.bucket;
+        if (bucket == null) {
+            return;
+        }
+        if (entry.prev == null) {
+            bucket.head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            bucket.tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = null;
+    }
+
+    private static Entry detachAll(Bucket bucket) {
+        Entry head = bucket.head;
+        bucket.head = null;
+        bucket.tail = null;
+        return head;
+    }
+
+    private void processTick(long now) {
+        for (Entry entry = cancelled.getAndSet(null); entry != null; ) {
+            Entry next = entry.nextCancelled;
+            entry.nextCancelled = null;
+            unlink(entry);
+            entry = next;
+        }
+        for (Entry entry = added.getAndSet(null); entry != null; ) {
+            Entry next = entry.nextAdded;
+            entry.nextAdded = null;
+            if (entry.state == PENDING) {
+                link(entry, now);
+            }
+            entry = next;
+        }
+        for (int level = levels.length - 1; level > 0; level--) {
+            if ((now & ((1L << (level * bits)) - 1)) != 0) {
+                continue;
+            }
+            for (Entry entry = detachAll(levels[level][(int) ((now >>> (level * bits)) & mask)]); entry != null; ) {
+                Entry next = entry.next;
+                link(entry, now);
+                entry = next;
+            }
+        }
+        for (Entry entry = detachAll(levels[0][(int) (now & mask)]); entry != null; ) {
+            Entry next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+            if (entry.expire()) {
+                try {
+                    entry.action.run();
+                } catch (Throwable e) {
+                    Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                }
+            }
+            entry = next;
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long wakeAt = startNanos + (tick + 1) * tickNanos;
+            long sleep;
+            while (running && (sleep = wakeAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            tick++;
+            processTick(tick);
+        }
+    }
+}
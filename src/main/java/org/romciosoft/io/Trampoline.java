@@ -0,0 +1,62 @@
+package org.romciosoft.io;
+
+import org.romciosoft.monad.Monad;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Function;
+
+/**
+ * Reified {@link IOAction} nodes and the loop that interprets them. Binding builds a tree of nodes
+ * instead of nesting lambdas, so performing a chain of any length runs in constant stack depth.
+ */
+final class Trampoline {
+    private Trampoline() {
+    }
+
+    static final class Pure<T> implements IOAction<T> {
+        private final T value;
+
+        Pure(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public T perform() {
+            return value;
+        }
+    }
+
+    static final class Bind<T, U> implements IOAction<U> {
+        private final IOAction<T> source;
+        private final Function<T, Monad<IOAction<?>, U>> fun;
+
+        Bind(IOAction<T> source, Function<T, Monad<IOAction<?>, U>> fun) {
+            this.source = source;
+            this.fun = fun;
+        }
+
+        @Override
+        public U perform() throws Exception {
+            return run(this);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T run(Bind<?, T> action) throws Exception {
+        Deque<Function<Object, Monad<IOAction<?>, ?>>> continuations = new ArrayDeque<>();
+        IOAction<?> current = action;
+        while (true) {
+            while (current instanceof Bind) {
+                Bind<Object, ?> bind = (Bind<Object, ?>) current;
+                continuations.push((Function<Object, Monad<IOAction<?>, ?>>) (Function<?, ?>) bind.fun);
+                current = bind.source;
+            }
+            Object value = current.perform();
+            if (continuations.isEmpty()) {
+                return (T) value;
+            }
+            current = (IOAction<?>) continuations.pop().apply(value);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.romciosoft.io;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Access to virtual threads, which need Java 21. This is the Java 8 version of the class; the jar built on
+ * JDK 21 also carries a version under META-INF/versions/21 that is picked instead on Java 21 and later.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for every task, so that actions may block
+     * without tying up a platform thread.
+     */
+    public static ExecutorService newExecutorService() {
+        throw new UnsupportedOperationException("virtual threads need Java 21");
+    }
+
+    /**
+     * Returns an IOActionExecutor that runs every action on its own virtual thread and waits out delays of
+     * scheduled actions on timer.
+     */
+    public static IOActionExecutor newIOActionExecutor(ScheduledExecutorService timer) {
+        return new IOActionExecutor(newExecutorService(), timer);
+    }
+}
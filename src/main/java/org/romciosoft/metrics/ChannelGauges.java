@@ -0,0 +1,10 @@
+package org.romciosoft.metrics;
+
+/**
+ * Point-in-time state of a channel, read by a registry whenever it is asked for it.
+ */
+public interface ChannelGauges {
+    int waitingSenders();
+    int waitingReceivers();
+    int bufferedMessages();
+}
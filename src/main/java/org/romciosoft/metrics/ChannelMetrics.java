@@ -0,0 +1,32 @@
+package org.romciosoft.metrics;
+
+public interface ChannelMetrics {
+    ChannelMetrics NOOP = new ChannelMetrics() {
+        @Override
+        public void sent() {
+        }
+
+        @Override
+        public void received() {
+        }
+
+        @Override
+        public void waited(long nanos) {
+        }
+    };
+
+    /**
+     * A message entered the channel, either handed straight to a receiver or put into the buffer.
+     */
+    void sent();
+
+    /**
+     * A message left the channel.
+     */
+    void received();
+
+    /**
+     * A sender or receiver that had to wait on the channel was served after the given time.
+     */
+    void waited(long nanos);
+}
@@ -0,0 +1,123 @@
+package org.romciosoft.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Statistics of all channels created under one name and kind. The channels themselves are only weakly
+ * referenced, so registering one does not keep it alive; gauges sum over the channels still around.
+ */
+public class ChannelStats implements ChannelMetrics, ChannelStatsMBean {
+    private final String name;
+    private final String kind;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final Histogram waits = new Histogram();
+    private final List<WeakReference<ChannelGauges>> channels = new ArrayList<>();
+    private int pruneAt = 16;
+
+    ChannelStats(String name, String kind) {
+        this.name = name;
+        this.kind = kind;
+    }
+
+    synchronized void add(ChannelGauges gauges) {
+        if (channels.size() >= pruneAt) {
+            prune();
+            pruneAt = Math.max(16, 2 * channels.size());
+        }
+        channels.add(new WeakReference<>(gauges));
+    }
+
+    private void prune() {
+        channels.removeIf(ref -> ref.get() == null);
+    }
+
+    private synchronized int sum(ToIntFunction<ChannelGauges> gauge) {
+        int sum = 0;
+        for (Iterator<WeakReference<ChannelGauges>> it = channels.iterator(); it.hasNext(); ) {
+            ChannelGauges gauges = it.next().get();
+            if (gauges == null) {
+                it.remove();
+            } else {
+                sum += gauge.applyAsInt(gauges);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public void sent() {
+        sent.increment();
+    }
+
+    @Override
+    public void received() {
+        received.increment();
+    }
+
+    @Override
+    public void waited(long nanos) {
+        waits.record(nanos);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getKind() {
+        return kind;
+    }
+
+    @Override
+    public long getSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public int getWaitingSenders() {
+        return sum(ChannelGauges::waitingSenders);
+    }
+
+    @Override
+    public int getWaitingReceivers() {
+        return sum(ChannelGauges::waitingReceivers);
+    }
+
+    @Override
+    public int getBufferedMessages() {
+        return sum(ChannelGauges::bufferedMessages);
+    }
+
+    @Override
+    public long getWaitCount() {
+        return waits.getCount();
+    }
+
+    @Override
+    public double getMeanWaitMicros() {
+        return waits.getMean() / 1000;
+    }
+
+    @Override
+    public long getP99WaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(waits.getPercentile(99));
+    }
+
+    @Override
+    public long getMaxWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(waits.getMax());
+    }
+}
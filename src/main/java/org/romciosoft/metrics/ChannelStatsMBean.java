@@ -0,0 +1,15 @@
+package org.romciosoft.metrics;
+
+public interface ChannelStatsMBean {
+    String getName();
+    String getKind();
+    long getSent();
+    long getReceived();
+    int getWaitingSenders();
+    int getWaitingReceivers();
+    int getBufferedMessages();
+    long getWaitCount();
+    double getMeanWaitMicros();
+    long getP99WaitMicros();
+    long getMaxWaitMicros();
+}
@@ -0,0 +1,31 @@
+package org.romciosoft.metrics;
+
+public interface ExecutorMetrics {
+    ExecutorMetrics NOOP = new ExecutorMetrics() {
+        @Override
+        public void submitted() {
+        }
+
+        @Override
+        public void scheduled() {
+        }
+
+        @Override
+        public void started(long queuedNanos) {
+        }
+
+        @Override
+        public void finished() {
+        }
+    };
+
+    void submitted();
+    void scheduled();
+
+    /**
+     * A submitted task started running after waiting in the queue for the given time.
+     */
+    void started(long queuedNanos);
+
+    void finished();
+}
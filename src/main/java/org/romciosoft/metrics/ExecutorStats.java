@@ -0,0 +1,79 @@
+package org.romciosoft.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ExecutorStats implements ExecutorMetrics, ExecutorStatsMBean {
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final Histogram queueLatency = new Histogram();
+
+    ExecutorStats() {
+    }
+
+    @Override
+    public void submitted() {
+        submitted.increment();
+    }
+
+    @Override
+    public void scheduled() {
+        scheduled.increment();
+    }
+
+    @Override
+    public void started(long queuedNanos) {
+        queueLatency.record(queuedNanos);
+    }
+
+    @Override
+    public void finished() {
+        finished.increment();
+    }
+
+    @Override
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getScheduled() {
+        return scheduled.sum();
+    }
+
+    @Override
+    public long getStarted() {
+        return queueLatency.getCount();
+    }
+
+    @Override
+    public long getFinished() {
+        return finished.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return Math.max(0, getSubmitted() - getStarted());
+    }
+
+    @Override
+    public long getRunning() {
+        return Math.max(0, getStarted() - getFinished());
+    }
+
+    @Override
+    public double getMeanQueueLatencyMicros() {
+        return queueLatency.getMean() / 1000;
+    }
+
+    @Override
+    public long getP99QueueLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getMaxQueueLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueLatency.getMax());
+    }
+}
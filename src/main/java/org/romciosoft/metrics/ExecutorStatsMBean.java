@@ -0,0 +1,13 @@
+package org.romciosoft.metrics;
+
+public interface ExecutorStatsMBean {
+    long getSubmitted();
+    long getScheduled();
+    long getStarted();
+    long getFinished();
+    long getQueueDepth();
+    long getRunning();
+    double getMeanQueueLatencyMicros();
+    long getP99QueueLatencyMicros();
+    long getMaxQueueLatencyMicros();
+}
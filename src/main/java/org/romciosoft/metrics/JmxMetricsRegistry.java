@@ -0,0 +1,131 @@
+package org.romciosoft.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps statistics in memory and publishes them as MBeans: one per executor registry, one for selects, one
+ * per channel name and kind and one per service name. Unnamed channels of a kind, like unnamed services,
+ * share a single "&lt;unnamed&gt;" MBean. A registry owns its domain on the server: creating a second one
+ * there fails with an IllegalStateException rather than taking over the first one's MBeans.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    private static final String UNNAMED = "<unnamed>";
+
+    private final MBeanServer server;
+    private final String domain;
+    private final Map<ObjectName, ChannelStats> channels = new ConcurrentHashMap<>();
+    private final Map<ObjectName, ServiceStats> services = new ConcurrentHashMap<>();
+    private final SelectStats select = new SelectStats();
+    private final ExecutorStats executor = new ExecutorStats();
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer(), "org.romciosoft.csp");
+    }
+
+    public JmxMetricsRegistry(MBeanServer server, String domain) {
+        this.server = server;
+        this.domain = domain;
+        register(objectName("Select", null, null), select);
+        register(objectName("Executor", null, null), executor);
+    }
+
+    private ObjectName objectName(String type, String kind, String name) {
+        StringBuilder sb = new StringBuilder(domain).append(":type=").append(type);
+        if (kind != null) {
+            sb.append(",kind=").append(kind).append(",name=").append(ObjectName.quote(name));
+        }
+        try {
+            return new ObjectName(sb.toString());
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void register(ObjectName objectName, Object mbean) {
+        try {
+            server.registerMBean(mbean, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException(objectName + " is already registered, by another registry in the "
+                    + "same domain", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + objectName, e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public ChannelMetrics channel(String name, String type, ChannelGauges gauges) {
+        String statsName = name == null ? UNNAMED : name;
+        ChannelStats stats = channels.computeIfAbsent(objectName("Channel", type, statsName), objectName -> {
+            ChannelStats created = new ChannelStats(statsName, type);
+            register(objectName, created);
+            return created;
+        });
+        stats.add(gauges);
+        return stats;
+    }
+
+    @Override
+    public ServiceStats service(String name) {
+        String statsName = name == null ? UNNAMED : name;
+        return services.computeIfAbsent(objectName("Service", "pool", statsName), objectName -> {
+            ServiceStats created = new ServiceStats(statsName);
+            register(objectName, created);
+            return created;
+        });
+    }
+
+    @Override
+    public SelectStats select() {
+        return select;
+    }
+
+    @Override
+    public ExecutorStats executor() {
+        return executor;
+    }
+
+    /**
+     * Returns the statistics of channels of the given kind ("unbuffered" or "buffered") created under the
+     * given name, or null if there were none.
+     */
+    public ChannelStats getChannelStats(String kind, String name) {
+        return channels.get(objectName("Channel", kind, name == null ? UNNAMED : name));
+    }
+
+    /**
+     * Returns the statistics of services created under the given name, or null if there were none.
+     */
+    public ServiceStats getServiceStats(String name) {
+        return services.get(objectName("Service", "pool", name == null ? UNNAMED : name));
+    }
+
+    /**
+     * Removes all MBeans published by this registry. Statistics are still collected afterwards.
+     */
+    public void unregister() {
+        try {
+            server.unregisterMBean(objectName("Select", null, null));
+            server.unregisterMBean(objectName("Executor", null, null));
+            for (ObjectName objectName : channels.keySet()) {
+                server.unregisterMBean(objectName);
+            }
+            for (ObjectName objectName : services.keySet()) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
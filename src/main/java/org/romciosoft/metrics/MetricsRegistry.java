@@ -0,0 +1,53 @@
+package org.romciosoft.metrics;
+
+/**
+ * The instrumentation SPI. An IOActionExecutor hands its registry to everything it runs: channels
+ * created through it register with {@link #channel}, selects report to {@link #select}, services to
+ * {@link #service} and the executor itself reports to {@link #executor}. {@link #NOOP} is the default and
+ * keeps the instrumented code paths down to calls of empty methods, without taking timestamps.
+ */
+public interface MetricsRegistry {
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public ChannelMetrics channel(String name, String type, ChannelGauges gauges) {
+            return ChannelMetrics.NOOP;
+        }
+
+        @Override
+        public SelectMetrics select() {
+            return SelectMetrics.NOOP;
+        }
+
+        @Override
+        public ExecutorMetrics executor() {
+            return ExecutorMetrics.NOOP;
+        }
+    };
+
+    /**
+     * Whether wait times should be measured at all.
+     */
+    boolean isEnabled();
+
+    /**
+     * Called once per new channel. The name is null for channels created without one.
+     */
+    ChannelMetrics channel(String name, String type, ChannelGauges gauges);
+
+    SelectMetrics select();
+
+    /**
+     * Called once per new worker-pool service. The name is null for services created without one. Defaults
+     * to NOOP, so registries written before services existed keep working.
+     */
+    default ServiceMetrics service(String name) {
+        return ServiceMetrics.NOOP;
+    }
+
+    ExecutorMetrics executor();
+}
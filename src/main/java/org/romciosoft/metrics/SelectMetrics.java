@@ -0,0 +1,38 @@
+package org.romciosoft.metrics;
+
+public interface SelectMetrics {
+    SelectMetrics NOOP = new SelectMetrics() {
+        @Override
+        public void started(int options) {
+        }
+
+        @Override
+        public void completed(long nanos) {
+        }
+
+        @Override
+        public void timedOut() {
+        }
+
+        @Override
+        public void abandoned() {
+        }
+    };
+
+    void started(int options);
+
+    /**
+     * A select completed the given time after it was started.
+     */
+    void completed(long nanos);
+
+    /**
+     * A select gave up waiting when its timeout expired.
+     */
+    void timedOut();
+
+    /**
+     * A select threw while registering with its channels and was taken out of play without completing.
+     */
+    void abandoned();
+}
@@ -0,0 +1,86 @@
+package org.romciosoft.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SelectStats implements SelectMetrics, SelectStatsMBean {
+    private final LongAdder started = new LongAdder();
+    private final LongAdder options = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final Histogram waits = new Histogram();
+
+    SelectStats() {
+    }
+
+    @Override
+    public void started(int options) {
+        started.increment();
+        this.options.add(options);
+    }
+
+    @Override
+    public void completed(long nanos) {
+        waits.record(nanos);
+    }
+
+    @Override
+    public void timedOut() {
+        timedOut.increment();
+    }
+
+    @Override
+    public void abandoned() {
+        abandoned.increment();
+    }
+
+    @Override
+    public long getStarted() {
+        return started.sum();
+    }
+
+    @Override
+    public long getCompleted() {
+        return waits.getCount();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    @Override
+    public long getAbandoned() {
+        return abandoned.sum();
+    }
+
+    /**
+     * Selects that have neither completed, timed out nor been abandoned. The counters are summed one after
+     * the other, so a busy registry may be off by the selects that finished in between.
+     */
+    @Override
+    public long getPending() {
+        return Math.max(0, getStarted() - getCompleted() - getTimedOut() - getAbandoned());
+    }
+
+    @Override
+    public double getMeanOptions() {
+        long n = started.sum();
+        return n == 0 ? 0 : (double) options.sum() / n;
+    }
+
+    @Override
+    public double getMeanWaitMicros() {
+        return waits.getMean() / 1000;
+    }
+
+    @Override
+    public long getP99WaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(waits.getPercentile(99));
+    }
+
+    @Override
+    public long getMaxWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(waits.getMax());
+    }
+}
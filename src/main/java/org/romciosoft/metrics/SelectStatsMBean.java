@@ -0,0 +1,13 @@
+package org.romciosoft.metrics;
+
+public interface SelectStatsMBean {
+    long getStarted();
+    long getCompleted();
+    long getTimedOut();
+    long getAbandoned();
+    long getPending();
+    double getMeanOptions();
+    double getMeanWaitMicros();
+    long getP99WaitMicros();
+    long getMaxWaitMicros();
+}
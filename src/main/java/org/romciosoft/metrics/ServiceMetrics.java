@@ -0,0 +1,32 @@
+package org.romciosoft.metrics;
+
+public interface ServiceMetrics {
+    ServiceMetrics NOOP = new ServiceMetrics() {
+        @Override
+        public void shed() {
+        }
+
+        @Override
+        public void batch(int size) {
+        }
+
+        @Override
+        public void completed(long nanos) {
+        }
+    };
+
+    /**
+     * A request was turned away because the service's queue was full.
+     */
+    void shed();
+
+    /**
+     * A worker passed the given number of requests to the handler in one call.
+     */
+    void batch(int size);
+
+    /**
+     * A request was answered the given time after it was made, including the time it spent queued.
+     */
+    void completed(long nanos);
+}
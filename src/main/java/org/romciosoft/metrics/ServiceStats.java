@@ -0,0 +1,73 @@
+package org.romciosoft.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ServiceStats implements ServiceMetrics, ServiceStatsMBean {
+    private final String name;
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batched = new LongAdder();
+    private final Histogram latencies = new Histogram();
+
+    ServiceStats(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void shed() {
+        shed.increment();
+    }
+
+    @Override
+    public void batch(int size) {
+        batches.increment();
+        batched.add(size);
+    }
+
+    @Override
+    public void completed(long nanos) {
+        latencies.record(nanos);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCompleted() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getShed() {
+        return shed.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        long n = batches.sum();
+        return n == 0 ? 0 : (double) batched.sum() / n;
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latencies.getMean() / 1000;
+    }
+
+    @Override
+    public long getP99LatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99));
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencies.getMax());
+    }
+}
@@ -0,0 +1,12 @@
+package org.romciosoft.metrics;
+
+public interface ServiceStatsMBean {
+    String getName();
+    long getCompleted();
+    long getShed();
+    long getBatches();
+    double getMeanBatchSize();
+    double getMeanLatencyMicros();
+    long getP99LatencyMicros();
+    long getMaxLatencyMicros();
+}
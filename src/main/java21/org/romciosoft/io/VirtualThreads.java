@@ -0,0 +1,33 @@
+package org.romciosoft.io;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Access to virtual threads, Java 21 version.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for every task, so that actions may block
+     * without tying up a platform thread.
+     */
+    public static ExecutorService newExecutorService() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Returns an IOActionExecutor that runs every action on its own virtual thread and waits out delays of
+     * scheduled actions on timer.
+     */
+    public static IOActionExecutor newIOActionExecutor(ScheduledExecutorService timer) {
+        return new IOActionExecutor(newExecutorService(), timer);
+    }
+}
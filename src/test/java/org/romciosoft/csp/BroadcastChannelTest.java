@@ -0,0 +1,185 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class BroadcastChannelTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        return future;
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        return start(action).get(5, TimeUnit.SECONDS);
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(from).then(produce(port, from + 1, to));
+    }
+
+    private static AsyncAction<List<Integer>> consume(ChannelHandle.ReceivePort<Integer> port, List<Integer> into,
+                                                      int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(into);
+        }
+        return port.receive().bind(x -> {
+            into.add(x);
+            return consume(port, into, remaining - 1);
+        });
+    }
+
+    @Test
+    public void everySubscriberGetsEveryMessageInOrder() throws Exception {
+        BroadcastChannel<Integer> ch = perform(CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.BLOCK));
+        List<CompletableFuture<List<Integer>>> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+            received.add(start(consume(port, new ArrayList<>(), 1000)));
+        }
+        perform(produce(ch.getSendPort(), 0, 1000));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(i);
+        }
+        for (CompletableFuture<List<Integer>> future : received) {
+            assertEquals(expected, future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void blockWaitsForTheSlowestSubscriber() throws Exception {
+        BroadcastChannel<Integer> ch = perform(CSP.newBroadcastChannel(2, BroadcastChannel.SlowSubscriberPolicy.BLOCK));
+        ChannelHandle.ReceivePort<Integer> fast = perform(ch.subscribe());
+        ChannelHandle.ReceivePort<Integer> slow = perform(ch.subscribe());
+        assertTrue(perform(ch.getSendPort().trySend(1)));
+        assertTrue(perform(ch.getSendPort().trySend(2)));
+        assertEquals((Integer) 1, perform(fast.receive()));
+        assertEquals((Integer) 2, perform(fast.receive()));
+        assertFalse(perform(ch.getSendPort().trySend(3)));
+        CompletableFuture<Void> sent = start(ch.getSendPort().send(3));
+        assertFalse(sent.isDone());
+        assertEquals((Integer) 1, perform(slow.receive()));
+        sent.get(5, TimeUnit.SECONDS);
+        assertEquals((Integer) 3, perform(fast.receive()));
+        perform(ch.unsubscribe(slow));
+        assertEquals(1, ch.subscribers());
+        assertTrue(perform(ch.getSendPort().trySend(4)));
+        assertTrue(perform(ch.getSendPort().trySend(5)));
+    }
+
+    @Test
+    public void dropOldestSkipsOverwrittenMessages() throws Exception {
+        BroadcastChannel<Integer> ch = perform(
+                CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.DROP_OLDEST));
+        ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(perform(ch.getSendPort().trySend(i)));
+        }
+        assertEquals(Arrays.asList(6, 7, 8, 9), perform(port.receiveUpTo(10)));
+        assertFalse(perform(port.tryReceive()).isPresent());
+        perform(ch.getSendPort().send(10));
+        assertEquals((Integer) 10, perform(port.receive()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void disconnectCutsOffALaggingSubscriber() throws Exception {
+        BroadcastChannel<Integer> ch = perform(
+                CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.DISCONNECT));
+        ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+        for (int i = 0; i < 5; i++) {
+            perform(ch.getSendPort().send(i));
+        }
+        assertEquals(1, ch.subscribers());
+        try {
+            perform(port.receive());
+        } finally {
+            assertEquals(0, ch.subscribers());
+        }
+    }
+
+    @Test
+    public void subscriptionsWorkInSelects() throws Exception {
+        BroadcastChannel<Integer> ch = perform(CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.BLOCK));
+        ChannelHandle<Integer> other = perform(CSP.newChannel());
+        ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+        CompletableFuture<SelectResult<Integer>> selected = start(CSP.<Integer>select()
+                .receive(other.getReceivePort())
+                .receive(port)
+                .build());
+        SelectResult<Integer> sent = perform(CSP.<Integer>select().send(ch.getSendPort(), 42).build());
+        assertEquals(SelectResult.Type.SENT, sent.getType());
+        SelectResult<Integer> result = selected.get(5, TimeUnit.SECONDS);
+        assertSame(port, result.getReceivePort());
+        assertEquals((Integer) 42, result.getReceivedValue());
+    }
+
+    @Test
+    public void unsubscribeFailsWaitingReceivers() throws Exception {
+        BroadcastChannel<Integer> ch = perform(
+                CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.DROP_OLDEST));
+        ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+        CompletableFuture<Integer> waiting = start(port.receive());
+        perform(ch.unsubscribe(port));
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void selectThatThrowsLeavesNoTokenBehind() throws Exception {
+        BroadcastChannel<Integer> ch = perform(
+                CSP.newBroadcastChannel(4, BroadcastChannel.SlowSubscriberPolicy.DROP_OLDEST));
+        ChannelHandle.ReceivePort<Integer> port = perform(ch.subscribe());
+        perform(ch.unsubscribe(port));
+        ChannelHandle<Integer> other = perform(CSP.newChannel());
+        try {
+            // waits on other first, then throws on the unsubscribed port
+            perform(CSP.<Integer>select().receive(other.getReceivePort()).receive(port).build());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(perform(other.getSendPort().trySend(1)));
+    }
+}
@@ -9,6 +9,9 @@ import static org.junit.Assert.assertEquals;
 import org.romciosoft.io.AsyncAction;
 import org.romciosoft.io.IOActionExecutor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
 
 public class BufferedChannelTest {
@@ -75,4 +78,94 @@ public class BufferedChannelTest {
         assertEquals("foo", future1.get());
         assertEquals("bar", future2.get());
     }
+
+    @Test
+    public void selectOnFullBuffer() throws Exception {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        CSP.<Integer>newChannel(1).bind(full -> CSP.<Integer>newChannel(1).bind(free ->
+                full.getSendPort().send(1)
+                        .then(CSP.<Integer>select()
+                                .send(full.getSendPort(), 2)
+                                .send(free.getSendPort(), 3)
+                                .build())
+                        .then(full.getReceivePort().receive())
+                        .bind(x -> free.getReceivePort().receive()
+                                .bind(y -> AsyncAction.wrap(() -> {
+                                    future.complete(x * 10 + y);
+                                    return null;
+                                })))))
+                .getIOAction(ioActionExecutor).perform();
+        assertEquals((Integer) 13, future.get(1, TimeUnit.SECONDS));
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(from).bind(x -> produce(port, from + 1, to));
+    }
+
+    private static AsyncAction<Void> consume(ChannelHandle.ReceivePort<Integer> port, int remaining, long sum,
+                                             CompletableFuture<Long> future) {
+        if (remaining == 0) {
+            return AsyncAction.wrap(() -> {
+                future.complete(sum);
+                return null;
+            });
+        }
+        return port.receive().bind(x -> consume(port, remaining - 1, sum + x, future));
+    }
+
+    @Test
+    public void producersAndConsumers() throws Exception {
+        int producers = 4, consumers = 4, perProducer = 1000, perConsumer = producers * perProducer / consumers;
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        ChannelHandle<Integer> ch = new BufferedChannel<Integer>(3).getHandle();
+        AsyncAction<Void> action = AsyncAction.unit(null);
+        for (int i = 0; i < consumers; i++) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            futures.add(future);
+            action = action.then(AsyncAction.fork(consume(ch.getReceivePort(), perConsumer, 0, future)));
+        }
+        for (int i = 0; i < producers; i++) {
+            action = action.then(AsyncAction.fork(produce(ch.getSendPort(), i * perProducer, (i + 1) * perProducer)));
+        }
+        action.getIOAction(ioActionExecutor).perform();
+        long sum = 0;
+        for (CompletableFuture<Long> future : futures) {
+            sum += future.get(10, TimeUnit.SECONDS);
+        }
+        long n = producers * perProducer;
+        assertEquals(n * (n - 1) / 2, sum);
+    }
+
+    private static AsyncAction<Void> receiveBatches(ChannelHandle.ReceivePort<Integer> port, int remaining,
+                                                    List<Integer> received, CompletableFuture<List<Integer>> future) {
+        if (remaining == 0) {
+            return AsyncAction.wrap(() -> {
+                future.complete(received);
+                return null;
+            });
+        }
+        return port.receiveUpTo(4).bind(batch -> {
+            received.addAll(batch);
+            return receiveBatches(port, remaining - batch.size(), received, future);
+        });
+    }
+
+    @Test
+    public void batchSendAndReceive() throws Exception {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            values.add(i);
+        }
+        for (ChannelHandle<Integer> ch : Arrays.asList(
+                new BufferedChannel<Integer>(3).getHandle(), new UnbufferedChannel<Integer>().getHandle())) {
+            CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+            AsyncAction.fork(ch.getSendPort().sendAll(values))
+                    .then(receiveBatches(ch.getReceivePort(), values.size(), new ArrayList<>(), future))
+                    .getIOAction(ioActionExecutor).perform();
+            assertEquals(values, future.get(10, TimeUnit.SECONDS));
+        }
+    }
 }
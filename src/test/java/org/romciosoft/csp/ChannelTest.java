@@ -7,8 +7,11 @@ import org.romciosoft.io.AsyncAction;
 import org.romciosoft.io.IOActionExecutor;
 
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ChannelTest {
     private ScheduledExecutorService scheduledExecutorService;
@@ -65,4 +68,133 @@ public class ChannelTest {
                         }))).getIOAction(ioActionExecutor).perform();
         future.get(500, TimeUnit.MILLISECONDS);
     }
+
+    private static AsyncAction<Void> sendAll(ChannelHandle.SendPort<Integer> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(from).bind(x -> sendAll(port, from + 1, to));
+    }
+
+    private static AsyncAction<Void> receiveAll(ChannelHandle<Integer> ch, ChannelHandle<Integer> quiet,
+                                                int remaining, long sum, CompletableFuture<Long> future) {
+        if (remaining == 0) {
+            return AsyncAction.wrap(() -> {
+                future.complete(sum);
+                return null;
+            });
+        }
+        if (remaining % 2 == 0) {
+            return ch.getReceivePort().receive().bind(x -> receiveAll(ch, quiet, remaining - 1, sum + x, future));
+        }
+        return CSP.<Integer>select()
+                .receive(quiet.getReceivePort())
+                .receive(ch.getReceivePort())
+                .build()
+                .bind(result -> receiveAll(ch, quiet, remaining - 1, sum + result.getReceivedValue(), future));
+    }
+
+    @Test
+    public void fanInMixedWithSelect() throws Exception {
+        ChannelHandle<Integer> chHandle = new UnbufferedChannel<Integer>().getHandle();
+        ChannelHandle<Integer> quietHandle = new UnbufferedChannel<Integer>().getHandle();
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        int senders = 8, perSender = 500;
+        AsyncAction<Void> action = AsyncAction.fork(receiveAll(chHandle, quietHandle, senders * perSender, 0, future));
+        for (int i = 0; i < senders; i++) {
+            action = action.then(AsyncAction.fork(sendAll(chHandle.getSendPort(), i * perSender, (i + 1) * perSender)));
+        }
+        action.getIOAction(ioActionExecutor).perform();
+        long n = senders * perSender;
+        assertEquals((Long) (n * (n - 1) / 2), future.get(10, TimeUnit.SECONDS));
+    }
+
+    private static AsyncAction<Void> sendTimes(ChannelHandle.SendPort<Integer> port, int value, int times) {
+        if (times == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(value).bind(x -> sendTimes(port, value, times - 1));
+    }
+
+    private static AsyncAction<Void> countFair(ChannelHandle.ReceivePort<Integer> one, ChannelHandle.ReceivePort<Integer> two,
+                                               int remaining, int ones, CompletableFuture<Integer> future) {
+        if (remaining == 0) {
+            return AsyncAction.wrap(() -> {
+                future.complete(ones);
+                return null;
+            });
+        }
+        return CSP.<Integer>select().receive(one).receive(two).fair().build()
+                .bind(result -> countFair(one, two, remaining - 1, ones + (result.getReceivedValue() == 1 ? 1 : 0), future));
+    }
+
+    @Test
+    public void fairSelectServesAllReadyChannels() throws Exception {
+        int total = 2000;
+        ChannelHandle<Integer> one = new BufferedChannel<Integer>(total).getHandle();
+        ChannelHandle<Integer> two = new BufferedChannel<Integer>(total).getHandle();
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        sendTimes(one.getSendPort(), 1, total)
+                .then(sendTimes(two.getSendPort(), 2, total))
+                .then(countFair(one.getReceivePort(), two.getReceivePort(), total, 0, future))
+                .getIOAction(ioActionExecutor).perform();
+        int ones = future.get(10, TimeUnit.SECONDS);
+        assertTrue("channel one served " + ones + " of " + total, ones > total / 4 && ones < total * 3 / 4);
+    }
+
+    private static AsyncAction<Void> selectLoop(Supplier<SelectBuilder<Integer>> select, int remaining,
+                                                CompletableFuture<Void> future) {
+        if (remaining == 0) {
+            return AsyncAction.wrap(() -> {
+                future.complete(null);
+                return null;
+            });
+        }
+        return select.get().build().bind(result -> selectLoop(select, remaining - 1, future));
+    }
+
+    @Test
+    public void losingSelectTokensAreUnlinked() throws Exception {
+        UnbufferedChannel<Integer> quiet = new UnbufferedChannel<>();
+        BufferedChannel<Integer> quietBuffered = new BufferedChannel<>(1);
+        ChannelHandle<Integer> active = new UnbufferedChannel<Integer>().getHandle();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> bufferedFuture = new CompletableFuture<>();
+        int rounds = 10000;
+        AsyncAction.fork(sendTimes(active.getSendPort(), 1, 2 * rounds))
+                .then(AsyncAction.fork(selectLoop(() -> CSP.<Integer>select()
+                        .receive(quiet.getHandle().getReceivePort())
+                        .receive(active.getReceivePort()), rounds, future)))
+                .then(quietBuffered.getHandle().getSendPort().send(0))
+                .then(AsyncAction.fork(selectLoop(() -> CSP.<Integer>select()
+                        .send(quietBuffered.getHandle().getSendPort(), 1)
+                        .receive(active.getReceivePort()), rounds, bufferedFuture)))
+                .getIOAction(ioActionExecutor).perform();
+        future.get(10, TimeUnit.SECONDS);
+        bufferedFuture.get(10, TimeUnit.SECONDS);
+        assertTrue(quiet.waitingReceivers() <= 1);
+        assertTrue(quietBuffered.waitingSenders() <= 1);
+    }
+
+    @Test
+    public void unlinkingTheLastWaiterReopensTheFastPath() throws Exception {
+        UnbufferedChannel<Integer> quiet = new UnbufferedChannel<>();
+        ChannelHandle<Integer> active = new BufferedChannel<Integer>(1).getHandle();
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        CSP.<Integer>select().receive(quiet.getHandle().getReceivePort()).receive(active.getReceivePort()).build()
+                .bind(result -> AsyncAction.wrap(() -> {
+                    future.complete(result.getReceivedValue());
+                    return null;
+                }))
+                .getIOAction(ioActionExecutor).perform();
+        assertFalse(quiet.queuesEmpty());
+        active.getSendPort().send(1).getIOAction(ioActionExecutor).perform();
+        assertEquals((Integer) 1, future.get(10, TimeUnit.SECONDS));
+        // the select's token is unregistered by the sender once it lets go of the channel's lock
+        for (int i = 0; i < 1000 && !quiet.queuesEmpty(); i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, quiet.waitingReceivers());
+        assertTrue(quiet.queuesEmpty());
+    }
 }
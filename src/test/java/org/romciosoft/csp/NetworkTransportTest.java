@@ -0,0 +1,199 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.metrics.ChannelGauges;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class NetworkTransportTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+    private NetworkTransport server;
+    private NetworkTransport client;
+    private InetSocketAddress address;
+
+    @Before
+    public void init() throws Exception {
+        scheduledExecutorService = Executors.newScheduledThreadPool(10);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+        server = new NetworkTransport(ioActionExecutor, 8);
+        client = new NetworkTransport(ioActionExecutor, 8);
+        address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void close() throws Exception {
+        client.close();
+        server.close();
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        return future;
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        return start(action).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static void awaitWaitingReceivers(ChannelHandle<?> channel, int expected) throws Exception {
+        ChannelGauges gauges = (ChannelGauges) channel.getReceivePort().channel;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gauges.waitingReceivers() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, gauges.waitingReceivers());
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(from).then(produce(port, from + 1, to));
+    }
+
+    private static AsyncAction<List<Integer>> consume(ChannelHandle.ReceivePort<Integer> port, List<Integer> into,
+                                                      int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(into);
+        }
+        return port.receive().bind(x -> {
+            into.add(x);
+            return consume(port, into, remaining - 1);
+        });
+    }
+
+    @Test
+    public void importedPortsCarryMessagesBothWays() throws Exception {
+        ChannelHandle<Integer> inbox = perform(CSP.newChannel(4));
+        ChannelHandle<Integer> outbox = perform(CSP.newChannel());
+        server.export("inbox", inbox, Serializer.java());
+        server.export("outbox", outbox, Serializer.java());
+        ChannelHandle.SendPort<Integer> remoteInbox = perform(client.importSendPort(address, "inbox",
+                Serializer.java()));
+        ChannelHandle.ReceivePort<Integer> remoteOutbox = perform(client.importReceivePort(address, "outbox",
+                Serializer.java()));
+
+        perform(AsyncAction.fork(produce(remoteInbox, 0, 500)));
+        List<Integer> received = perform(consume(inbox.getReceivePort(), new ArrayList<>(), 500));
+        perform(AsyncAction.fork(produce(outbox.getSendPort(), 0, 500)));
+        List<Integer> receivedRemotely = perform(consume(remoteOutbox, new ArrayList<>(), 500));
+        for (int i = 0; i < 500; i++) {
+            assertEquals((Integer) i, received.get(i));
+            assertEquals((Integer) i, receivedRemotely.get(i));
+        }
+    }
+
+    @Test
+    public void creditsKeepBackpressure() throws Exception {
+        ChannelHandle<Integer> inbox = perform(CSP.newChannel());
+        server.export("inbox", inbox, Serializer.java());
+        ChannelHandle.SendPort<Integer> remoteInbox = perform(client.importSendPort(address, "inbox",
+                Serializer.java()));
+        // nobody receives, so only the window of 8 gets through
+        for (int i = 0; i < 8; i++) {
+            assertTrue(perform(remoteInbox.trySend(i)));
+        }
+        Thread.sleep(100);
+        assertFalse(perform(remoteInbox.trySend(8)));
+        // taking half the window returns its credit
+        assertEquals(4, perform(consume(inbox.getReceivePort(), new ArrayList<>(), 4)).size());
+        long deadline = System.currentTimeMillis() + 5000;
+        boolean sent = false;
+        while (!sent && System.currentTimeMillis() < deadline) {
+            sent = perform(remoteInbox.trySend(8));
+            Thread.sleep(10);
+        }
+        assertTrue(sent);
+    }
+
+    @Test
+    public void unknownExportClosesTheImportedPort() throws Exception {
+        ChannelHandle.ReceivePort<Integer> port;
+        // a node that answers the OPEN with a CLOSE only once the receive is waiting
+        try (ServerSocket node = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = perform(client.importReceivePort(new InetSocketAddress(node.getInetAddress(),
+                    node.getLocalPort()), "nothing", Serializer.java()));
+            try (Socket peer = node.accept()) {
+                DataInputStream in = new DataInputStream(peer.getInputStream());
+                int length = in.readInt();
+                assertEquals(TransportConnection.OPEN_RECEIVE, in.readByte());
+                int stream = in.readInt();
+                in.readFully(new byte[length - 5]);
+                CompletableFuture<Integer> received = start(port.receive());
+                DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+                out.writeInt(5);
+                out.writeByte(TransportConnection.CLOSE);
+                out.writeInt(stream);
+                out.flush();
+                assertClosed(received);
+            }
+        }
+        try {
+            start(port.receive());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void closingTheExporterFailsWaitingReceivers() throws Exception {
+        ChannelHandle<Integer> outbox = perform(CSP.newChannel());
+        server.export("outbox", outbox, Serializer.java());
+        ChannelHandle.ReceivePort<Integer> remoteOutbox = perform(client.importReceivePort(address, "outbox",
+                Serializer.java()));
+        CompletableFuture<Integer> received = start(remoteOutbox.receive());
+        awaitWaitingReceivers(outbox, 1);
+        server.close();
+        assertClosed(received);
+    }
+
+    @Test
+    public void disconnectedImporterStopsReceivingFromTheExportedChannel() throws Exception {
+        ChannelHandle<Integer> outbox = perform(CSP.newChannel());
+        server.export("outbox", outbox, Serializer.java());
+        perform(client.importReceivePort(address, "outbox", Serializer.java()));
+        // the exporter waits on the channel to forward the next message
+        awaitWaitingReceivers(outbox, 1);
+        client.close();
+        awaitWaitingReceivers(outbox, 0);
+        CompletableFuture<Integer> received = start(outbox.getReceivePort().receive());
+        perform(outbox.getSendPort().send(42));
+        assertEquals((Integer) 42, received.get(5, TimeUnit.SECONDS));
+    }
+}
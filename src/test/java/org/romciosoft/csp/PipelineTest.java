@@ -0,0 +1,183 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelineTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(10);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(result -> AsyncAction.wrap(() -> {
+            future.complete(result);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private <T> void assertFailsWith(String message, AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void mapFilterFlatMap() throws Exception {
+        List<Integer> result = perform(Pipeline.source(range(0, 1000), 8)
+                .bind(in -> Pipeline.map(in, 8, (Integer x) -> x * 2))
+                .bind(in -> Pipeline.filter(in, 8, (Integer x) -> x % 3 == 0))
+                .bind(in -> Pipeline.flatMap(in, 8, (Integer x) -> Arrays.asList(x, -x)))
+                .bind(Pipeline::collect));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i * 2 % 3 == 0) {
+                expected.add(i * 2);
+                expected.add(-i * 2);
+            }
+        }
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void orderedParallelMap() throws Exception {
+        List<Integer> result = perform(Pipeline.source(range(0, 1000), 4)
+                .bind(in -> Pipeline.parallelMap(in, 4, 4, true, (Integer x) -> {
+                    if (x % 7 == 0) {
+                        Thread.yield();
+                    }
+                    return x + 1;
+                }))
+                .bind(Pipeline::collect));
+        assertEquals(range(1, 1001), result);
+    }
+
+    @Test
+    public void unorderedParallelMap() throws Exception {
+        List<Integer> result = perform(Pipeline.source(range(0, 1000), 4)
+                .bind(in -> Pipeline.parallelMap(in, 4, 4, false, (Integer x) -> x + 1))
+                .bind(Pipeline::collect));
+        Collections.sort(result);
+        assertEquals(range(1, 1001), result);
+    }
+
+    @Test
+    public void splitThenMerge() throws Exception {
+        List<Integer> result = perform(Pipeline.source(range(0, 1000), 4)
+                .bind(in -> Pipeline.split(in, 2, 3))
+                .bind(outs -> Pipeline.merge(outs, 4))
+                .bind(Pipeline::collect));
+        Collections.sort(result);
+        assertEquals(range(0, 1000), result);
+    }
+
+    @Test
+    public void splitDistributes() throws Exception {
+        List<ChannelHandle.ReceivePort<Maybe<Integer>>> outs =
+                perform(Pipeline.source(range(0, 100), 4).bind(in -> Pipeline.split(in, 1, 2)));
+        CompletableFuture<List<Integer>> second = new CompletableFuture<>();
+        Pipeline.collect(outs.get(1)).bind(values -> AsyncAction.wrap(() -> {
+            second.complete(values);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        List<Integer> result = new ArrayList<>(perform(Pipeline.collect(outs.get(0))));
+        result.addAll(second.get(10, TimeUnit.SECONDS));
+        Collections.sort(result);
+        assertEquals(range(0, 100), result);
+    }
+
+    private static Integer failAt(int at, Integer x) {
+        if (x == at) {
+            throw new IllegalStateException("failed at " + at);
+        }
+        return x;
+    }
+
+    @Test
+    public void throwingMapFailsCollect() throws Exception {
+        assertFailsWith("failed at 500", Pipeline.source(range(0, 1000), 8)
+                .bind(in -> Pipeline.map(in, 8, (Integer x) -> failAt(500, x)))
+                .bind(in -> Pipeline.filter(in, 8, (Integer x) -> true))
+                .bind(Pipeline::collect));
+    }
+
+    @Test
+    public void throwingParallelMapFailsForEach() throws Exception {
+        for (boolean ordered : new boolean[]{true, false}) {
+            assertFailsWith("failed at 500", Pipeline.source(range(0, 1000), 4)
+                    .bind(in -> Pipeline.parallelMap(in, 4, 4, ordered, (Integer x) -> failAt(500, x)))
+                    .bind(in -> Pipeline.split(in, 4, 2))
+                    .bind(outs -> Pipeline.merge(outs, 4))
+                    .bind(in -> Pipeline.forEach(in, x -> AsyncAction.unit(null))));
+        }
+    }
+
+    @Test
+    public void sourceTakesValuesAsTheyAreNeeded() throws Exception {
+        AtomicInteger taken = new AtomicInteger();
+        Iterable<Integer> naturals = () -> new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                return taken.getAndIncrement();
+            }
+        };
+        ChannelHandle.ReceivePort<Maybe<Integer>> in = perform(Pipeline.source(naturals, 4));
+        for (int i = 0; i < 10; i++) {
+            assertEquals((Integer) i, perform(in.receive()).getValue());
+        }
+        Thread.sleep(50);
+        // at most a buffer's worth waiting in the channel and another in the source's next batch
+        assertTrue(taken.get() <= 10 + 2 * 4);
+    }
+}
@@ -0,0 +1,158 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.util.concurrent.*;
+
+public class PrimitiveChannelTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(10);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private static AsyncAction<Void> receiveAll(LongChannel ch, long[] into, int from) {
+        if (from == into.length) {
+            return AsyncAction.unit(null);
+        }
+        return ch.receiveUpTo(into, from, into.length - from).bind(count -> receiveAll(ch, into, from + count));
+    }
+
+    @Test
+    public void longBatchesThroughSmallBuffer() throws Exception {
+        long[] sent = new long[1000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = Long.MAX_VALUE - i * 31L;
+        }
+        long[] received = new long[sent.length];
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CSP.newLongChannel(8).bind(ch ->
+                AsyncAction.fork(ch.sendAll(sent, 0, sent.length))
+                        .then(receiveAll(ch, received, 0))
+                        .then(AsyncAction.wrap(() -> {
+                            future.complete(null);
+                            return null;
+                        })))
+                .getIOAction(ioActionExecutor).perform();
+        future.get(5, TimeUnit.SECONDS);
+        assertArrayEquals(sent, received);
+    }
+
+    @Test
+    public void primitiveAndBoxedViewsShareTheChannel() throws Exception {
+        CompletableFuture<Double> boxed = new CompletableFuture<>();
+        CompletableFuture<Integer> primitive = new CompletableFuture<>();
+        CSP.newDoubleChannel(2).bind(doubles ->
+                CSP.newIntChannel(2).bind(ints ->
+                        doubles.send(-0.5)
+                                .then(doubles.getHandle().getReceivePort().receive())
+                                .bind(x -> AsyncAction.wrap(() -> {
+                                    boxed.complete(x);
+                                    return null;
+                                }))
+                                .then(ints.getHandle().getSendPort().send(-42))
+                                .then(ints.receive(x -> AsyncAction.wrap(() -> {
+                                    primitive.complete(x);
+                                    return null;
+                                })))))
+                .getIOAction(ioActionExecutor).perform();
+        assertEquals(-0.5, boxed.get(), 0.0);
+        assertEquals((Integer) (-42), primitive.get());
+    }
+
+    @Test
+    public void receiverWaitsForPrimitiveSend() throws Exception {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        CSP.newLongChannel(1).bind(ch ->
+                AsyncAction.fork(ch.receive(x -> AsyncAction.wrap(() -> {
+                    future.complete(x);
+                    return null;
+                })))
+                        .then(AsyncAction.delay(50, TimeUnit.MILLISECONDS))
+                        .then(ch.send(7L)))
+                .getIOAction(ioActionExecutor).perform();
+        assertEquals((Long) 7L, future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void selectServesReadyOptionAndDefault() throws Exception {
+        CompletableFuture<PrimitiveSelectResult> ready = new CompletableFuture<>();
+        CompletableFuture<PrimitiveSelectResult> empty = new CompletableFuture<>();
+        CSP.newIntChannel(1).bind(ints ->
+                CSP.newDoubleChannel(1).bind(doubles ->
+                        doubles.send(2.5)
+                                .then(CSP.primitiveSelect().receive(ints).receive(doubles).build())
+                                .bind(result -> AsyncAction.wrap(() -> {
+                                    ready.complete(result);
+                                    return null;
+                                }))
+                                .then(CSP.primitiveSelect().receive(ints).receive(doubles).orElse().build())
+                                .bind(result -> AsyncAction.wrap(() -> {
+                                    empty.complete(result);
+                                    return null;
+                                }))))
+                .getIOAction(ioActionExecutor).perform();
+        assertEquals(SelectResult.Type.RECEIVED, ready.get().getType());
+        assertEquals(1, ready.get().getIndex());
+        assertEquals(2.5, ready.get().getDouble(), 0.0);
+        assertEquals(SelectResult.Type.DEFAULT, empty.get().getType());
+    }
+
+    @Test
+    public void waitingSelectIsCompletedBySend() throws Exception {
+        CompletableFuture<PrimitiveSelectResult> future = new CompletableFuture<>();
+        CSP.newIntChannel(1).bind(ints ->
+                CSP.newLongChannel(1).bind(longs ->
+                        AsyncAction.fork(CSP.primitiveSelect().receive(ints).receive(longs).build()
+                                .bind(result -> AsyncAction.wrap(() -> {
+                                    future.complete(result);
+                                    return null;
+                                })))
+                                .then(AsyncAction.delay(50, TimeUnit.MILLISECONDS))
+                                .then(longs.send(-3L))))
+                .getIOAction(ioActionExecutor).perform();
+        PrimitiveSelectResult result = future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, result.getIndex());
+        assertEquals(-3L, result.getLong());
+    }
+
+    @Test
+    public void waitingFairSelectReportsTheSendThatWentThrough() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            CompletableFuture<PrimitiveSelectResult> selected = new CompletableFuture<>();
+            CompletableFuture<Integer> received = new CompletableFuture<>();
+            CSP.newIntChannel(1).bind(ints ->
+                    ints.send(0)
+                            .then(AsyncAction.fork(CSP.primitiveSelect().send(ints, 1).send(ints, 2).fair().build()
+                                    .bind(result -> AsyncAction.wrap(() -> {
+                                        selected.complete(result);
+                                        return null;
+                                    }))))
+                            .then(ints.getHandle().getReceivePort().receive())
+                            .then(ints.getHandle().getReceivePort().receive())
+                            .bind(x -> AsyncAction.wrap(() -> {
+                                received.complete(x);
+                                return null;
+                            })))
+                    .getIOAction(ioActionExecutor).perform();
+            int value = received.get(5, TimeUnit.SECONDS);
+            assertEquals(value - 1, selected.get(5, TimeUnit.SECONDS).getIndex());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.io.Promise;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SelectTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(x -> AsyncAction.wrap(() -> {
+            future.complete(x);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        return future;
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        return start(action).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void selectDoesNotRendezvousWithItself() throws Exception {
+        UnbufferedChannel<Integer> ch = new UnbufferedChannel<>();
+        SelectResult<Integer> result = perform(CSP.<Integer>select()
+                .receive(ch.getHandle().getReceivePort())
+                .send(ch.getHandle().getSendPort(), 1)
+                .timeout(20, TimeUnit.MILLISECONDS)
+                .build());
+        assertEquals(SelectResult.Type.TIMED_OUT, result.getType());
+        assertEquals(0, ch.waitingReceivers());
+        assertEquals(0, ch.waitingSenders());
+    }
+
+    @Test
+    public void crossingSelectsDeliverEveryValueOnce() throws Exception {
+        // senders and receivers each wait on both channels, so matches on the two channels race for tokens
+        ChannelHandle<Integer> one = new UnbufferedChannel<Integer>().getHandle();
+        ChannelHandle<Integer> two = new UnbufferedChannel<Integer>().getHandle();
+        int count = 2000;
+        List<CompletableFuture<SelectResult<Integer>>> received = new ArrayList<>();
+        List<CompletableFuture<SelectResult<Integer>>> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            received.add(start(CSP.<Integer>select().receive(one.getReceivePort()).receive(two.getReceivePort())
+                    .build()));
+            sent.add(start(CSP.<Integer>select().send(one.getSendPort(), i).send(two.getSendPort(), i)
+                    .build()));
+        }
+        Set<Integer> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            assertEquals(SelectResult.Type.SENT, sent.get(i).get(5, TimeUnit.SECONDS).getType());
+            assertTrue(values.add(received.get(i).get(5, TimeUnit.SECONDS).getReceivedValue()));
+        }
+        assertEquals(count, values.size());
+    }
+
+    @Test
+    public void receiveTimesOutAndUnregisters() throws Exception {
+        UnbufferedChannel<Integer> one = new UnbufferedChannel<>();
+        BufferedChannel<Integer> two = new BufferedChannel<>(1);
+        long start = System.nanoTime();
+        SelectResult<Integer> result = perform(CSP.<Integer>select()
+                .receive(one.getHandle().getReceivePort())
+                .receive(two.getHandle().getReceivePort())
+                .timeout(20, TimeUnit.MILLISECONDS)
+                .build());
+        assertEquals(SelectResult.Type.TIMED_OUT, result.getType());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, one.waitingReceivers());
+        assertEquals(0, two.waitingReceivers());
+    }
+
+    @Test
+    public void singleOptionTimeoutLeavesNoWaiter() throws Exception {
+        UnbufferedChannel<Integer> ch = new UnbufferedChannel<>();
+        SelectResult<Integer> result = perform(CSP.<Integer>select()
+                .send(ch.getHandle().getSendPort(), 1)
+                .timeout(10, TimeUnit.MILLISECONDS)
+                .build());
+        assertEquals(SelectResult.Type.TIMED_OUT, result.getType());
+        assertEquals(0, ch.waitingSenders());
+    }
+
+    @Test
+    public void matchBeforeTimeout() throws Exception {
+        ChannelHandle<Integer> ch = new UnbufferedChannel<Integer>().getHandle();
+        SelectResult<Integer> result = perform(AsyncAction.fork(AsyncAction.delay(10, TimeUnit.MILLISECONDS)
+                .then(ch.getSendPort().send(42)))
+                .then(CSP.<Integer>select().receive(ch.getReceivePort()).timeout(5, TimeUnit.SECONDS).build()));
+        assertEquals(SelectResult.Type.RECEIVED, result.getType());
+        assertEquals((Integer) 42, result.getReceivedValue());
+    }
+
+    @Test
+    public void orElseWhenNothingIsReady() throws Exception {
+        UnbufferedChannel<Integer> ch = new UnbufferedChannel<>();
+        AsyncAction<SelectResult<Integer>> select = CSP.<Integer>select()
+                .receive(ch.getHandle().getReceivePort())
+                .send(ch.getHandle().getSendPort(), 1)
+                .orElse()
+                .build();
+        Promise<SelectResult<Integer>> first = select.getIOAction(ioActionExecutor).perform();
+        Promise<SelectResult<Integer>> second = select.getIOAction(ioActionExecutor).perform();
+        assertSame(first, second);
+        assertEquals(SelectResult.Type.DEFAULT, perform(select).getType());
+        assertEquals(0, ch.waitingReceivers());
+        assertEquals(0, ch.waitingSenders());
+    }
+
+    @Test
+    public void orElsePicksReadyOption() throws Exception {
+        ChannelHandle<Integer> empty = new BufferedChannel<Integer>(1).getHandle();
+        ChannelHandle<Integer> full = new BufferedChannel<Integer>(1).getHandle();
+        perform(full.getSendPort().send(7));
+        SelectResult<Integer> result = perform(CSP.<Integer>select()
+                .receive(empty.getReceivePort())
+                .receive(full.getReceivePort())
+                .orElse()
+                .build());
+        assertEquals(SelectResult.Type.RECEIVED, result.getType());
+        assertSame(full.getReceivePort(), result.getReceivePort());
+        assertEquals((Integer) 7, result.getReceivedValue());
+    }
+
+    @Test
+    public void tryOperations() throws Exception {
+        BufferedChannel<Integer> buffered = new BufferedChannel<>(1);
+        ChannelHandle<Integer> handle = buffered.getHandle();
+        assertTrue(perform(handle.getSendPort().trySend(1)));
+        assertFalse(perform(handle.getSendPort().trySend(2)));
+        assertEquals((Integer) 1, perform(handle.getReceivePort().tryReceive()).getValue());
+        assertTrue(perform(handle.getReceivePort().tryReceive()).isNothing());
+        assertEquals(0, buffered.waitingSenders());
+        assertEquals(0, buffered.waitingReceivers());
+
+        UnbufferedChannel<Integer> unbuffered = new UnbufferedChannel<>();
+        ChannelHandle<Integer> ch = unbuffered.getHandle();
+        assertFalse(perform(ch.getSendPort().trySend(1)));
+        CompletableFuture<Integer> received = new CompletableFuture<>();
+        ch.getReceivePort().receive().bind(x -> AsyncAction.wrap(() -> {
+            received.complete(x);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        assertTrue(perform(ch.getSendPort().trySend(42)));
+        assertEquals((Integer) 42, received.get(5, TimeUnit.SECONDS));
+        Maybe<Integer> nothing = perform(ch.getReceivePort().tryReceive());
+        assertTrue(nothing.isNothing());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void timeoutAndOrElseDoNotMix() {
+        CSP.<Integer>select().orElse().timeout(1, TimeUnit.SECONDS).build();
+    }
+}
@@ -0,0 +1,194 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+import org.romciosoft.monad.Maybe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+public class ServiceTest {
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        return future;
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, CompletableFuture<?> future)
+            throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(expected.isInstance(e.getCause()));
+        }
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        return start(action).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void workersAnswerEveryCall() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>service(x -> x * 2)
+                .workers(3)
+                .queueCapacity(8)
+                .build());
+        List<CompletableFuture<Integer>> replies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replies.add(start(service.call(i)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((Integer) (2 * i), replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        perform(service.shutdown());
+    }
+
+    @Test
+    public void tryCallShedsWhenTheQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Service<String, String> service = perform(CSP.<String, String>service(x -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return x.toUpperCase();
+        }).workers(1).queueCapacity(1).build());
+        CompletableFuture<String> busy = start(service.call("busy"));
+        // wait until the worker has taken the first request, so the next one stays queued
+        CompletableFuture<Maybe<String>> queued;
+        do {
+            Thread.sleep(1);
+            queued = start(service.tryCall("queued"));
+        } while (queued.isDone() && !queued.get().isPresent());
+        assertFalse(perform(service.tryCall("shed")).isPresent());
+        release.countDown();
+        assertEquals("BUSY", busy.get(5, TimeUnit.SECONDS));
+        assertEquals("QUEUED", queued.get(5, TimeUnit.SECONDS).getValue());
+    }
+
+    @Test
+    public void batchHandlerGetsQueuedRequestsTogether() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>batchService(16, xs -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            batchSizes.add(xs.size());
+            return xs.stream().map(x -> x + 1).collect(Collectors.toList());
+        }).workers(1).queueCapacity(64).build());
+        List<CompletableFuture<Integer>> replies = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            replies.add(start(service.call(i)));
+        }
+        release.countDown();
+        for (int i = 0; i < 40; i++) {
+            assertEquals((Integer) (i + 1), replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(batchSizes.stream().anyMatch(size -> size > 1));
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 16));
+    }
+
+    @Test
+    public void workerSurvivesAThrowingHandler() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>service(x -> {
+            if (x < 0) {
+                throw new IllegalArgumentException("negative");
+            }
+            return x * 2;
+        }).workers(1).build());
+        assertFailsWith(IllegalArgumentException.class, start(service.call(-1)));
+        assertFailsWith(IllegalArgumentException.class, start(service.tryCall(-2)));
+        assertEquals((Integer) 6, perform(service.call(3)));
+        assertEquals((Integer) 8, perform(service.tryCall(4)).getValue());
+        perform(service.shutdown());
+    }
+
+    @Test
+    public void batchWithTheWrongNumberOfRepliesFailsEveryRequestInIt() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>batchService(4,
+                xs -> xs.contains(-1) ? new ArrayList<>() : xs).workers(1).build());
+        assertFailsWith(IllegalStateException.class, start(service.call(-1)));
+        assertEquals((Integer) 5, perform(service.call(5)));
+        perform(service.shutdown());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void callsAreRefusedAfterShutdown() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>service(x -> x).workers(2).build());
+        assertEquals((Integer) 1, perform(service.call(1)));
+        perform(service.shutdown());
+        perform(service.call(2));
+    }
+
+    @Test
+    public void callsRacingShutdownAreAnsweredOrRefused() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>service(x -> x)
+                .workers(2)
+                .queueCapacity(4)
+                .build());
+        int callers = 4;
+        Queue<CompletableFuture<Integer>> replies = new ConcurrentLinkedQueue<>();
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        CountDownLatch calling = new CountDownLatch(callers);
+        for (int i = 0; i < callers; i++) {
+            threads.submit(() -> {
+                calling.countDown();
+                try {
+                    while (true) {
+                        replies.add(start(service.call(1)));
+                    }
+                } catch (IllegalStateException refused) {
+                    return null;
+                }
+            });
+        }
+        calling.await();
+        perform(service.shutdown());
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Integer> reply : replies) {
+            try {
+                assertEquals((Integer) 1, reply.get(5, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class SharedMemoryChannelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(10);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        return future;
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, CompletableFuture<?> future)
+            throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(expected.isInstance(e.getCause()));
+        }
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<String> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send("message " + from).then(produce(port, from + 1, to));
+    }
+
+    private static AsyncAction<Void> consume(ChannelHandle.ReceivePort<String> port, List<String> into, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return port.receive().bind(x -> {
+            into.add(x);
+            return consume(port, into, remaining - 1);
+        });
+    }
+
+    @Test
+    public void messagesWrapAroundSmallRing() throws Exception {
+        Path file = folder.newFile().toPath();
+        List<String> received = new ArrayList<>();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CSP.openSharedSender(file, 128, Serializer.utf8()).bind(out ->
+                CSP.openSharedReceiver(file, 128, Serializer.utf8()).bind(in ->
+                        AsyncAction.fork(produce(out, 0, 500))
+                                .then(consume(in, received, 500))
+                                .then(AsyncAction.wrap(() -> {
+                                    future.complete(null);
+                                    return null;
+                                }))))
+                .getIOAction(ioActionExecutor).perform();
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(500, received.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals("message " + i, received.get(i));
+        }
+    }
+
+    @Test
+    public void waitingReceiverSeesLaterSend() throws Exception {
+        Path file = folder.newFile().toPath();
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        CSP.<Integer>openSharedReceiver(file, 1024, Serializer.java()).bind(in ->
+                AsyncAction.fork(in.receive().bind(x -> AsyncAction.wrap(() -> {
+                    future.complete(x);
+                    return null;
+                }))))
+                .then(AsyncAction.delay(50, TimeUnit.MILLISECONDS))
+                .then(CSP.<Integer>openSharedSender(file, 1024, Serializer.java()).bind(out -> out.send(42)))
+                .getIOAction(ioActionExecutor).perform();
+        assertEquals((Integer) 42, future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustMatch() throws Exception {
+        Path file = folder.newFile().toPath();
+        new MappedRing(file, 1024, true);
+        new MappedRing(file, 2048, false);
+    }
+
+    @Test
+    public void eachSideOpensOnlyOnce() throws Exception {
+        Path file = folder.newFile().toPath();
+        new MappedRing(file, 1024, true);
+        new MappedRing(file, 1024, false);
+        try {
+            new MappedRing(file, 1024, true);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("already has a sender"));
+        }
+        try {
+            new MappedRing(file, 1024, false);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("already has a receiver"));
+        }
+    }
+
+    @Test
+    public void badMessageOnlyFailsItsReceiver() throws Exception {
+        Path file = folder.newFile().toPath();
+        Serializer<String> rejectsPoison = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) throws IOException {
+                return Serializer.utf8().serialize(value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) throws IOException {
+                String value = Serializer.utf8().deserialize(bytes);
+                if (value.equals("poison")) {
+                    throw new IOException("cannot read " + value);
+                }
+                return value;
+            }
+        };
+        ChannelHandle.ReceivePort<String> in = start(CSP.openSharedReceiver(file, 1024, rejectsPoison))
+                .get(5, TimeUnit.SECONDS);
+        CompletableFuture<String> first = start(in.receive());
+        CompletableFuture<String> second = start(in.receive());
+        start(CSP.openSharedSender(file, 1024, Serializer.utf8()).bind(out ->
+                out.send("poison").then(out.send("fine")))).get(5, TimeUnit.SECONDS);
+        assertFailsWith(IOException.class, first);
+        assertEquals("fine", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeFailsWaitersAndFreesTheFile() throws Exception {
+        Path file = folder.newFile().toPath();
+        ChannelHandle.ReceivePort<String> in = start(CSP.openSharedReceiver(file, 1024, Serializer.utf8()))
+                .get(5, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = start(in.receive());
+        start(in.close()).get(5, TimeUnit.SECONDS);
+        assertFailsWith(IllegalStateException.class, waiting);
+        try {
+            in.receive().getIOAction(ioActionExecutor).perform();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        ChannelHandle.ReceivePort<String> reopened = start(CSP.openSharedReceiver(file, 1024, Serializer.utf8()))
+                .get(5, TimeUnit.SECONDS);
+        start(CSP.openSharedSender(file, 1024, Serializer.utf8()).bind(out -> out.send("again")))
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("again", start(reopened.receive()).get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,229 @@
+package org.romciosoft.csp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+public class SpillingChannelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduledExecutorService;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(10);
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    @Test
+    public void spillsToSegmentsAndDeletesThemWhenDrained() throws Exception {
+        File directory = folder.newFolder();
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(10, 256, directory.toPath(), Serializer.utf8());
+        for (int i = 0; i < 1000; i++) {
+            buffer.add("message " + i);
+            if (i == 499) {
+                // read some back while the buffer is still spilling
+                for (int j = 0; j < 100; j++) {
+                    assertEquals("message " + j, buffer.peek());
+                    buffer.removeFirst();
+                }
+            }
+        }
+        assertEquals(900, buffer.size());
+        assertEquals(890, buffer.spilled());
+        assertTrue(buffer.segments() > 1);
+        for (int i = 100; i < 1000; i++) {
+            assertEquals("message " + i, buffer.peek());
+            buffer.removeFirst();
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void takenBackMessagesKeepTheOrder() throws Exception {
+        File directory = folder.newFolder();
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(2, 64, directory.toPath(), Serializer.utf8());
+        for (int i = 0; i < 20; i++) {
+            buffer.add("message " + i);
+            buffer.add("taken back");
+            buffer.removeLast();
+        }
+        assertEquals(18, buffer.spilled());
+        String first = buffer.peek();
+        buffer.removeFirst();
+        buffer.addFirst(first);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message " + i, buffer.peek());
+            buffer.removeFirst();
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    private <T> CompletableFuture<T> start(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        return future;
+    }
+
+    private static void assertClosed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void closeDeletesSegmentsAndFailsWaitersAndLaterCalls() throws Exception {
+        File directory = folder.newFolder();
+        Function<String, AsyncAction<ChannelHandle<String>>> create =
+                name -> CSP.newSpillingChannel(2, 64, directory.toPath(), Serializer.utf8(), name);
+        ChannelHandle<String> full = start(create.apply("full")).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(full.getSendPort().channel.trySend("message " + i));
+        }
+        assertTrue(directory.list().length > 0);
+        start(full.getReceivePort().close()).get(5, TimeUnit.SECONDS);
+        assertEquals(0, directory.list().length);
+        for (AsyncAction<?> late : Arrays.asList(full.getReceivePort().receive(), full.getSendPort().send("late"))) {
+            try {
+                late.getIOAction(ioActionExecutor).perform();
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        }
+
+        ChannelHandle<String> empty = start(create.apply("empty")).get(5, TimeUnit.SECONDS);
+        CompletableFuture<String> waiting = start(empty.getReceivePort().receive());
+        start(empty.getSendPort().close()).get(5, TimeUnit.SECONDS);
+        assertClosed(waiting);
+    }
+
+    private static AsyncAction<Void> produce(ChannelHandle.SendPort<Integer> port, int from, int to) {
+        if (from == to) {
+            return AsyncAction.unit(null);
+        }
+        return port.send(from).then(produce(port, from + 1, to));
+    }
+
+    private static AsyncAction<Void> consume(ChannelHandle.ReceivePort<Integer> other,
+                                             ChannelHandle.ReceivePort<Integer> port, List<Integer> into,
+                                             int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return CSP.<Integer>select().receive(other).receive(port).build().bind(result -> {
+            into.add(result.getReceivedValue());
+            return consume(other, port, into, remaining - 1);
+        });
+    }
+
+    @Test
+    public void sendersDoNotWaitAndSelectReadsBackInOrder() throws Exception {
+        List<Integer> received = new ArrayList<>();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CSP.<Integer>newSpillingChannel(4, 128, folder.newFolder().toPath(), Serializer.java(), null).bind(ch ->
+                CSP.<Integer>newChannel().bind(other ->
+                        produce(ch.getSendPort(), 0, 200)
+                                .then(consume(other.getReceivePort(), ch.getReceivePort(), received, 200))
+                                .then(AsyncAction.wrap(() -> {
+                                    future.complete(null);
+                                    return null;
+                                }))))
+                .getIOAction(ioActionExecutor).perform();
+        future.get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 200; i++) {
+            assertEquals((Integer) i, received.get(i));
+        }
+    }
+
+    @Test
+    public void failedSpillFailsTheSenderAndLosesNothing() throws Exception {
+        IOException refused = new IOException("refused");
+        Serializer<String> serializer = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) throws IOException {
+                if (value.equals("bad")) {
+                    throw refused;
+                }
+                return Serializer.utf8().serialize(value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) throws IOException {
+                return Serializer.utf8().deserialize(bytes);
+            }
+        };
+        CompletableFuture<Object> failure = new CompletableFuture<>();
+        List<String> received = new ArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<ChannelHandle<String>> created = new CompletableFuture<>();
+        CSP.newSpillingChannel(1, 128, folder.newFolder().toPath(), serializer, null)
+                .getIOAction(ioActionExecutor).perform().addCallback(h -> () -> {
+                    created.complete(h);
+                    return null;
+                }).perform();
+        ChannelHandle<String> ch = created.get(5, TimeUnit.SECONDS);
+        ch.getSendPort().send("first").getIOAction(ioActionExecutor).perform();
+        CSP.<String>select().send(ch.getSendPort(), "bad").build().getIOAction(ioActionExecutor).perform()
+                .addCallback(x -> () -> {
+                    failure.complete(x);
+                    return null;
+                }, e -> () -> {
+                    failure.complete(e);
+                    return null;
+                }).perform();
+        assertSame(refused, failure.get(5, TimeUnit.SECONDS));
+        ch.getSendPort().send("second")
+                .then(ch.getReceivePort().receive()).bind(first -> AsyncAction.wrap(() -> {
+                    received.add(first);
+                    return null;
+                }))
+                .then(ch.getReceivePort().receive()).bind(second -> AsyncAction.wrap(() -> {
+                    received.add(second);
+                    return null;
+                }))
+                .then(AsyncAction.wrap(() -> {
+                    done.complete(null);
+                    return null;
+                }))
+                .getIOAction(ioActionExecutor).perform();
+        done.get(5, TimeUnit.SECONDS);
+        assertEquals(2, received.size());
+        assertEquals("first", received.get(0));
+        assertEquals("second", received.get(1));
+    }
+}
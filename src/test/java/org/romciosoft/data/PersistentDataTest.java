@@ -0,0 +1,278 @@
+package org.romciosoft.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public class PersistentDataTest {
+    private static class QueueVersion {
+        final IPersistentQueue<Integer> queue;
+        final ArrayDeque<Integer> model;
+
+        QueueVersion(IPersistentQueue<Integer> queue, ArrayDeque<Integer> model) {
+            this.queue = queue;
+            this.model = model;
+        }
+    }
+
+    private static class StackVersion {
+        final IPersistentStack<Integer> stack;
+        final ArrayDeque<Integer> model;
+
+        StackVersion(IPersistentStack<Integer> stack, ArrayDeque<Integer> model) {
+            this.stack = stack;
+            this.model = model;
+        }
+    }
+
+    // applies random operations to random earlier versions, so every version keeps being extended from
+    private static void checkQueue(Supplier<IPersistentQueue<Integer>> empty) {
+        Random random = new Random(42);
+        List<QueueVersion> versions = new ArrayList<>();
+        versions.add(new QueueVersion(empty.get(), new ArrayDeque<>()));
+        for (int i = 0; i < 20000; i++) {
+            QueueVersion from = random.nextInt(4) == 0
+                    ? versions.get(random.nextInt(versions.size()))
+                    : versions.get(versions.size() - 1);
+            ArrayDeque<Integer> model = new ArrayDeque<>(from.model);
+            IPersistentQueue<Integer> queue;
+            if (model.isEmpty() || random.nextInt(5) < 3) {
+                queue = from.queue.offer(i);
+                model.addLast(i);
+            } else {
+                assertEquals(model.pollFirst(), from.queue.peek());
+                queue = from.queue.poll();
+            }
+            assertEquals(model.isEmpty(), queue.isEmpty());
+            versions.add(new QueueVersion(queue, model));
+        }
+        for (QueueVersion version : versions) {
+            IPersistentQueue<Integer> queue = version.queue;
+            for (Integer expected : version.model) {
+                assertEquals(expected, queue.peek());
+                queue = queue.poll();
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void realTimeQueueKeepsOrderAcrossVersions() {
+        checkQueue(RealTimeQueue::empty);
+    }
+
+    @Test
+    public void chunkedQueueKeepsOrderAcrossVersions() {
+        checkQueue(ChunkedQueue::empty);
+    }
+
+    @Test
+    public void chunkedStackKeepsOrderAcrossVersions() {
+        Random random = new Random(42);
+        List<StackVersion> versions = new ArrayList<>();
+        versions.add(new StackVersion(ChunkedStack.empty(), new ArrayDeque<>()));
+        for (int i = 0; i < 20000; i++) {
+            StackVersion from = random.nextInt(4) == 0
+                    ? versions.get(random.nextInt(versions.size()))
+                    : versions.get(versions.size() - 1);
+            ArrayDeque<Integer> model = new ArrayDeque<>(from.model);
+            IPersistentStack<Integer> stack;
+            if (model.isEmpty() || random.nextInt(5) < 3) {
+                stack = from.stack.push(i);
+                model.push(i);
+            } else {
+                assertEquals(model.pop(), from.stack.peek());
+                stack = from.stack.pop();
+            }
+            assertEquals(model.isEmpty(), stack.isEmpty());
+            versions.add(new StackVersion(stack, model));
+        }
+        for (StackVersion version : versions) {
+            IPersistentStack<Integer> stack = version.stack;
+            for (Integer expected : version.model) {
+                assertEquals(expected, stack.peek());
+                stack = stack.pop();
+            }
+            assertTrue(stack.isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void pollingAnEmptyQueueFails() {
+        RealTimeQueue.empty().offer(1).poll().poll();
+    }
+
+    private static <T> void assertVector(List<T> expected, IPersistentVector<T> vector) {
+        assertEquals(expected.size(), vector.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), vector.get(i));
+        }
+        List<T> visited = new ArrayList<>();
+        vector.forEach(visited::add);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void vectorAppendsSetsAndPopsAcrossLevels() {
+        List<List<Integer>> models = new ArrayList<>();
+        List<PersistentVector<Integer>> versions = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        List<Integer> model = new ArrayList<>();
+        // past 32 * 32 + 32 elements, so the trie gets a third level
+        for (int i = 0; i < 40000; i++) {
+            vector = vector.append(i);
+            model.add(i);
+            if (i % 997 == 0) {
+                versions.add(vector);
+                models.add(new ArrayList<>(model));
+            }
+        }
+        assertVector(model, vector);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int index = random.nextInt(model.size());
+            vector = vector.set(index, -i);
+            model.set(index, -i);
+        }
+        assertVector(model, vector);
+        while (vector.size() > 0) {
+            vector = vector.pop();
+            model.remove(model.size() - 1);
+            if (model.size() % 1013 == 0) {
+                assertVector(model, vector);
+            }
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertVector(models.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    public void vectorBuilderLeavesItsSourceUnchanged() {
+        PersistentVector<Integer> source = PersistentVector.<Integer>builder().append(1).append(2).build();
+        List<Integer> model = new ArrayList<>();
+        model.add(1);
+        model.add(2);
+        PersistentVector.Builder<Integer> builder = source.toBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append(i);
+            model.add(i);
+        }
+        for (int i = 0; i < 5000; i += 3) {
+            builder.set(i, -i);
+            model.set(i, -i);
+        }
+        for (int i = 0; i < 1500; i++) {
+            builder.pop();
+            model.remove(model.size() - 1);
+        }
+        PersistentVector<Integer> built = builder.build();
+        assertVector(model, built);
+        assertEquals(2, source.size());
+        assertEquals((Integer) 2, source.get(1));
+        // the built vector shares nodes with the builder, so changing it has to copy
+        assertVector(model, built.toBuilder().set(0, 7).append(7).build().pop().set(0, model.get(0)));
+        assertVector(model, built);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void builderCannotBeUsedAfterBuild() {
+        PersistentVector.Builder<Integer> builder = PersistentVector.builder();
+        builder.build();
+        builder.append(1);
+    }
+
+    // every key lands in one of 300 hash values, so collisions are common
+    private static class Key {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 300;
+        }
+    }
+
+    private static <K, V> void assertMap(Map<K, V> expected, IPersistentMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<K, V> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()).getValue());
+        }
+        Map<K, V> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void hashMapPutsAndRemovesAcrossVersions() {
+        Random random = new Random(42);
+        for (boolean colliding : new boolean[]{false, true}) {
+            List<IPersistentMap<Object, Integer>> versions = new ArrayList<>();
+            List<Map<Object, Integer>> models = new ArrayList<>();
+            IPersistentMap<Object, Integer> map = PersistentHashMap.empty();
+            Map<Object, Integer> model = new HashMap<>();
+            for (int i = 0; i < 30000; i++) {
+                int id = random.nextInt(3000);
+                Object key = colliding ? new Key(id) : (Object) id;
+                if (random.nextInt(3) == 0) {
+                    map = map.remove(key);
+                    model.remove(key);
+                } else {
+                    map = map.put(key, i);
+                    model.put(key, i);
+                }
+                assertEquals(model.containsKey(key), map.containsKey(key));
+                if (i % 1009 == 0) {
+                    versions.add(map);
+                    models.add(new HashMap<>(model));
+                }
+            }
+            assertMap(model, map);
+            for (int i = 0; i < versions.size(); i++) {
+                assertMap(models.get(i), versions.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void hashMapBuilderLeavesItsSourceUnchanged() {
+        PersistentHashMap<Integer, Integer> source = PersistentHashMap.<Integer, Integer>builder().put(1, 1).build();
+        PersistentHashMap.Builder<Integer, Integer> builder = source.toBuilder();
+        Map<Integer, Integer> model = new HashMap<>();
+        model.put(1, 1);
+        for (int i = 0; i < 5000; i++) {
+            builder.put(i, -i);
+            model.put(i, -i);
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            builder.remove(i);
+            model.remove(i);
+        }
+        PersistentHashMap<Integer, Integer> built = builder.build();
+        assertMap(model, built);
+        assertEquals(1, source.size());
+        assertEquals((Integer) 1, source.get(1).getValue());
+        assertFalse(built.get(0).isPresent());
+        PersistentHashMap<Integer, Integer> changed = built.toBuilder().put(1, 100).put(2, 2).remove(3).build();
+        assertEquals((Integer) 100, changed.get(1).getValue());
+        assertMap(model, built);
+    }
+}
@@ -0,0 +1,154 @@
+package org.romciosoft.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HandoffSchedulerTest {
+    private ScheduledExecutorService timer;
+    private HandoffScheduler scheduler;
+
+    @Before
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new HandoffScheduler(4);
+    }
+
+    @After
+    public void close() throws Exception {
+        timer.shutdown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runsTasksSubmittedFromOutside() throws Exception {
+        int threads = 8;
+        int tasks = 10000;
+        CountDownLatch done = new CountDownLatch(threads * tasks);
+        Thread[] submitters = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            submitters[i] = new Thread(() -> {
+                for (int j = 0; j < tasks; j++) {
+                    scheduler.execute(done::countDown);
+                }
+            });
+            submitters[i].start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void tasksSpawnedOnOneWorkerAreStolen() throws Exception {
+        int tasks = 1000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        Set<Thread> ranOn = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        scheduler.execute(() -> {
+            for (int i = 0; i < tasks; i++) {
+                scheduler.execute(() -> {
+                    ranOn.add(Thread.currentThread());
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ignored) {
+                    }
+                    done.countDown();
+                });
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(ranOn.size() > 1);
+    }
+
+    @Test
+    public void runNextChainDoesNotStarveQueue() throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        CompletableFuture<Void> queuedRan = new CompletableFuture<>();
+        HandoffScheduler single = new HandoffScheduler(1);
+        try {
+            single.execute(new Runnable() {
+                boolean first = true;
+
+                @Override
+                public void run() {
+                    if (first) {
+                        first = false;
+                        single.execute(() -> {
+                            stop.set(true);
+                            queuedRan.complete(null);
+                        });
+                    }
+                    if (!stop.get()) {
+                        // takes the runnext slot, pushing the task above into the queue
+                        single.execute(this);
+                    }
+                }
+            });
+            queuedRan.get(5, TimeUnit.SECONDS);
+        } finally {
+            single.shutdown();
+        }
+        assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static AsyncAction<Void> echo(ChannelHandle<Integer> ping, ChannelHandle<Integer> pong, int remaining) {
+        if (remaining == 0) {
+            return AsyncAction.unit(null);
+        }
+        return ping.getReceivePort().receive()
+                .bind(x -> pong.getSendPort().send(x + 1))
+                .bind(x -> echo(ping, pong, remaining - 1));
+    }
+
+    private static AsyncAction<Integer> drive(ChannelHandle<Integer> ping, ChannelHandle<Integer> pong, int sent,
+                                              int rounds) {
+        if (sent == rounds) {
+            return AsyncAction.unit(sent);
+        }
+        return ping.getSendPort().send(sent)
+                .then(pong.getReceivePort().receive())
+                .bind(x -> x == sent + 1 ? drive(ping, pong, sent + 1, rounds) : AsyncAction.unit(-1));
+    }
+
+    @Test
+    public void pingPongOverChannels() throws Exception {
+        IOActionExecutor executor = scheduler.newIOActionExecutor(timer);
+        int rounds = 10000;
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        CSP.<Integer>newChannel().bind(ping ->
+                CSP.<Integer>newChannel().bind(pong ->
+                        AsyncAction.fork(echo(ping, pong, rounds))
+                                .then(drive(ping, pong, 0, rounds))))
+                .bind(x -> AsyncAction.wrap(() -> {
+                    result.complete(x);
+                    return null;
+                }))
+                .getIOAction(executor).perform();
+        assertEquals((Integer) rounds, result.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsAfterShutdown() {
+        scheduler.shutdown();
+        scheduler.execute(() -> {
+        });
+    }
+}
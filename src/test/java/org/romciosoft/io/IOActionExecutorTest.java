@@ -0,0 +1,69 @@
+package org.romciosoft.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class IOActionExecutorTest {
+    private ScheduledExecutorService timer;
+
+    @Before
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void close() {
+        timer.shutdown();
+    }
+
+    @Test
+    public void scheduledActionRunsOnTaskExecutor() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            IOActionExecutor executor = new IOActionExecutor(pool, timer);
+            CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+            executor.schedule(() -> {
+                ranOn.complete(Thread.currentThread());
+                return null;
+            }, 10, TimeUnit.MILLISECONDS).perform();
+            assertTrue(ranOn.get(1, TimeUnit.SECONDS).getName().startsWith("ForkJoinPool"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void virtualThreadsUnavailable() {
+        assumeTrue(!VirtualThreads.isAvailable());
+        VirtualThreads.newExecutorService();
+    }
+
+    @Test
+    public void constantPromisesAreSharedByIdentityAndBounded() {
+        IOActionExecutor executor = new IOActionExecutor(timer);
+        assertSame(executor.constantPromise(true), executor.constantPromise(Boolean.TRUE));
+        Object singleton = new Object();
+        assertSame(executor.constantPromise(singleton), executor.constantPromise(singleton));
+        String value = "value";
+        assertNotSame(executor.constantPromise(value), executor.constantPromise(new String(value)));
+        for (int i = 0; i < 100; i++) {
+            executor.constantPromise(new Object());
+        }
+        Object late = new Object();
+        assertNotSame(executor.constantPromise(late), executor.constantPromise(late));
+        assertSame(executor.constantPromise(singleton), executor.constantPromise(singleton));
+    }
+}
@@ -25,4 +25,25 @@ public class IOActionTest {
         action = action.wrapException(MyException.class, e -> IOAction.unit(e.msg));
         assertEquals("foo", action.perform());
     }
+
+    @Test
+    public void longLeftNestedChain() throws Exception {
+        IOAction<Integer> action = IOAction.unit(0);
+        for (int i = 0; i < 1000000; i++) {
+            action = action.bind(x -> IOAction.unit(x + 1));
+        }
+        assertEquals((Integer) 1000000, action.perform());
+    }
+
+    private static IOAction<Integer> countUp(int x, int limit) {
+        if (x == limit) {
+            return IOAction.unit(x);
+        }
+        return IOAction.unit(x + 1).bind(y -> countUp(y, limit));
+    }
+
+    @Test
+    public void longRightNestedChain() throws Exception {
+        assertEquals((Integer) 1000000, countUp(0, 1000000).perform());
+    }
 }
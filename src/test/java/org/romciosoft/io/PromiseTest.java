@@ -4,11 +4,21 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PromiseTest {
     private ScheduledExecutorService scheduledExecutorService;
@@ -37,6 +47,30 @@ public class PromiseTest {
         assertEquals((Integer) 42, future.get());
     }
 
+    @Test
+    public void failurePropagatesThroughBind() throws Exception {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        Promise<Integer> source = Promise.<Integer>newPromise(ioActionExecutor).perform();
+        AsyncAction<Integer> bound = ((AsyncAction<Integer>) exe -> IOAction.unit(source))
+                .bind(x -> AsyncAction.unit(x + 1));
+        bound.getIOAction(ioActionExecutor).perform().addCallback(x -> () -> {
+            future.complete(x);
+            return null;
+        }, e -> () -> {
+            future.completeExceptionally(e);
+            return null;
+        }).perform();
+        IllegalStateException failure = new IllegalStateException("gone");
+        source.fail(failure).perform();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            return;
+        }
+        throw new AssertionError("bound action did not fail");
+    }
+
     @Test(expected = IllegalStateException.class)
     public void alreadyCompletedException() throws Exception {
         Promise.newPromise(ioActionExecutor)
@@ -52,4 +86,70 @@ public class PromiseTest {
         })).perform();
         assertEquals(false, result.get());
     }
+
+    @Test
+    public void inlineCallbackOnCompletedPromise() throws Exception {
+        IOActionExecutor inlineExecutor = new IOActionExecutor(scheduledExecutorService, 16, 1, TimeUnit.SECONDS);
+        CompletableFuture<Thread> thread = new CompletableFuture<>();
+        Promise.newPromise(inlineExecutor, 42).bind(pro -> pro.addCallback(x -> () -> {
+            thread.complete(Thread.currentThread());
+            return null;
+        })).perform();
+        assertSame(Thread.currentThread(), thread.getNow(null));
+    }
+
+    private static AsyncAction<Integer> countDown(int n) {
+        if (n == 0) {
+            return AsyncAction.unit(0);
+        }
+        return AsyncAction.unit(n - 1).bind(PromiseTest::countDown);
+    }
+
+    @Test
+    public void inlineDepthBudget() throws Exception {
+        IOActionExecutor inlineExecutor = new IOActionExecutor(scheduledExecutorService, 64, 1, TimeUnit.SECONDS);
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        countDown(100000).bind(x -> AsyncAction.wrap(() -> {
+            future.complete(x);
+            return null;
+        })).getIOAction(inlineExecutor).perform();
+        assertEquals((Integer) 0, future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentDeliveryAndCallbacks() throws Exception {
+        int threads = 8, callbacksPerThread = 1000;
+        ExecutorService racers = Executors.newFixedThreadPool(threads);
+        try {
+            Promise<Integer> pro = Promise.<Integer>newPromise(ioActionExecutor).perform();
+            AtomicInteger winners = new AtomicInteger();
+            CountDownLatch called = new CountDownLatch(threads * callbacksPerThread);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                futures.add(racers.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < callbacksPerThread; i++) {
+                        pro.addCallback(x -> () -> {
+                            called.countDown();
+                            return null;
+                        }).perform();
+                        if (i == callbacksPerThread / 2 && pro.tryDeliver(id).perform()) {
+                            winners.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertTrue(called.await(10, TimeUnit.SECONDS));
+            assertEquals(1, winners.get());
+        } finally {
+            racers.shutdown();
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package org.romciosoft.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+    private TimingWheel wheel;
+
+    @Before
+    public void init() {
+        wheel = new TimingWheel(1, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void close() {
+        wheel.stop();
+    }
+
+    @Test
+    public void firesInDeadlineOrderAndNotEarly() throws Exception {
+        List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        long[] firedAfter = new long[3];
+        for (int delay : new int[]{30, 10, 20}) {
+            wheel.schedule(() -> {
+                firedAfter[fired.size()] = System.nanoTime() - start;
+                fired.add(delay);
+                done.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(10, 20, 30), fired);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(firedAfter[i] >= TimeUnit.MILLISECONDS.toNanos(fired.get(i)));
+        }
+    }
+
+    @Test
+    public void cancelledTimersDoNotFire() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch kept = new CountDownLatch(1);
+        Timeout cancelled = wheel.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        Timeout fired = wheel.schedule(kept::countDown, 10, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(kept.await(1, TimeUnit.SECONDS));
+        assertFalse(fired.cancel());
+        Thread.sleep(40);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void cascadesThroughLevels() throws Exception {
+        // four slots per level, so a 100 tick delay starts out three levels up
+        TimingWheel small = new TimingWheel(1, TimeUnit.MILLISECONDS, 4);
+        try {
+            int timers = 200;
+            CountDownLatch done = new CountDownLatch(timers);
+            AtomicInteger early = new AtomicInteger();
+            long start = System.nanoTime();
+            for (int i = 0; i < timers; i++) {
+                int delay = i % 150 + 1;
+                small.schedule(() -> {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    done.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            assertEquals(0, early.get());
+        } finally {
+            small.stop();
+        }
+    }
+
+    @Test
+    public void drivesAsyncActionDelay() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            IOActionExecutor executor = new IOActionExecutor(pool, wheel);
+            CompletableFuture<Long> elapsed = new CompletableFuture<>();
+            long start = System.nanoTime();
+            AsyncAction.delay(20, TimeUnit.MILLISECONDS).then(AsyncAction.wrap(() -> {
+                elapsed.complete(System.nanoTime() - start);
+                return null;
+            })).getIOAction(executor).perform();
+            assertTrue(elapsed.get(1, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(20));
+            AtomicInteger runs = new AtomicInteger();
+            Timeout timeout = executor.scheduleCancellable(() -> {
+                runs.incrementAndGet();
+                return null;
+            }, 10, TimeUnit.MILLISECONDS).perform();
+            assertTrue(timeout.cancel());
+            Thread.sleep(30);
+            assertEquals(0, runs.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
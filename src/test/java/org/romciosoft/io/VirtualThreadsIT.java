@@ -0,0 +1,49 @@
+package org.romciosoft.io;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Run by failsafe in the jdk21 profile, against the packaged multi-release jar: target/classes on its own
+ * only ever holds the Java 8 VirtualThreads at the top level.
+ */
+public class VirtualThreadsIT {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void jarServesTheJava21Implementation() {
+        assertTrue(VirtualThreads.isAvailable());
+    }
+
+    @Test
+    public void blockingActionsOnVirtualThreads() throws Exception {
+        int actions = 1000;
+        IOActionExecutor executor = VirtualThreads.newIOActionExecutor(timer);
+        CountDownLatch started = new CountDownLatch(actions);
+        CountDownLatch finished = new CountDownLatch(actions);
+        for (int i = 0; i < actions; i++) {
+            executor.submit(() -> {
+                started.countDown();
+                // only returns if every action got a thread of its own
+                started.await();
+                finished.countDown();
+                return null;
+            }).perform();
+        }
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(0, finished.getCount());
+    }
+}
@@ -0,0 +1,180 @@
+package org.romciosoft.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.romciosoft.csp.CSP;
+import org.romciosoft.csp.ChannelHandle;
+import org.romciosoft.csp.SelectResult;
+import org.romciosoft.csp.Serializer;
+import org.romciosoft.csp.Service;
+import org.romciosoft.io.AsyncAction;
+import org.romciosoft.io.IOActionExecutor;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxMetricsRegistryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduledExecutorService;
+    private MBeanServer server;
+    private JmxMetricsRegistry registry;
+    private IOActionExecutor ioActionExecutor;
+
+    @Before
+    public void init() {
+        scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        server = MBeanServerFactory.newMBeanServer();
+        registry = new JmxMetricsRegistry(server, "test");
+        ioActionExecutor = new IOActionExecutor(scheduledExecutorService, registry);
+    }
+
+    @After
+    public void close() {
+        scheduledExecutorService.shutdown();
+    }
+
+    private <T> T perform(AsyncAction<T> action) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        action.bind(x -> AsyncAction.wrap(() -> {
+            future.complete(x);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        return future.get();
+    }
+
+    private Object attribute(String name, String attribute) throws Exception {
+        return server.getAttribute(new ObjectName(name), attribute);
+    }
+
+    /**
+     * Counters are bumped after the token completes, so a test can see the result before the count.
+     */
+    private void awaitAttribute(String name, String attribute, Object expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!expected.equals(attribute(name, attribute)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, attribute(name, attribute));
+    }
+
+    @Test
+    public void bufferedChannelCountersAndDepth() throws Exception {
+        ChannelHandle<Integer> ch = perform(CSP.newChannel(4, "jobs"));
+        perform(ch.getSendPort().send(1).then(ch.getSendPort().send(2)).then(ch.getSendPort().send(3)));
+        String name = "test:type=Channel,kind=buffered,name=\"jobs\"";
+        awaitAttribute(name, "Sent", 3L);
+        awaitAttribute(name, "BufferedMessages", 3);
+        perform(ch.getReceivePort().receiveUpTo(3));
+        awaitAttribute(name, "Received", 3L);
+        awaitAttribute(name, "BufferedMessages", 0);
+    }
+
+    @Test
+    public void parkedReceiverIsCountedAndTimed() throws Exception {
+        ChannelHandle<Integer> ch = perform(CSP.newChannel(0, "handoff"));
+        CompletableFuture<Integer> received = new CompletableFuture<>();
+        ch.getReceivePort().receive().bind(x -> AsyncAction.wrap(() -> {
+            received.complete(x);
+            return null;
+        })).getIOAction(ioActionExecutor).perform();
+        String name = "test:type=Channel,kind=unbuffered,name=\"handoff\"";
+        awaitAttribute(name, "WaitingReceivers", 1);
+        Thread.sleep(5);
+        perform(ch.getSendPort().send(42));
+        assertEquals((Integer) 42, received.get());
+        awaitAttribute(name, "WaitingReceivers", 0);
+        awaitAttribute(name, "WaitCount", 1L);
+        assertTrue((Long) attribute(name, "MaxWaitMicros") >= 1000);
+        assertEquals(2L, registry.select().getStarted());
+        assertTrue(registry.executor().getSubmitted() > 0);
+    }
+
+    @Test
+    public void timedOutAndAbandonedSelectsAreNotPending() throws Exception {
+        ChannelHandle<Integer> quiet = perform(CSP.newChannel());
+        SelectResult<Integer> result = perform(CSP.<Integer>select().receive(quiet.getReceivePort())
+                .timeout(1, TimeUnit.MILLISECONDS).build());
+        assertEquals(SelectResult.Type.TIMED_OUT, result.getType());
+        ChannelHandle<Integer> closed = perform(CSP.newSpillingChannel(1, folder.newFolder().toPath(),
+                Serializer.java()));
+        perform(closed.getReceivePort().close());
+        try {
+            CSP.<Integer>select().receive(quiet.getReceivePort()).receive(closed.getReceivePort()).build()
+                    .getIOAction(ioActionExecutor).perform();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        String name = "test:type=Select";
+        awaitAttribute(name, "TimedOut", 1L);
+        awaitAttribute(name, "Abandoned", 1L);
+        awaitAttribute(name, "Pending", 0L);
+        assertEquals(0L, registry.select().getCompleted());
+    }
+
+    @Test
+    public void unnamedChannelsShareStats() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ChannelHandle<Integer> ch = perform(CSP.newChannel(1));
+            perform(ch.getSendPort().send(i));
+        }
+        awaitAttribute("test:type=Channel,kind=buffered,name=\"<unnamed>\"", "Sent", 3L);
+        assertEquals(3L, registry.getChannelStats("buffered", null).getSent());
+    }
+
+    @Test
+    public void serviceLatenciesAndBatches() throws Exception {
+        Service<Integer, Integer> service = perform(CSP.<Integer, Integer>batchService(8, xs -> xs)
+                .workers(1)
+                .name("echo")
+                .build());
+        for (int i = 0; i < 5; i++) {
+            assertEquals((Integer) i, perform(service.call(i)));
+        }
+        String name = "test:type=Service,kind=pool,name=\"echo\"";
+        awaitAttribute(name, "Completed", 5L);
+        assertTrue((Long) attribute(name, "Batches") >= 1);
+        assertEquals(5L, registry.getServiceStats("echo").getCompleted());
+        awaitAttribute("test:type=Channel,kind=buffered,name=\"echo\"", "Received", 5L);
+    }
+
+    @Test
+    public void secondRegistryInTheSameDomainFails() throws Exception {
+        try {
+            new JmxMetricsRegistry(server, "test");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof InstanceAlreadyExistsException);
+        }
+        registry.select().started(1);
+        assertEquals(1L, attribute("test:type=Select", "Started"));
+        new JmxMetricsRegistry(server, "other");
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+    }
+}